@@ -0,0 +1,25 @@
+#!/bin/sh
+# JMH ベンチマークのビルドと実行（Maven/Gradle は使わない）。
+#
+#   bench/run.sh                      # 全ベンチマーク（-prof gc 付き）
+#   bench/run.sh InlineBenchmark      # 名前（正規表現）で絞り込み
+#   bench/run.sh -f 1 -wi 2 -i 3 Table  # JMH のオプションはそのまま渡る
+#
+# 依存 jar: lib/*.jar（POI）と bench/lib/*.jar（JMH）。詳細は bench/README.md。
+set -e
+
+ROOT=$(cd "$(dirname "$0")/.." && pwd)
+OUT="$ROOT/bench/target"
+CP="$ROOT/lib/*:$ROOT/bench/lib/*"
+
+rm -rf "$OUT/classes"
+mkdir -p "$OUT/classes"
+
+# 本体と bench を一緒にコンパイルし、JMH のアノテーションプロセッサで計測コードを生成する
+find "$ROOT/src" "$ROOT/bench/src" -name '*.java' > "$OUT/sources.txt"
+javac --release 8 -nowarn -encoding UTF-8 -cp "$CP" \
+    -processor org.openjdk.jmh.generators.BenchmarkProcessor \
+    -d "$OUT/classes" @"$OUT/sources.txt"
+
+java -cp "$OUT/classes:$CP" org.openjdk.jmh.Main \
+    -prof gc -rf json -rff "$OUT/result.json" "$@"
@@ -0,0 +1,101 @@
+package md2excel.render;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * ベンチマーク用の入力（日本語 / ASCII 混在）。 結果を比較できるよう、文書の生成は固定シードで毎回同じ内容にする。
+ */
+final class BenchInputs {
+
+    private BenchInputs() {
+    }
+
+    /** インライン解析用の 1 行（@Param のキー → 本文）。 */
+    static String inline(String kind) {
+        switch (kind) {
+        case "ascii":
+            return "Returns the **resolved** value for `key`, or *null* when the entry is missing (see _Notes_).";
+        case "japanese":
+            return "設定ファイルの**読み込み**に失敗した場合は、*既定値*で処理を続行し、警告ログを出力します。";
+        case "mixed":
+            return "API `getUser(id)` は**ユーザー情報**を返す。存在しない場合は *404* を返し、__監査ログ__に記録する。";
+        case "br":
+            return "1 行目の**説明**<br>2 行目 `code<br>inside`<br>3 行目 *強調*<br>";
+        case "emphasis":
+            return "***強調*** と **太字 *入れ子* 太字** と _a_b_c_ と **未閉じ と *x**y* と __z__ の組み合わせ";
+        default:
+            throw new IllegalArgumentException(kind);
+        }
+    }
+
+    /**
+     * 機械生成の Markdown にありがちな、記号だらけの 1 行（@Param のキー → 約 chars 文字）。 以前の解析では、どれも
+     * 長さの 2 乗で遅くなった。
+     */
+    static String stress(String kind, int chars) {
+        switch (kind) {
+        case "rule3":
+            // 開けて閉じられる run と、長さが 3 の倍数にならない closer（rule of 3 で opener を探し続ける）
+            return repeat("x*x ", chars / 8) + repeat("x** ", chars / 8);
+        case "backticks":
+            // 長さの違うバッククォートの run（どれも閉じない）
+            StringBuilder sb = new StringBuilder(chars + 64);
+            for (int len = 1; sb.length() < chars; len++) {
+                sb.append(repeat("`", len)).append(' ');
+            }
+            return sb.toString();
+        case "openers":
+            // 閉じない opener
+            return repeat("*a ", chars / 3);
+        case "br":
+            // 1 セルに多数の <br>
+            return repeat("a<br>", chars / 5);
+        case "mixed":
+            return repeat("**a `b` _c_ x*y* ``", chars / 19);
+        default:
+            throw new IllegalArgumentException(kind);
+        }
+    }
+
+    private static String repeat(String s, int times) {
+        StringBuilder sb = new StringBuilder(s.length() * times);
+        for (int i = 0; i < times; i++) {
+            sb.append(s);
+        }
+        return sb.toString();
+    }
+
+    /** テーブル行（@Param のキー → 1 行）。 */
+    static String tableRow(String kind) {
+        switch (kind) {
+        case "plain":
+            return "| userId | ユーザー ID | String | 必須 |";
+        case "rich":
+            return "| **name** | `String` | 氏名（姓<br>名） | `a\\|b` は *エスケープ* |";
+        case "wide":
+            return "| c1 | c2 | c3 | c4 | c5 | c6 | c7 | c8 | c9 | c10 | c11 | c12 | c13 | c14 | c15 | c16 |";
+        default:
+            throw new IllegalArgumentException(kind);
+        }
+    }
+
+    private static final String[] DOC_POOL = { "# 仕様書 **概要**", "## 2. 機能一覧 ##", "### 2.1 ログイン<br>認証", "#### 補足",
+            "本システムは **社内向け** の申請管理を行う。`status` が *承認済み* の場合のみ出力する。",
+            "The service returns `200 OK` with a **JSON** body; errors use _problem+json_.", "段落の続きです。  ",
+            "改行付きの行<br>次の行", "* 箇条書き **太字**", "- 項目二<br>説明行", "  * ネスト項目 `code`",
+            "    - さらに深い項目", "1. 手順一", "2) 手順二<br>補足", "  1. 子手順", "> 注意: **必須** 項目です",
+            "> 引用<br>続き", "| 項目 | 型 | 説明 |", "|---|:---:|---|", "| id | `long` | 主キー<br>自動採番 |",
+            "| name | `String` | **氏名** |", "---", "", "", "```java", "int count = 0; // 件数", "return list.size();", "```" };
+
+    /** 固定シードで lines 行の文書を作る。 */
+    static List<String> document(int lines) {
+        Random r = new Random(20260317L);
+        List<String> out = new ArrayList<String>(lines);
+        for (int i = 0; i < lines; i++) {
+            out.add(DOC_POOL[r.nextInt(DOC_POOL.length)]);
+        }
+        return out;
+    }
+}
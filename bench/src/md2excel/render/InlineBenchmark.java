@@ -0,0 +1,70 @@
+package md2excel.render;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * MarkdownInline の段階ごとの計測。
+ *
+ * resolveEmphasis はトークン列を書き換えるので単体では測れない。 tokenizeAndResolve − tokenize を resolve の分とみなす。
+ * buildSegments は解決済みのトークン列に対して何度でも呼べる（トークン列は書き換えない）。
+ * トークン列は本体と同じく使い回すので、B/op は segment の文字列と結果のリストの分だけになる。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = { "-Xms1g", "-Xmx1g" })
+@State(Scope.Benchmark)
+public class InlineBenchmark {
+
+    @Param({ "ascii", "japanese", "mixed", "br", "emphasis" })
+    public String input;
+
+    private String text;
+    private final InlineTokens tokens = new InlineTokens();
+    private final InlineTokens resolved = new InlineTokens();
+
+    @Setup
+    public void setup() {
+        text = BenchInputs.inline(input);
+        MarkdownInline.tokenizeInline(text, resolved, RenderContext.DEFAULT_INLINE_LIMIT);
+        MarkdownInline.resolveEmphasis(resolved, '*');
+        MarkdownInline.resolveEmphasis(resolved, '_');
+    }
+
+    @Benchmark
+    public InlineTokens tokenize() {
+        MarkdownInline.tokenizeInline(text, tokens, RenderContext.DEFAULT_INLINE_LIMIT);
+        return tokens;
+    }
+
+    @Benchmark
+    public InlineTokens tokenizeAndResolve() {
+        MarkdownInline.tokenizeInline(text, tokens, RenderContext.DEFAULT_INLINE_LIMIT);
+        MarkdownInline.resolveEmphasis(tokens, '*');
+        MarkdownInline.resolveEmphasis(tokens, '_');
+        return tokens;
+    }
+
+    @Benchmark
+    public MarkdownInline.ParseResult buildSegments() {
+        return MarkdownInline.buildSegments(resolved, false);
+    }
+
+    @Benchmark
+    public MarkdownInline.BrSplitResult splitByBr() {
+        return MarkdownInline.splitByBrPreserveFormatting(text);
+    }
+}
@@ -0,0 +1,55 @@
+package md2excel.render;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 記号だらけの長い 1 行（BenchInputs.stress）の解析。
+ *
+ * chars を 10 倍にしたとき時間もおよそ 10 倍（線形）になることを確かめる。 unlimited は上限なし（inlineLimit = 0）で
+ * 強調・コードを解決し切る時間、limited は既定の上限で文字のままに切り替える時間。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = { "-Xms1g", "-Xmx1g" })
+@State(Scope.Benchmark)
+public class InlineStressBenchmark {
+
+    @Param({ "rule3", "backticks", "openers", "br", "mixed" })
+    public String input;
+
+    @Param({ "1000", "10000", "100000" })
+    public int chars;
+
+    private String text;
+
+    @Setup
+    public void setup() {
+        text = BenchInputs.stress(input, chars);
+    }
+
+    @Benchmark
+    public List<MarkdownInline.MdSegment> unlimited() {
+        return MarkdownInline.joinLinesWithSingleSpace(MarkdownInline.splitByBrPreserveFormatting(text, 0));
+    }
+
+    @Benchmark
+    public List<MarkdownInline.MdSegment> limited() {
+        return MarkdownInline.joinLinesWithSingleSpace(
+                MarkdownInline.splitByBrPreserveFormatting(text, RenderContext.DEFAULT_INLINE_LIMIT));
+    }
+}
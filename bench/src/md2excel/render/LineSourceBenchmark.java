@@ -0,0 +1,76 @@
+package md2excel.render;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import md2excel.markdown.MappedLineSource;
+import md2excel.markdown.MdTextUtil;
+
+/** 入力ファイルの行読み込み（Files.newBufferedReader の lines() と MappedLineSource）。 */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = { "-Xms1g", "-Xmx1g" })
+@State(Scope.Benchmark)
+public class LineSourceBenchmark {
+
+    @Param({ "5000", "50000" })
+    public int lines;
+
+    private Path file;
+
+    @Setup
+    public void setup() throws IOException {
+        file = Files.createTempFile("md2excel-bench", ".md");
+        Files.write(file, BenchInputs.document(lines), StandardCharsets.UTF_8);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public long bufferedReader() throws IOException {
+        try (BufferedReader r = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            return consume(r.lines().iterator());
+        }
+    }
+
+    @Benchmark
+    public long mapped() throws IOException {
+        try (MappedLineSource src = new MappedLineSource(file)) {
+            return consume(src);
+        }
+    }
+
+    // 行判定の入口（trim 範囲）まで通す
+    private static long consume(Iterator<? extends CharSequence> it) {
+        long sum = 0;
+        while (it.hasNext()) {
+            CharSequence line = it.next();
+            int ts = MdTextUtil.trimStart(line);
+            sum += MdTextUtil.trimEnd(line, ts) - ts;
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,59 @@
+package md2excel.render;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import md2excel.markdown.MdTextUtil;
+
+/** 行判定・テーブルセル整形で毎行呼ばれる MdTextUtil の文字列処理。 */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = { "-Xms1g", "-Xmx1g" })
+@State(Scope.Benchmark)
+public class MdTextUtilBenchmark {
+
+    @Param({ "ascii", "japanese", "mixed", "br", "emphasis" })
+    public String input;
+
+    private String text;
+    private String spaced;
+
+    @Setup
+    public void setup() {
+        text = BenchInputs.inline(input);
+        spaced = "  " + text.replace(" ", "   ") + "  ";
+    }
+
+    @Benchmark
+    public String replaceBrOutsideInlineCode() {
+        return MdTextUtil.replaceBrOutsideInlineCode(text, " ");
+    }
+
+    @Benchmark
+    public String collapseSpaces() {
+        return MdTextUtil.collapseSpaces(spaced);
+    }
+
+    @Benchmark
+    public String stripHeadingClosingHashes() {
+        return MdTextUtil.stripHeadingClosingHashes(text);
+    }
+
+    @Benchmark
+    public boolean isNumberedListLine() {
+        return MdTextUtil.isNumberedListLine(text);
+    }
+}
@@ -0,0 +1,95 @@
+package md2excel.render;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.VerticalAlignment;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import md2excel.api.Md2Excel;
+import md2excel.api.Md2ExcelOptions;
+import md2excel.excel.MdStyle;
+
+/**
+ * 文書全体の変換。
+ *
+ * render: Workbook / MdStyle の準備を除いた MarkdownRenderer.render のみ（準備は呼び出しごとの Setup で行う）。
+ * convert: Md2Excel.convert の全体（xlsx の書き出しを含む。出力は捨てる）。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 2, jvmArgsAppend = { "-Xms1g", "-Xmx1g" })
+@State(Scope.Benchmark)
+public class RendererBenchmark {
+
+    @Param({ "500", "5000" })
+    public int lines;
+
+    private List<String> doc;
+    private String docText;
+
+    private Workbook wb;
+    private RenderContext ctx;
+
+    @Setup(Level.Trial)
+    public void setupTrial() {
+        doc = BenchInputs.document(lines);
+        docText = String.join("\n", doc);
+    }
+
+    @Setup(Level.Invocation)
+    public void setupInvocation() {
+        wb = new XSSFWorkbook();
+        Sheet sheet = wb.createSheet("spec");
+        MdStyle styles = new MdStyle(wb, "游ゴシック", 16, 14, 12, 10, VerticalAlignment.CENTER);
+        ctx = new RenderContext(wb, sheet, styles, new RenderContext.Settings(40));
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDownInvocation() throws IOException {
+        wb.close();
+    }
+
+    @Benchmark
+    public RenderContext render() {
+        MarkdownRenderer.render(doc.iterator(), ctx);
+        return ctx;
+    }
+
+    @Benchmark
+    public void convert() throws IOException {
+        Md2Excel.convert(new StringReader(docText), NullOutputStream.INSTANCE, Md2ExcelOptions.DEFAULTS);
+    }
+
+    private static final class NullOutputStream extends OutputStream {
+        static final NullOutputStream INSTANCE = new NullOutputStream();
+
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package md2excel.render;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.VerticalAlignment;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import md2excel.excel.MdStyle;
+import md2excel.markdown.MdTextUtil;
+
+/**
+ * MarkdownTable.createTableRow（セル分割 → インライン解析 → リッチテキスト設定）。
+ *
+ * 同じ Row にセルを作り直すので、シートの行数は増えない。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = { "-Xms1g", "-Xmx1g" })
+@State(Scope.Benchmark)
+public class TableBenchmark {
+
+    @Param({ "plain", "rich", "wide" })
+    public String input;
+
+    private String line;
+    private int from;
+    private int to;
+    private Workbook wb;
+    private MarkdownInline.FontRegistry fonts;
+    private MdStyle styles;
+    private Row row;
+
+    @Setup
+    public void setup() {
+        line = BenchInputs.tableRow(input);
+        from = MdTextUtil.trimStart(line);
+        to = MdTextUtil.trimEnd(line, from);
+        wb = new XSSFWorkbook();
+        // 変換 1 回分と同じく Workbook ごとに 1 つ
+        fonts = new MarkdownInline.FontRegistry(wb);
+        styles = new MdStyle(wb, "游ゴシック", 16, 14, 12, 10, VerticalAlignment.CENTER);
+        row = wb.createSheet("spec").createRow(0);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        wb.close();
+    }
+
+    @Benchmark
+    public int createTableRow() {
+        return MarkdownTable.createTableRow(fonts, line, from, to, null, RenderContext.DEFAULT_INLINE_LIMIT, row,
+                styles, false, 0, null);
+    }
+
+    @Benchmark
+    public int createTableHeaderRow() {
+        return MarkdownTable.createTableRow(fonts, line, from, to, null, RenderContext.DEFAULT_INLINE_LIMIT, row,
+                styles, true, 0, null);
+    }
+}
@@ -0,0 +1,148 @@
+package md2excel.api;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 出力モードの自動選択（Md2ExcelOptions.withAutoEngine）。
+ *
+ * 入力を 1 回なめて行数・表のセル数・コードの行数を数え（Profile）、XSSF でシートを組み立てたときのヒープを見積もる。
+ * 見積もりが使えるヒープの一定割合に収まれば XSSF、収まらなければ streaming。 空いているコアがあり行数が多いときは、
+ * 全行を持てるなら二段階、持てなければパイプラインにする。 同時に変換している数でヒープとコアを割って考える。
+ */
+final class EngineSelector {
+    private EngineSelector() {
+    }
+
+    // XSSF の 1 行あたりのヒープ（実測。見出し・箇条書き・段落と空行が混ざった文書の平均）
+    private static final long LINE_BYTES = 2500;
+    // 表の 1 セルあたり（| 1 つを 1 セルと数える）
+    private static final long TABLE_CELL_BYTES = 420;
+    // コードブロックの 1 行・1 列あたり（既定の装飾は右端まで背景のセルを作る）
+    private static final long CODE_CELL_BYTES = 440;
+    // 疎な装飾のコードブロックの 1 行あたり（枠線のセルだけ）
+    private static final long SPARSE_CODE_LINE_BYTES = 1500;
+    // 二段階変換で全行を String で持つときの 1 行あたりの余分（本文は 2 バイト/文字で別に数える）
+    private static final long LINE_STRING_BYTES = 64;
+
+    // 見積もりに使ってよいヒープの割合（書き出し中の一時的な使用量の分を空けておく）
+    private static final double HEAP_SHARE = 0.4;
+    // これより短い文書は並列にしても立ち上げの分だけ遅い
+    private static final long PARALLEL_MIN_LINES = 20000;
+
+    /** 入力の下見の結果。 */
+    static final class Profile {
+        final long bytes;
+        final long lines;
+        final long tableCells;
+        final long codeLines;
+
+        Profile(long bytes, long lines, long tableCells, long codeLines) {
+            this.bytes = bytes;
+            this.lines = lines;
+            this.tableCells = tableCells;
+            this.codeLines = codeLines;
+        }
+    }
+
+    /** 入力をメモリマップして行・表の行の | の数・コードブロック内の行を数える（UTF-8 のデコードはしない）。 */
+    static Profile scan(Path in) throws IOException {
+        long lines = 0;
+        long tableCells = 0;
+        long codeLines = 0;
+
+        try (FileChannel ch = FileChannel.open(in, StandardOpenOption.READ)) {
+            long size = ch.size();
+            boolean inCode = false;
+            boolean lineStart = true; // 行頭の空白を読んでいる
+            boolean fence = false; // この行はフェンス
+            int fenceChar = 0;
+            int fenceRun = 0;
+            long pipes = 0;
+            boolean empty = true;
+
+            for (long pos = 0; pos < size;) {
+                int len = (int) Math.min(Integer.MAX_VALUE, size - pos);
+                MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, pos, len);
+                for (int i = 0; i < len; i++) {
+                    byte b = buf.get(i);
+                    if (b == '\n') {
+                        lines++;
+                        if (fence) {
+                            inCode = !inCode;
+                        } else if (inCode) {
+                            codeLines++;
+                        } else if (pipes > 0) {
+                            tableCells += pipes;
+                        }
+                        lineStart = true;
+                        fence = false;
+                        fenceRun = 0;
+                        pipes = 0;
+                        empty = true;
+                        continue;
+                    }
+                    empty = false;
+                    if (lineStart) {
+                        if ((b == ' ' || b == '\t') && fenceRun == 0) {
+                            continue;
+                        }
+                        if ((b == '`' || b == '~') && (fenceRun == 0 || b == fenceChar)) {
+                            fenceChar = b;
+                            if (++fenceRun == 3) {
+                                fence = true;
+                                lineStart = false;
+                            }
+                            continue;
+                        }
+                        lineStart = false;
+                    }
+                    if (b == '|') {
+                        pipes++;
+                    }
+                }
+                pos += len;
+            }
+            if (!empty) {
+                // 末尾に改行のない最後の行
+                lines++;
+                if (inCode && !fence) {
+                    codeLines++;
+                } else if (!inCode && pipes > 0) {
+                    tableCells += pipes;
+                }
+            }
+            return new Profile(size, lines, tableCells, codeLines);
+        }
+    }
+
+    /** XSSF でシート全体を組み立てたときのヒープの見積もり（バイト）。 */
+    static long estimateXssfBytes(Profile p, Md2ExcelOptions opts) {
+        long code = opts.sparseDecoration ? p.codeLines * SPARSE_CODE_LINE_BYTES
+                : p.codeLines * CODE_CELL_BYTES * opts.mergeCols;
+        return p.lines * LINE_BYTES + p.tableCells * TABLE_CELL_BYTES + code;
+    }
+
+    /**
+     * 出力モードを選ぶ。 maxMemory は Runtime.maxMemory()、active はこの変換を含めて同時に変換している数。
+     * 返すオプションは autoEngine を外したもの。
+     */
+    static Md2ExcelOptions choose(Profile p, Md2ExcelOptions opts, long maxMemory, int cores, int active) {
+        double budget = (double) maxMemory / Math.max(1, active) * HEAP_SHARE;
+        long xssf = estimateXssfBytes(p, opts);
+        boolean streaming = xssf > budget;
+
+        int spare = cores - active;
+        boolean parallel = spare >= 1 && p.lines >= PARALLEL_MIN_LINES;
+        // 二段階は全行を String で持つ（XSSF ならシートと合わせて収まること）
+        long lineHeap = p.bytes * 2 + p.lines * LINE_STRING_BYTES;
+        boolean twoPhase = parallel && (streaming ? 0 : xssf) + lineHeap <= budget;
+        // パイプラインは読み込み・解析の 2 スレッドを足す
+        boolean pipeline = parallel && !twoPhase && spare >= 2;
+
+        return opts.withEngine(streaming, twoPhase, pipeline);
+    }
+}
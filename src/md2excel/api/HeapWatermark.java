@@ -0,0 +1,82 @@
+package md2excel.api;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.List;
+
+import md2excel.render.ProgressListener;
+
+/**
+ * 変換中のヒープの水位（自動選択で XSSF を選んだときの保険）。
+ *
+ * 長く生き残る領域（Eden・Survivor 以外のヒープ）の直近の GC の後の使用量を、その領域の上限と比べる（今の使用量は
+ * まだ回収していないごみを含む）。 その領域をまだ回収していない（G1 は full GC まで GC の後の使用量を更新しない）
+ * あいだは、今の使用量を高めの水位と比べる。 XSSF のシートはそこに溜まっていくので、見積もりを外れて水位を超えたら
+ * render を抜けて streaming でやり直す。 確認は途中経過の通知（200 ms ごと）に乗せる。
+ */
+final class HeapWatermark {
+
+    // 長く生き残る領域の上限に対する水位（GC の後の使用量 / まだ回収していないときの今の使用量）
+    private static final double WATERMARK = 0.7;
+    private static final double UNCOLLECTED_WATERMARK = 0.9;
+
+    private final List<MemoryPoolMXBean> pools = new ArrayList<MemoryPoolMXBean>();
+    private final long limit;
+    private final long uncollectedLimit;
+
+    /** maxMemory は領域の上限が分からないとき（上限なしの領域）に使う。 */
+    HeapWatermark(long maxMemory) {
+        long max = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            String name = pool.getName();
+            if (pool.getType() == MemoryType.HEAP && pool.isValid() && !name.contains("Eden")
+                    && !name.contains("Survivor")) {
+                pools.add(pool);
+                long poolMax = pool.getUsage().getMax();
+                max = (poolMax < 0 || max < 0) ? -1 : max + poolMax;
+            }
+        }
+        long heap = max > 0 ? max : maxMemory;
+        this.limit = (long) (heap * WATERMARK);
+        this.uncollectedLimit = (long) (heap * UNCOLLECTED_WATERMARK);
+    }
+
+    boolean exceeded() {
+        long used = 0;
+        boolean uncollected = false;
+        for (MemoryPoolMXBean pool : pools) {
+            MemoryUsage afterGc = pool.getCollectionUsage();
+            if (afterGc != null && afterGc.getUsed() > 0) {
+                used += afterGc.getUsed();
+            } else {
+                used += pool.getUsage().getUsed();
+                uncollected = true;
+            }
+        }
+        return used > (uncollected ? uncollectedLimit : limit);
+    }
+
+    /** 通知のたびに水位を確かめ、超えていたら Exceeded を投げる（その後 next に渡す）。 */
+    ProgressListener guard(ProgressListener next) {
+        return p -> {
+            if (!p.isDone() && exceeded()) {
+                throw new Exceeded();
+            }
+            if (next != null) {
+                next.onProgress(p);
+            }
+        };
+    }
+
+    /** 水位を超えた（render を抜けるためだけに使うのでスタックトレースは取らない）。 */
+    static final class Exceeded extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        Exceeded() {
+            super("ヒープの使用量が水位を超えました", null, false, false);
+        }
+    }
+}
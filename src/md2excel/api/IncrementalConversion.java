@@ -0,0 +1,106 @@
+package md2excel.api;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import md2excel.excel.MdStreamingWorkbook;
+import md2excel.markdown.MappedLineSource;
+import md2excel.render.BlockIndex;
+import md2excel.render.CancellationToken;
+import md2excel.render.MarkdownRenderer;
+import md2excel.render.ProgressListener;
+import md2excel.render.RenderContext;
+import md2excel.render.RenderListener;
+
+/**
+ * 差分変換（Md2ExcelOptions.withIncremental）。
+ *
+ * 出力の横にブロックの索引（BlockIndex）を置き、次の変換では新しい入力を先頭からブロックごとに比べる。 変わって
+ * いないブロックの行は前回の出力のシートの XML をそのまま写し、最初に変わったブロックの手前の切れ目から render を
+ * 続ける。 前回の出力・索引が無い・読めない、オプションが違う、出力が後から書き換えられた（大きさ・更新日時が索引と
+ * 違う）ときは最初から変換する。
+ *
+ * 写した行のスタイルの index をそのまま使えるように、出力は streaming で、スタイルは中身によらず全部同じ順に作る。
+ * 出力は最後にまとめて書くので、中止・失敗しても前回の出力と索引は残る。
+ */
+final class IncrementalConversion {
+    private IncrementalConversion() {
+    }
+
+    // 索引のファイル名（出力のファイル名の後ろに付ける）
+    static final String INDEX_SUFFIX = ".blocks";
+
+    /** シートのデータ（行）の外に書くもの（条件付き書式・列幅・結合）を使うオプションとは組み合わせられない。 */
+    static boolean supports(Md2ExcelOptions opts) {
+        return !opts.sparseDecoration && !opts.tableAutoWidth && !opts.wrapText;
+    }
+
+    static void convert(Path in, Path out, Md2ExcelOptions opts, RenderListener listener, ProgressListener progress,
+            CancellationToken cancel) throws IOException {
+        Path indexFile = out.resolveSibling(out.getFileName() + INDEX_SUFFIX);
+        String key = outputKey(opts);
+
+        BlockIndex index = readIndex(indexFile, key, out);
+        try {
+            int restart = -1;
+            if (index != null) {
+                try (MappedLineSource lines = new MappedLineSource(in)) {
+                    int unchanged = index.unchangedBlocks(lines);
+                    if (unchanged == index.blockCount() && !lines.hasNext()) {
+                        // 入力は前回と同じ
+                        return;
+                    }
+                    restart = index.restartBlock(unchanged);
+                }
+            }
+
+            try (MdStreamingWorkbook workbook = new MdStreamingWorkbook();
+                    MappedLineSource lines = new MappedLineSource(in)) {
+                if (restart >= 0) {
+                    // シートを作るときに、前回の出力の先頭の行を写す
+                    workbook.copyLeadingRows(out, index.restartRow(restart));
+                }
+                RenderContext ctx = Md2Excel.createContext(workbook, opts, true, listener, progress, cancel);
+
+                if (restart >= 0) {
+                    for (int i = index.restartLine(restart); i > 0 && lines.hasNext(); i--) {
+                        lines.next();
+                    }
+                    MarkdownRenderer.resume(lines, ctx, index, restart);
+                } else {
+                    index = new BlockIndex();
+                    MarkdownRenderer.render(lines, ctx, index);
+                }
+
+                // 書き出しに失敗したときに古い索引が残らないように、先に消す
+                Files.deleteIfExists(indexFile);
+                OutputFiles.replace(out, workbook::write);
+            }
+        } catch (UncheckedIOException e) {
+            // MappedLineSource は読み込み・デコードのエラーを UncheckedIOException で包む
+            throw e.getCause();
+        }
+
+        index.write(indexFile, key, Files.size(out), Files.getLastModifiedTime(out).toMillis());
+    }
+
+    // 前回の索引（この出力・このオプションのものでなければ null）
+    private static BlockIndex readIndex(Path indexFile, String key, Path out) throws IOException {
+        if (!Files.exists(out)) {
+            return null;
+        }
+        BlockIndex index = BlockIndex.read(indexFile);
+        if (index == null || !index.matches(key, Files.size(out), Files.getLastModifiedTime(out).toMillis())) {
+            return null;
+        }
+        return index;
+    }
+
+    // 出力（セル・スタイル・シートの切り替え）を変えるオプション
+    private static String outputKey(Md2ExcelOptions opts) {
+        return opts.mergeCols + "/" + opts.fontName + "/" + opts.h1Size + "/" + opts.h2Size + "/" + opts.h3Size + "/"
+                + opts.normalSize + "/" + opts.vAlign + "/" + opts.sheetRows + "/" + opts.inlineLimit;
+    }
+}
@@ -0,0 +1,177 @@
+package md2excel.api;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+
+import md2excel.excel.MdStreamingWorkbook;
+import md2excel.excel.MdStyle;
+import md2excel.excel.MdWorkbook;
+import md2excel.excel.WorkbookTemplate;
+import md2excel.markdown.MappedLineSource;
+import md2excel.render.CancellationToken;
+import md2excel.render.MarkdownRenderer;
+import md2excel.render.ProgressListener;
+import md2excel.render.RenderContext;
+import md2excel.render.RenderListener;
+
+/**
+ * 組み込み用の変換 API（Markdown → xlsx）。
+ *
+ * 呼び出しごとに Workbook / MdStyle / RenderContext を作るので、複数スレッドから同時に呼んでよい。 オプション
+ * （Md2ExcelOptions）は不変なので使い回す。 入力・出力ストリームは閉じない（呼び出し側の責任）。
+ */
+public final class Md2Excel {
+
+    private Md2Excel() {
+    }
+
+    private static final String SHEET_NAME = "spec";
+
+    // 同時に変換している数（自動選択でヒープ・コアを分け合う）
+    private static final AtomicInteger ACTIVE = new AtomicInteger();
+
+    public static void convert(Reader in, OutputStream out, Md2ExcelOptions opts) throws IOException {
+        convert(in, out, opts, null);
+    }
+
+    /** listener を渡すと render の計測結果（行種別ごとの時間・行/セル数）を受け取れる。 */
+    public static void convert(Reader in, OutputStream out, Md2ExcelOptions opts, RenderListener listener)
+            throws IOException {
+        convert(in, out, opts, listener, null, null);
+    }
+
+    /**
+     * progress を渡すと途中経過（読んだ行・バイト・作った行・処理速度）を受け取れる。 cancel を渡すと行と行の間で
+     * 中止・期限を確認し、中止されたら何も書かずに CancellationException を投げる。 どちらも null 可。
+     */
+    public static void convert(Reader in, OutputStream out, Md2ExcelOptions opts, RenderListener listener,
+            ProgressListener progress, CancellationToken cancel) throws IOException {
+        BufferedReader br = (in instanceof BufferedReader) ? (BufferedReader) in : new BufferedReader(in);
+        try {
+            convert(br.lines().iterator(), out, opts, listener, progress, cancel);
+        } catch (UncheckedIOException e) {
+            // BufferedReader.lines() は読み込みエラーを UncheckedIOException で包む
+            throw e.getCause();
+        }
+    }
+
+    /** 入力は UTF-8 として読む。 */
+    public static void convert(InputStream in, OutputStream out, Md2ExcelOptions opts) throws IOException {
+        convert(new InputStreamReader(in, StandardCharsets.UTF_8), out, opts);
+    }
+
+    public static void convert(Path in, Path out, Md2ExcelOptions opts) throws IOException {
+        convert(in, out, opts, null);
+    }
+
+    /** 入力は UTF-8。 ファイルをメモリマップして読む（行ごとの String を作るのは本文が必要な行だけ）。 */
+    public static void convert(Path in, Path out, Md2ExcelOptions opts, RenderListener listener) throws IOException {
+        convert(in, out, opts, listener, null, null);
+    }
+
+    /**
+     * progress / cancel は Reader 版と同じ。 出力は同じディレクトリの一時ファイルに書いてから置き換えるので、中止・失敗
+     * しても前回の出力は残る。 opts.autoEngine なら入力を下見して出力モードを選ぶ（ヒープの水位を超えて streaming で
+     * やり直すときは、progress は 0 行から数え直す）。 opts.incremental なら差分変換（progress は変換し直した行だけ
+     * 数える）。
+     */
+    public static void convert(Path in, Path out, Md2ExcelOptions opts, RenderListener listener,
+            ProgressListener progress, CancellationToken cancel) throws IOException {
+        if (opts.incremental && IncrementalConversion.supports(opts)) {
+            IncrementalConversion.convert(in, out, opts, listener, progress, cancel);
+        } else if (opts.autoEngine) {
+            convertAuto(in, out, opts, listener, progress, cancel);
+        } else {
+            convertMapped(in, out, opts, listener, progress, cancel);
+        }
+    }
+
+    private static void convertAuto(Path in, Path out, Md2ExcelOptions opts, RenderListener listener,
+            ProgressListener progress, CancellationToken cancel) throws IOException {
+        Runtime rt = Runtime.getRuntime();
+        Md2ExcelOptions chosen = EngineSelector.choose(EngineSelector.scan(in), opts, rt.maxMemory(),
+                rt.availableProcessors(), ACTIVE.get() + 1);
+        if (chosen.streaming) {
+            convertMapped(in, out, chosen, listener, progress, cancel);
+            return;
+        }
+
+        HeapWatermark watermark = new HeapWatermark(rt.maxMemory());
+        try {
+            convertMapped(in, out, chosen, listener, watermark.guard(progress), cancel);
+        } catch (HeapWatermark.Exceeded e) {
+            // 組み立て中のシートは捨てて、最初から streaming で（全行を持つ二段階はやめてパイプラインに）
+            convertMapped(in, out, chosen.withEngine(true, false, chosen.twoPhase || chosen.pipeline), listener,
+                    progress, cancel);
+        }
+    }
+
+    private static void convertMapped(Path in, Path out, Md2ExcelOptions opts, RenderListener listener,
+            ProgressListener progress, CancellationToken cancel) throws IOException {
+        try (MappedLineSource lines = new MappedLineSource(in)) {
+            OutputFiles.replace(out, os -> convert(lines, os, opts, listener, progress, cancel));
+        } catch (UncheckedIOException e) {
+            // MappedLineSource は読み込み・デコードのエラーを UncheckedIOException で包む
+            throw e.getCause();
+        }
+    }
+
+    private static void convert(Iterator<? extends CharSequence> lines, OutputStream out, Md2ExcelOptions opts,
+            RenderListener listener, ProgressListener progress, CancellationToken cancel) throws IOException {
+        ACTIVE.incrementAndGet();
+        try {
+            render(lines, out, opts, listener, progress, cancel);
+        } finally {
+            ACTIVE.decrementAndGet();
+        }
+    }
+
+    private static void render(Iterator<? extends CharSequence> lines, OutputStream out, Md2ExcelOptions opts,
+            RenderListener listener, ProgressListener progress, CancellationToken cancel) throws IOException {
+        try (Workbook workbook = opts.streaming ? new MdStreamingWorkbook() : new MdWorkbook()) {
+            RenderContext ctx = createContext(workbook, opts, false, listener, progress, cancel);
+
+            if (opts.twoPhase) {
+                MarkdownRenderer.renderTwoPhase(lines, ctx, ForkJoinPool.commonPool());
+            } else if (opts.pipeline) {
+                MarkdownRenderer.renderPipelined(lines, ctx);
+            } else {
+                MarkdownRenderer.render(lines, ctx);
+            }
+
+            workbook.write(out);
+        }
+    }
+
+    /** シート・スタイル・列の準備をして RenderContext を作る。 allStyles ならスタイル・フォントを先に全部作る（差分変換）。 */
+    static RenderContext createContext(Workbook workbook, Md2ExcelOptions opts, boolean allStyles,
+            RenderListener listener, ProgressListener progress, CancellationToken cancel) {
+        MdStyle styles = new MdStyle(workbook, opts.fontName, opts.h1Size, opts.h2Size, opts.h3Size,
+                opts.normalSize, opts.vAlign);
+        Sheet sheet = WorkbookTemplate.of(opts.mergeCols, opts.fontName, opts.normalSize, opts.vAlign)
+                .createSheet(workbook, SHEET_NAME, styles);
+
+        RenderContext.Settings settings = new RenderContext.Settings(opts.mergeCols)
+                .backPatchWindow(opts.backPatchWindow).listener(listener).inlineCacheSize(opts.inlineCacheSize)
+                .sparseDecoration(opts.sparseDecoration).tableAutoWidth(opts.tableAutoWidth).wrapText(opts.wrapText)
+                .sheetRows(opts.sheetRows).progress(progress, cancel).inlineLimit(opts.inlineLimit);
+        RenderContext ctx = new RenderContext(workbook, sheet, styles, settings);
+        if (allStyles) {
+            ctx.createAllStyles();
+        }
+        return ctx;
+    }
+}
@@ -0,0 +1,312 @@
+package md2excel.api;
+
+import java.util.Properties;
+
+import org.apache.poi.ss.usermodel.VerticalAlignment;
+
+import md2excel.config.Md2ExcelConfig;
+
+/**
+ * 変換オプション（不変）。 1 つ作って複数スレッド・複数回の変換で使い回してよい。
+ *
+ * 値の既定・検証は Md2ExcelConfig（GUI / CLI）と同じ。
+ */
+public final class Md2ExcelOptions {
+    public final int mergeCols;
+    public final String fontName;
+    public final int h1Size;
+    public final int h2Size;
+    public final int h3Size;
+    public final int normalSize;
+    public final VerticalAlignment vAlign;
+    public final boolean streaming; // true: SXSSF（逐次書き出し）
+    public final int backPatchWindow; // streaming 時に開いたブロック用に保持する行数
+    public final int inlineCacheSize; // インライン解析結果のキャッシュのエントリ数（0 で使わない。render ごと）
+    public final boolean twoPhase; // true: インライン解析を先に並列（ForkJoinPool.commonPool）で済ませる
+    public final boolean pipeline; // true: 読み込み・解析・書き込みを別スレッドで重ねる（twoPhase が優先）
+    public final boolean sparseDecoration; // true: コード・引用の背景と水平線をセルではなく条件付き書式で付ける
+    public final boolean tableAutoWidth; // true: 表の列幅をセルの文字列に合わせて広げる
+    public final boolean wrapText; // true: 右端を超える本文を折り返し、行の高さを合わせる
+    public final int sheetRows; // 1 シートの行数の上限（超えたら次の切れ目で spec_2, spec_3 ... に移る）
+    public final boolean autoEngine; // true: 入力の大きさ・ヒープから streaming / twoPhase / pipeline を選ぶ
+    public final boolean incremental; // true: 前回の出力と索引から、変わったところより後ろだけ変換し直す
+    public final int inlineLimit; // 1 行（表はセル）の記号の run の数の上限（超えたら文字のまま。0 で上限なし）
+
+    /** GUI / CLI と同じ既定値。 */
+    public static final Md2ExcelOptions DEFAULTS = fromProperties(new Properties());
+
+    // with* が 1 つだけ変えて新しいオプションを作るための、値の写し
+    private static final class Values {
+        int mergeCols;
+        String fontName;
+        int h1Size;
+        int h2Size;
+        int h3Size;
+        int normalSize;
+        VerticalAlignment vAlign;
+        boolean streaming;
+        int backPatchWindow;
+        int inlineCacheSize;
+        boolean twoPhase;
+        boolean pipeline;
+        boolean sparseDecoration;
+        boolean tableAutoWidth;
+        boolean wrapText;
+        int sheetRows;
+        boolean autoEngine;
+        boolean incremental;
+        int inlineLimit;
+    }
+
+    private Md2ExcelOptions(Values v) {
+        this.mergeCols = v.mergeCols;
+        this.fontName = v.fontName;
+        this.h1Size = v.h1Size;
+        this.h2Size = v.h2Size;
+        this.h3Size = v.h3Size;
+        this.normalSize = v.normalSize;
+        this.vAlign = v.vAlign;
+        this.streaming = v.streaming;
+        this.backPatchWindow = v.backPatchWindow;
+        this.inlineCacheSize = v.inlineCacheSize;
+        this.twoPhase = v.twoPhase;
+        this.pipeline = v.pipeline;
+        this.sparseDecoration = v.sparseDecoration;
+        this.tableAutoWidth = v.tableAutoWidth;
+        this.wrapText = v.wrapText;
+        this.sheetRows = v.sheetRows;
+        this.autoEngine = v.autoEngine;
+        this.incremental = v.incremental;
+        this.inlineLimit = v.inlineLimit;
+    }
+
+    private Values values() {
+        Values v = new Values();
+        v.mergeCols = mergeCols;
+        v.fontName = fontName;
+        v.h1Size = h1Size;
+        v.h2Size = h2Size;
+        v.h3Size = h3Size;
+        v.normalSize = normalSize;
+        v.vAlign = vAlign;
+        v.streaming = streaming;
+        v.backPatchWindow = backPatchWindow;
+        v.inlineCacheSize = inlineCacheSize;
+        v.twoPhase = twoPhase;
+        v.pipeline = pipeline;
+        v.sparseDecoration = sparseDecoration;
+        v.tableAutoWidth = tableAutoWidth;
+        v.wrapText = wrapText;
+        v.sheetRows = sheetRows;
+        v.autoEngine = autoEngine;
+        v.incremental = incremental;
+        v.inlineLimit = inlineLimit;
+        return v;
+    }
+
+    public static Md2ExcelOptions from(Md2ExcelConfig cfg) {
+        Values v = new Values();
+        v.mergeCols = cfg.mergeCols;
+        v.fontName = cfg.fontName;
+        v.h1Size = cfg.h1Size;
+        v.h2Size = cfg.h2Size;
+        v.h3Size = cfg.h3Size;
+        v.normalSize = cfg.normalSize;
+        v.vAlign = cfg.vAlign;
+        v.streaming = cfg.streaming;
+        v.backPatchWindow = cfg.backPatchWindow;
+        v.inlineCacheSize = cfg.inlineCacheSize;
+        v.twoPhase = cfg.twoPhase;
+        v.pipeline = cfg.pipeline;
+        v.sparseDecoration = cfg.sparseDecoration;
+        v.tableAutoWidth = cfg.tableAutoWidth;
+        v.wrapText = cfg.wrapText;
+        v.sheetRows = cfg.sheetRows;
+        v.autoEngine = cfg.autoEngine;
+        v.incremental = cfg.incremental;
+        v.inlineLimit = cfg.inlineLimit;
+        return new Md2ExcelOptions(v);
+    }
+
+    /** キーは Md2ExcelConfig.KEY_*（CLI のオプション名と同じ）。未指定・不正な値は既定値。 */
+    public static Md2ExcelOptions fromProperties(Properties p) {
+        return from(Md2ExcelConfig.fromProperties(p));
+    }
+
+    public Md2ExcelOptions withMergeCols(int mergeCols) {
+        Values v = values();
+        if (mergeCols > 0) {
+            v.mergeCols = mergeCols;
+        }
+        return new Md2ExcelOptions(v);
+    }
+
+    public Md2ExcelOptions withFontName(String fontName) {
+        Values v = values();
+        if (fontName != null && !fontName.trim().isEmpty()) {
+            v.fontName = fontName.trim();
+        }
+        return new Md2ExcelOptions(v);
+    }
+
+    public Md2ExcelOptions withStreaming(boolean streaming, int backPatchWindow) {
+        Values v = values();
+        v.streaming = streaming;
+        if (backPatchWindow > 0) {
+            v.backPatchWindow = backPatchWindow;
+        }
+        return new Md2ExcelOptions(v);
+    }
+
+    /** 0 でキャッシュを使わない（負の値は無視）。 */
+    public Md2ExcelOptions withInlineCacheSize(int inlineCacheSize) {
+        Values v = values();
+        if (inlineCacheSize >= 0) {
+            v.inlineCacheSize = inlineCacheSize;
+        }
+        return new Md2ExcelOptions(v);
+    }
+
+    /**
+     * 二段階変換（全行を読んでからインライン解析を並列に済ませ、セルを書く）。 全行をメモリに持つので、巨大な
+     * ファイルでは streaming と組み合わせても入力の大きさ分のメモリを使う。
+     */
+    public Md2ExcelOptions withTwoPhase(boolean twoPhase) {
+        Values v = values();
+        v.twoPhase = twoPhase;
+        return new Md2ExcelOptions(v);
+    }
+
+    /**
+     * パイプライン変換（読み込み・分類とインライン解析・セルの書き込みを別スレッドで重ねる）。 行は少しずつ受け渡すので
+     * streaming と組み合わせてもメモリは増えない。 twoPhase と両方指定したときは twoPhase。
+     */
+    public Md2ExcelOptions withPipeline(boolean pipeline) {
+        Values v = values();
+        v.pipeline = pipeline;
+        return new Md2ExcelOptions(v);
+    }
+
+    /**
+     * 疎な装飾。 コードブロック・引用の背景と水平線をセルではなく条件付き書式で付け、枠線のあるセルだけを作る
+     * （長いコードブロックでセル数と出力が大きく減る）。 見た目は同じだが、装飾のない列にもセルがある前提の
+     * 後加工（セルの書式を読むなど）とは相性が悪い。
+     */
+    public Md2ExcelOptions withSparseDecoration(boolean sparseDecoration) {
+        Values v = values();
+        v.sparseDecoration = sparseDecoration;
+        return new Md2ExcelOptions(v);
+    }
+
+    /**
+     * 表を閉じるときに、セルの文字列の幅に合わせて表の列を広げる（狭めない。上限は 60 文字分）。 列はシート全体で
+     * 共有なので、同じ列を使う本文の字下げも広がる。
+     */
+    public Md2ExcelOptions withTableAutoWidth(boolean tableAutoWidth) {
+        Values v = values();
+        v.tableAutoWidth = tableAutoWidth;
+        return new Md2ExcelOptions(v);
+    }
+
+    /**
+     * 右端（mergeCols 列）を超える本文（段落・箇条書き）を、セルの列から右端まで結合して折り返し、行の高さを折り返した
+     * 行数分にする。 幅は文字の種類ごとの幅の表から見積もる。
+     */
+    public Md2ExcelOptions withWrapText(boolean wrapText) {
+        Values v = values();
+        v.wrapText = wrapText;
+        return new Md2ExcelOptions(v);
+    }
+
+    /**
+     * 1 シートの行数の上限。 達したら次の切れ目（コード・表・引用の外の見出し・リストの項目、リストの外の空行）で
+     * 新しいシート（spec_2, spec_3 ...）に移る。 既定は 1,000,000 行（Excel の上限 1,048,576 行まで切れ目を待つ余裕を
+     * 残す。 切れ目が来ないまま上限に近づいたら、コード・表・引用の途中でも切り替える）。
+     */
+    public Md2ExcelOptions withSheetRows(int sheetRows) {
+        Values v = values();
+        if (sheetRows > 0) {
+            v.sheetRows = sheetRows;
+        }
+        return new Md2ExcelOptions(v);
+    }
+
+    /**
+     * 出力モードの自動選択。 Path からの変換で、入力を先に 1 回なめて（バイト数・行数・表とコードの行数）ヒープの
+     * 見積もりを出し、通常（XSSF）・streaming・二段階・パイプラインを選ぶ（streaming / twoPhase / pipeline の指定は
+     * 使わない）。 通常で始めてもヒープの使用量が水位を超えたら、streaming で最初からやり直す。 Reader / InputStream
+     * からの変換では先に読めないので、指定どおりのモードで変換する。
+     */
+    public Md2ExcelOptions withAutoEngine(boolean autoEngine) {
+        Values v = values();
+        v.autoEngine = autoEngine;
+        return new Md2ExcelOptions(v);
+    }
+
+    /**
+     * 差分変換。 Path への変換で、出力の横に索引（出力のファイル名 + ".blocks"）を置き、次の変換では入力の変わって
+     * いない先頭のブロックを前回の出力から写して、変わったところの手前の切れ目から後ろだけ変換し直す。 入力が前回と
+     * 同じなら出力を書き換えない。 出力は streaming（二段階・パイプライン・自動選択の指定は使わない）で、中身に
+     * よらずすべてのスタイルを作る。 sparseDecoration・tableAutoWidth・wrapText（シートのデータの外にも書くもの）
+     * とは組み合わせられず、そのときは普通に変換する。 Reader / InputStream からの変換では使わない。
+     */
+    public Md2ExcelOptions withIncremental(boolean incremental) {
+        Values v = values();
+        v.incremental = incremental;
+        return new Md2ExcelOptions(v);
+    }
+
+    /**
+     * 1 行（表はセル）の記号の run（バッククォートの run と、強調記号として扱う * / _ の run）の数の上限。 超えた行は
+     * 太字・斜体・インラインコードにせず、文字のまま出す（&lt;br&gt; の改行はする）。 解析は上限に関係なく行の長さに
+     * 比例する時間で終わるが、機械的に作られた記号だらけの行でセルの書式（run）が膨らまないようにする。 既定は
+     * 10,000。 0 で上限なし（負の値は無視）。
+     */
+    public Md2ExcelOptions withInlineLimit(int inlineLimit) {
+        Values v = values();
+        if (inlineLimit >= 0) {
+            v.inlineLimit = inlineLimit;
+        }
+        return new Md2ExcelOptions(v);
+    }
+
+    /** すべての値が同じなら等しい（設定ごとに何かを覚えておくときのキーに使える）。 */
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof Md2ExcelOptions)) {
+            return false;
+        }
+        Md2ExcelOptions x = (Md2ExcelOptions) o;
+        return mergeCols == x.mergeCols && fontName.equals(x.fontName) && h1Size == x.h1Size && h2Size == x.h2Size
+                && h3Size == x.h3Size && normalSize == x.normalSize && vAlign == x.vAlign && streaming == x.streaming
+                && backPatchWindow == x.backPatchWindow && inlineCacheSize == x.inlineCacheSize
+                && twoPhase == x.twoPhase && pipeline == x.pipeline && sparseDecoration == x.sparseDecoration
+                && tableAutoWidth == x.tableAutoWidth && wrapText == x.wrapText && sheetRows == x.sheetRows
+                && autoEngine == x.autoEngine && incremental == x.incremental && inlineLimit == x.inlineLimit;
+    }
+
+    @Override
+    public int hashCode() {
+        int h = mergeCols;
+        h = h * 31 + fontName.hashCode();
+        h = h * 31 + ((h1Size * 31 + h2Size) * 31 + h3Size) * 31 + normalSize;
+        h = h * 31 + vAlign.hashCode();
+        h = h * 31 + backPatchWindow;
+        h = h * 31 + inlineCacheSize;
+        h = h * 31 + sheetRows;
+        h = h * 31 + inlineLimit;
+        int flags = (streaming ? 1 : 0) | (twoPhase ? 2 : 0) | (pipeline ? 4 : 0) | (sparseDecoration ? 8 : 0)
+                | (tableAutoWidth ? 16 : 0) | (wrapText ? 32 : 0) | (autoEngine ? 64 : 0) | (incremental ? 128 : 0);
+        return h * 31 + flags;
+    }
+
+    /** 自動選択の結果を当てはめる（自動選択は外す）。 */
+    Md2ExcelOptions withEngine(boolean streaming, boolean twoPhase, boolean pipeline) {
+        Values v = values();
+        v.streaming = streaming;
+        v.twoPhase = twoPhase;
+        v.pipeline = pipeline;
+        v.autoEngine = false;
+        return new Md2ExcelOptions(v);
+    }
+}
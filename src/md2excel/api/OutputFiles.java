@@ -0,0 +1,49 @@
+package md2excel.api;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 出力ファイルの書き出し。
+ *
+ * 同じディレクトリの一時ファイルに書き、書き終わってから出力に置き換える。 中止・失敗したときは一時ファイルを消すだけ
+ * なので、前回の出力はそのまま残る。
+ */
+final class OutputFiles {
+    private OutputFiles() {
+    }
+
+    /** 出力に書く中身。 */
+    interface Body {
+        void writeTo(OutputStream os) throws IOException;
+    }
+
+    static void replace(Path out, Body body) throws IOException {
+        Path tmp = out.resolveSibling(out.getFileName() + "." + Long.toHexString(ThreadLocalRandom.current().nextLong())
+                + ".tmp");
+        boolean moved = false;
+        try {
+            try (OutputStream os = Files.newOutputStream(tmp, StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.WRITE)) {
+                body.writeTo(os);
+            }
+            try {
+                Files.move(tmp, out, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                // 置き換えを一度にできないファイルシステムでは、ふつうに置き換える
+                Files.move(tmp, out, StandardCopyOption.REPLACE_EXISTING);
+            }
+            moved = true;
+        } finally {
+            if (!moved) {
+                Files.deleteIfExists(tmp);
+            }
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package md2excel.app;
+
+import java.awt.BorderLayout;
+import java.awt.Frame;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+
+import javax.swing.BorderFactory;
+import javax.swing.JButton;
+import javax.swing.JDialog;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JProgressBar;
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
+import javax.swing.WindowConstants;
+
+import md2excel.config.Md2ExcelConfig;
+import md2excel.render.CancellationToken;
+import md2excel.render.RenderProgress;
+
+/**
+ * GUI 版の変換中ダイアログ。 変換は SwingWorker のスレッドで行い、進捗バー（読んだバイト / ファイルサイズ）と
+ * 行数・処理速度を表示する。 「中止」ボタン・ウィンドウを閉じる操作で変換を中止する。
+ */
+final class ConvertProgressDialog extends SwingWorker<Path, RenderProgress> {
+
+    private static final int BAR_MAX = 1000;
+
+    private final Md2ExcelConfig cfg;
+    private final long totalBytes;
+    private final CancellationToken cancel = new CancellationToken();
+
+    private JDialog dialog;
+    private JProgressBar bar;
+    private JLabel label;
+    private JButton cancelButton;
+
+    private ConvertProgressDialog(Md2ExcelConfig cfg, long totalBytes) {
+        this.cfg = cfg;
+        this.totalBytes = totalBytes;
+    }
+
+    /** ダイアログを出して変換し、終わるまで待つ（EDT 以外から呼ぶ）。 @return 出力先（中止されたら null） */
+    static Path run(Md2ExcelConfig cfg) throws IOException, InterruptedException {
+        ConvertProgressDialog worker = new ConvertProgressDialog(cfg, Files.size(Paths.get(cfg.inPath)));
+        try {
+            SwingUtilities.invokeAndWait(worker::showDialog);
+        } catch (InvocationTargetException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+        worker.execute();
+
+        try {
+            return worker.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof CancellationException) {
+                return null;
+            }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    private void showDialog() {
+        dialog = new JDialog((Frame) null, "変換中", false);
+        dialog.setDefaultCloseOperation(WindowConstants.DO_NOTHING_ON_CLOSE);
+        dialog.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                requestCancel();
+            }
+        });
+
+        bar = new JProgressBar(0, BAR_MAX);
+        bar.setStringPainted(true);
+        label = new JLabel(Paths.get(cfg.inPath).getFileName().toString());
+        cancelButton = new JButton("中止");
+        cancelButton.addActionListener(e -> requestCancel());
+
+        JPanel panel = new JPanel(new BorderLayout(0, 8));
+        panel.setBorder(BorderFactory.createEmptyBorder(12, 12, 12, 12));
+        panel.add(label, BorderLayout.NORTH);
+        panel.add(bar, BorderLayout.CENTER);
+        JPanel buttons = new JPanel();
+        buttons.add(cancelButton);
+        panel.add(buttons, BorderLayout.SOUTH);
+
+        dialog.setContentPane(panel);
+        dialog.setSize(420, 150);
+        dialog.setLocationRelativeTo(null);
+        dialog.setVisible(true);
+    }
+
+    private void requestCancel() {
+        cancel.cancel();
+        cancelButton.setEnabled(false);
+        cancelButton.setText("中止しています…");
+    }
+
+    @Override
+    protected Path doInBackground() throws IOException {
+        return MarkdownToExcel.convert(cfg, this::publish, cancel);
+    }
+
+    @Override
+    protected void process(List<RenderProgress> chunks) {
+        // 間に合わなかった分は最新の 1 件だけ表示すればよい
+        RenderProgress p = chunks.get(chunks.size() - 1);
+        if (totalBytes > 0) {
+            bar.setValue((int) Math.min(BAR_MAX, p.bytes() * BAR_MAX / totalBytes));
+        }
+        label.setText(String.format(Locale.ROOT, "%,d 行 → %,d 行（%,.0f 行/秒）", p.lines(), p.rows(),
+                p.linesPerSecond()));
+    }
+
+    @Override
+    protected void done() {
+        dialog.dispose();
+    }
+}
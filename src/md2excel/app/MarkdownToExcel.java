@@ -1,22 +1,16 @@
 package md2excel.app;
 
-import java.io.OutputStream;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
+import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.stream.Stream;
 
 import javax.swing.JOptionPane;
 
-import org.apache.poi.ss.usermodel.Sheet;
-import org.apache.poi.ss.usermodel.Workbook;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
-
+import md2excel.api.Md2Excel;
+import md2excel.api.Md2ExcelOptions;
 import md2excel.config.Md2ExcelConfig;
-import md2excel.excel.MdStyle;
-import md2excel.render.MarkdownRenderer;
-import md2excel.render.RenderContext;
+import md2excel.render.CancellationToken;
+import md2excel.render.ProgressListener;
 
 public class MarkdownToExcel {
 
@@ -27,37 +21,32 @@ public class MarkdownToExcel {
             return;
         }
 
-        Path mdPath = Paths.get(cfg.inPath);
-        Path xlsxPath = Paths.get(cfg.outPath);
-
-        // 全読みをやめて逐次読み（Stream）にする
-        try (Stream<String> lines = Files.lines(mdPath, StandardCharsets.UTF_8);
-                Workbook workbook = new XSSFWorkbook()) {
-
-            Sheet sheet = workbook.createSheet("spec");
-
-            sheet.setDisplayGridlines(false);
-            sheet.setPrintGridlines(false);
-
-            MdStyle styles = new MdStyle(workbook, cfg.fontName, cfg.h1Size, cfg.h2Size, cfg.h3Size, cfg.normalSize,
-                    cfg.vAlign);
-
-            for (int c = 0; c < cfg.mergeCols; c++) {
-                sheet.setColumnWidth(c, 3 * 256);
-                sheet.setDefaultColumnStyle(c, styles.normalStyle);
-            }
-
-            RenderContext ctx = new RenderContext(workbook, sheet, styles, cfg.mergeCols);
+        // 変換中は進捗ダイアログを出す（中止できる）
+        Path xlsxPath = ConvertProgressDialog.run(cfg);
+        if (xlsxPath == null) {
+            System.out.println("変換を中止しました。");
+            JOptionPane.showMessageDialog(null, "変換を中止しました。", "中止", JOptionPane.WARNING_MESSAGE);
+            return;
+        }
 
-            MarkdownRenderer.render(lines.iterator(), ctx);
+        System.out.println("生成完了: " + xlsxPath.toAbsolutePath());
+        JOptionPane.showMessageDialog(null, "Excel ファイルを生成しました。\n" + xlsxPath.toAbsolutePath(), "完了",
+                JOptionPane.INFORMATION_MESSAGE);
+    }
 
-            try (OutputStream os = Files.newOutputStream(xlsxPath)) {
-                workbook.write(os);
-            }
+    /**
+     * cfg.inPath の Markdown を cfg.outPath の xlsx に変換する（GUI を使わない）。 中身は Md2Excel.convert なので、別スレッド
+     * から並行に呼んでよい。
+     */
+    public static Path convert(Md2ExcelConfig cfg) throws IOException {
+        return convert(cfg, null, null);
+    }
 
-            System.out.println("生成完了: " + xlsxPath.toAbsolutePath());
-            JOptionPane.showMessageDialog(null, "Excel ファイルを生成しました。\n" + xlsxPath.toAbsolutePath(), "完了",
-                    JOptionPane.INFORMATION_MESSAGE);
-        }
+    /** progress / cancel は Md2Excel.convert と同じ（null 可）。 中止されたら CancellationException。 */
+    public static Path convert(Md2ExcelConfig cfg, ProgressListener progress, CancellationToken cancel)
+            throws IOException {
+        Path xlsxPath = Paths.get(cfg.outPath);
+        Md2Excel.convert(Paths.get(cfg.inPath), xlsxPath, Md2ExcelOptions.from(cfg), null, progress, cancel);
+        return xlsxPath;
     }
 }
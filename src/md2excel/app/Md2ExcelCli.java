@@ -0,0 +1,425 @@
+package md2excel.app;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+import md2excel.api.Md2Excel;
+import md2excel.api.Md2ExcelOptions;
+import md2excel.config.Md2ExcelConfig;
+import md2excel.render.CancellationToken;
+import md2excel.render.RenderListener;
+
+/**
+ * ダイアログを出さないコマンドライン版（ビルドサーバー等の headless 環境向け）。
+ *
+ * <pre>
+ * java ... md2excel.app.Md2ExcelCli [options] &lt;file|dir|glob&gt;...
+ * </pre>
+ *
+ * ファイルごとに Workbook / RenderContext を作り、固定サイズのスレッドプールで並行に変換する。
+ */
+public final class Md2ExcelCli {
+
+    private Md2ExcelCli() {
+    }
+
+    private static final String USAGE = String.join(System.lineSeparator(),
+            "使い方: java md2excel.app.Md2ExcelCli [options] <file|dir|glob>...",
+            "  <file>            Markdown ファイル",
+            "  <dir>             配下の *.md / *.markdown を再帰的に変換",
+            "  <glob>            例: \"docs/**/*.md\"（シェル展開されないよう引用符で囲む）",
+            "options:",
+            "  -c, --config FILE 設定ファイル（properties。キーは下記オプション名と同じ）",
+            "  -o, --out DIR     出力先ディレクトリ（入力の相対構成を保つ。既定: 入力と同じ場所）",
+            "  -t, --threads N   並列数（既定: CPU コア数）",
+            "  --timeout SEC     1 ファイルの変換の期限（秒。小数可。超えたら中止して失敗扱い。既定: なし）",
+            "  --merge-cols N    1行分として扱う列数（既定: 40）",
+            "  --font NAME       フォント名（既定: 游ゴシック）",
+            "  --valign V        top | center | bottom（既定: center）",
+            "  --h1 N --h2 N --h3 N --normal N  フォントサイズ (pt)",
+            "  --streaming       ストリーミング出力（SXSSF）",
+            "  --window N        ストリーミング時の保持行数（既定: 1000）",
+            "  --inline-cache N  インライン解析結果のキャッシュのエントリ数（既定: 1024。0 で使わない）",
+            "  --two-phase       インライン解析を先に並列で済ませてからセルを書く（全行をメモリに読む）",
+            "  --pipeline        読み込み・解析・セルの書き込みを別スレッドで重ねる",
+            "  --sparse-decoration  コード・引用の背景と水平線を条件付き書式で付ける（枠線のセルだけ作る）",
+            "  --table-auto-width  表の列幅をセルの文字列に合わせて広げる",
+            "  --wrap-text         右端を超える本文を折り返し、行の高さを合わせる",
+            "  --auto-engine     入力の大きさ・ヒープ・空きコアから出力モード（通常 / streaming / 並列）を選ぶ",
+            "  --sheet-rows N    1 シートの行数の上限（既定: 1000000。超えたら次の見出し・空行で spec_2 ... に移る）",
+            "  --incremental     前回の出力と索引（<出力>.blocks）から、変わったところより後ろだけ変換し直す",
+            "  --inline-limit N  1 行（表はセル）の強調記号・` の run の数の上限（既定: 10000。超えたら文字のまま）",
+            "  --profile         ファイルごとに行種別の処理時間・行/セル数を標準エラーに出す",
+            "  -h, --help        このヘルプを表示");
+
+    // 値を取るオプション（設定キーとして Properties に入れる）
+    private static final String[] SETTING_KEYS = { Md2ExcelConfig.KEY_MERGE_COLS, Md2ExcelConfig.KEY_FONT,
+            Md2ExcelConfig.KEY_VALIGN, Md2ExcelConfig.KEY_H1, Md2ExcelConfig.KEY_H2, Md2ExcelConfig.KEY_H3,
+            Md2ExcelConfig.KEY_NORMAL, Md2ExcelConfig.KEY_WINDOW, Md2ExcelConfig.KEY_INLINE_CACHE,
+            Md2ExcelConfig.KEY_SHEET_ROWS, Md2ExcelConfig.KEY_INLINE_LIMIT };
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        System.exit(run(args));
+    }
+
+    /** @return 終了コード（0: 全件成功 / 1: 失敗あり / 2: 引数エラー） */
+    public static int run(String[] args) throws Exception {
+        try {
+            return runChecked(args);
+        } catch (IllegalArgumentException | IOException e) {
+            // NumberFormatException も IllegalArgumentException
+            System.err.println("引数エラー: " + e.getMessage());
+            return 2;
+        }
+    }
+
+    private static int runChecked(String[] args) throws IOException, InterruptedException {
+        Properties settings = new Properties();
+        Properties fileSettings = new Properties();
+        List<String> inputs = new ArrayList<>();
+        Path outDir = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean profile = false;
+        long timeoutMillis = 0;
+
+        for (int i = 0; i < args.length; i++) {
+            String a = args[i];
+            switch (a) {
+            case "-h":
+            case "--help":
+                System.out.println(USAGE);
+                return 0;
+            case "-c":
+            case "--config":
+                loadSettings(Paths.get(requireValue(args, ++i, a)), fileSettings);
+                break;
+            case "-o":
+            case "--out":
+                outDir = Paths.get(requireValue(args, ++i, a));
+                break;
+            case "-t":
+            case "--threads":
+                threads = Math.max(1, Integer.parseInt(requireValue(args, ++i, a)));
+                break;
+            case "--timeout":
+                timeoutMillis = parseTimeoutMillis(requireValue(args, ++i, a));
+                break;
+            case "--profile":
+                profile = true;
+                break;
+            case "--streaming":
+                settings.setProperty(Md2ExcelConfig.KEY_STREAMING, "true");
+                break;
+            case "--two-phase":
+                settings.setProperty(Md2ExcelConfig.KEY_TWO_PHASE, "true");
+                break;
+            case "--pipeline":
+                settings.setProperty(Md2ExcelConfig.KEY_PIPELINE, "true");
+                break;
+            case "--sparse-decoration":
+                settings.setProperty(Md2ExcelConfig.KEY_SPARSE_DECORATION, "true");
+                break;
+            case "--table-auto-width":
+                settings.setProperty(Md2ExcelConfig.KEY_TABLE_AUTO_WIDTH, "true");
+                break;
+            case "--wrap-text":
+                settings.setProperty(Md2ExcelConfig.KEY_WRAP_TEXT, "true");
+                break;
+            case "--auto-engine":
+                settings.setProperty(Md2ExcelConfig.KEY_AUTO_ENGINE, "true");
+                break;
+            case "--incremental":
+                settings.setProperty(Md2ExcelConfig.KEY_INCREMENTAL, "true");
+                break;
+            default:
+                if (a.startsWith("--") && isSettingKey(a.substring(2))) {
+                    String value = requireValue(args, ++i, a);
+                    Md2ExcelConfig.checkSetting(a.substring(2), value);
+                    settings.setProperty(a.substring(2), value);
+                } else if (a.startsWith("-")) {
+                    System.err.println("不明なオプション: " + a);
+                    System.err.println(USAGE);
+                    return 2;
+                } else {
+                    inputs.add(a);
+                }
+                break;
+            }
+        }
+
+        if (inputs.isEmpty()) {
+            System.err.println(USAGE);
+            return 2;
+        }
+
+        // コマンドラインの指定が設定ファイルより優先
+        fileSettings.putAll(settings);
+        // オプションは不変なので全ファイル・全スレッドで 1 つを共有する
+        Md2ExcelOptions opts = Md2ExcelOptions.fromProperties(fileSettings);
+
+        Map<Path, Path> files = collectInputs(inputs);
+        if (files.isEmpty()) {
+            System.err.println("変換対象の Markdown ファイルがありません。");
+            return 2;
+        }
+
+        return convertAll(planOutputs(files, outDir), opts, threads, profile, timeoutMillis);
+    }
+
+    /** files: 入力ファイル → 出力ファイル。 */
+    private static int convertAll(Map<Path, Path> files, Md2ExcelOptions opts, int threads, boolean profile,
+            long timeoutMillis) throws InterruptedException {
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, files.size()));
+        CompletionService<Result> done = new ExecutorCompletionService<>(pool);
+
+        long t0 = System.nanoTime();
+        for (Map.Entry<Path, Path> e : files.entrySet()) {
+            Path in = e.getKey();
+            Path out = e.getValue();
+            done.submit(() -> convertOne(in, out, opts, profile, timeoutMillis));
+        }
+        pool.shutdown();
+
+        int failed = 0;
+        long totalBytes = 0;
+        for (int n = 0; n < files.size(); n++) {
+            Result r;
+            try {
+                r = done.take().get();
+            } catch (ExecutionException e) {
+                // convertOne は例外を Result に詰めるので通常ここには来ない
+                throw new IllegalStateException(e.getCause());
+            }
+            totalBytes += r.inputBytes;
+            if (r.error == null) {
+                System.out.println(String.format(Locale.ROOT, "OK  %6d ms  %9s  %s -> %s", r.nanos / 1_000_000,
+                        formatBytes(r.inputBytes), r.in, r.out));
+            } else {
+                failed++;
+                System.out.println(String.format(Locale.ROOT, "NG  %6d ms  %9s  %s : %s", r.nanos / 1_000_000,
+                        formatBytes(r.inputBytes), r.in, r.error));
+            }
+        }
+
+        double sec = Math.max(1e-9, (System.nanoTime() - t0) / 1e9);
+        System.out.println(String.format(Locale.ROOT,
+                "合計: %d ファイル（成功 %d / 失敗 %d）, %s, %.2f 秒, %.1f files/s, %.2f MB/s, threads=%d", files.size(),
+                files.size() - failed, failed, formatBytes(totalBytes), sec, files.size() / sec,
+                totalBytes / 1048576.0 / sec, Math.min(threads, files.size())));
+
+        return failed == 0 ? 0 : 1;
+    }
+
+    /** timeoutMillis > 0 なら、変換を始めてからその時間で中止する（前回の出力は残る）。 */
+    private static Result convertOne(Path in, Path out, Md2ExcelOptions opts, boolean profile, long timeoutMillis) {
+        long t0 = System.nanoTime();
+        CancellationToken cancel = timeoutMillis > 0 ? CancellationToken.withTimeout(timeoutMillis,
+                TimeUnit.MILLISECONDS) : null;
+        long bytes = 0;
+        try {
+            bytes = Files.size(in);
+            Path parent = out.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            RenderListener listener = profile ? stats -> System.err.print("[" + in + "]" + System.lineSeparator()
+                    + stats.summary()) : null;
+            Md2Excel.convert(in, out, opts, listener, null, cancel);
+            return new Result(in, out, bytes, System.nanoTime() - t0, null);
+        } catch (Exception | OutOfMemoryError e) {
+            return new Result(in, out, bytes, System.nanoTime() - t0, e);
+        }
+    }
+
+    /** 入力指定を展開する。戻り値は 入力ファイル → 出力の相対構成の基準ディレクトリ（順序は指定順）。 */
+    private static Map<Path, Path> collectInputs(List<String> inputs) throws IOException {
+        Map<Path, Path> files = new LinkedHashMap<>();
+        for (String spec : inputs) {
+            if (isGlob(spec)) {
+                Path base = globBase(spec);
+                PathMatcher m = FileSystems.getDefault().getPathMatcher("glob:" + spec);
+                walk(base, p -> m.matches(p), base, files);
+                continue;
+            }
+
+            Path p = Paths.get(spec);
+            if (Files.isDirectory(p)) {
+                walk(p, Md2ExcelCli::isMarkdownFile, p, files);
+            } else if (Files.isRegularFile(p)) {
+                Path parent = p.toAbsolutePath().getParent();
+                files.putIfAbsent(p, parent != null ? parent : p.toAbsolutePath());
+            } else {
+                throw new IOException("入力が見つかりません: " + spec);
+            }
+        }
+        return files;
+    }
+
+    private static void walk(Path dir, Predicate<Path> filter, Path root, Map<Path, Path> out)
+            throws IOException {
+        if (!Files.isDirectory(dir)) {
+            return;
+        }
+        try (Stream<Path> s = Files.walk(dir)) {
+            s.filter(Files::isRegularFile).filter(filter).sorted().forEach(p -> out.putIfAbsent(p, root));
+        }
+    }
+
+    /**
+     * 入力ごとの出力先を決める（入力ファイル → 出力ファイル）。 拡張子だけが違う入力（b.md と b.markdown）など、出力先が
+     * 同じになる入力があれば、どれも変換せずに引数エラーにする（後から書いた方だけが残り、並列では同じファイルを奪い合う
+     * ため）。 同じファイルを別の書き方で指定したときは 1 回だけ変換する。
+     */
+    private static Map<Path, Path> planOutputs(Map<Path, Path> files, Path outDir) {
+        Map<Path, Path> jobs = new LinkedHashMap<>();
+        Set<Path> seenInputs = new HashSet<>();
+        Map<Path, Path> sources = new HashMap<>();
+        StringBuilder collisions = new StringBuilder();
+        for (Map.Entry<Path, Path> e : files.entrySet()) {
+            Path in = e.getKey();
+            if (!seenInputs.add(in.toAbsolutePath().normalize())) {
+                continue;
+            }
+            Path out = outputPathFor(in, e.getValue(), outDir);
+            Path prev = sources.putIfAbsent(out.toAbsolutePath().normalize(), in);
+            if (prev != null) {
+                collisions.append(System.lineSeparator()).append("  ").append(prev).append(" と ").append(in)
+                        .append(" -> ").append(out);
+            }
+            jobs.put(in, out);
+        }
+        if (collisions.length() > 0) {
+            throw new IllegalArgumentException("出力先が同じファイルになる入力があります（どれも変換しません）:"
+                    + collisions);
+        }
+        return jobs;
+    }
+
+    private static Path outputPathFor(Path in, Path root, Path outDir) {
+        if (outDir == null) {
+            return Paths.get(Md2ExcelConfig.defaultOutPath(in.toString()));
+        }
+        Path rel = root.toAbsolutePath().relativize(in.toAbsolutePath());
+        return Paths.get(Md2ExcelConfig.defaultOutPath(outDir.resolve(rel).toString()));
+    }
+
+    private static boolean isMarkdownFile(Path p) {
+        String name = p.getFileName().toString().toLowerCase(Locale.ROOT);
+        return name.endsWith(".md") || name.endsWith(".markdown");
+    }
+
+    private static boolean isGlob(String spec) {
+        return spec.indexOf('*') >= 0 || spec.indexOf('?') >= 0 || spec.indexOf('[') >= 0 || spec.indexOf('{') >= 0;
+    }
+
+    // glob 文字を含まない先頭部分のディレクトリ（"docs/**/*.md" → "docs"）
+    private static Path globBase(String spec) {
+        String s = spec.replace('\\', '/');
+        int firstGlob = s.length();
+        for (char ch : new char[] { '*', '?', '[', '{' }) {
+            int i = s.indexOf(ch);
+            if (i >= 0 && i < firstGlob) {
+                firstGlob = i;
+            }
+        }
+        int slash = s.lastIndexOf('/', firstGlob);
+        if (slash < 0) {
+            return Paths.get("");
+        }
+        return Paths.get(slash == 0 ? "/" : s.substring(0, slash));
+    }
+
+    /** 設定ファイルを読み、キーと値を確かめてから into に加える。 */
+    private static void loadSettings(Path file, Properties into) throws IOException {
+        Properties p = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            p.load(in);
+        }
+        try {
+            Md2ExcelConfig.checkSettings(p);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(file + ": " + e.getMessage(), e);
+        }
+        into.putAll(p);
+    }
+
+    // 期限の上限（System.nanoTime に足しても桁あふれしない長さ）
+    private static final double MAX_TIMEOUT_SECONDS = 1e9;
+
+    /** 期限の秒（小数可）をミリ秒にする（1 ミリ秒に満たない端数は切り上げる）。 サーバーの timeout= も同じ。 */
+    static long parseTimeoutMillis(String seconds) {
+        double sec = Double.parseDouble(seconds.trim());
+        // NaN もここで弾く
+        if (!(sec > 0 && sec <= MAX_TIMEOUT_SECONDS)) {
+            throw new IllegalArgumentException("timeout は正の秒数（" + (long) MAX_TIMEOUT_SECONDS
+                    + " 秒まで）で指定してください: " + seconds);
+        }
+        return (long) Math.ceil(sec * 1000);
+    }
+
+    private static boolean isSettingKey(String key) {
+        for (String k : SETTING_KEYS) {
+            if (k.equals(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String requireValue(String[] args, int i, String opt) {
+        if (i >= args.length) {
+            throw new IllegalArgumentException("オプションの値がありません: " + opt);
+        }
+        return args[i];
+    }
+
+    private static String formatBytes(long bytes) {
+        if (bytes < 1024) {
+            return bytes + " B";
+        }
+        if (bytes < 1024 * 1024) {
+            return String.format(Locale.ROOT, "%.1f KB", bytes / 1024.0);
+        }
+        return String.format(Locale.ROOT, "%.1f MB", bytes / 1048576.0);
+    }
+
+    private static final class Result {
+        final Path in;
+        final Path out;
+        final long inputBytes;
+        final long nanos;
+        final Throwable error;
+
+        Result(Path in, Path out, long inputBytes, long nanos, Throwable error) {
+            this.in = in;
+            this.out = out;
+            this.inputBytes = inputBytes;
+            this.nanos = nanos;
+            this.error = error;
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package md2excel.app;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import md2excel.config.Md2ExcelConfig;
+
+/**
+ * Md2ExcelServer に変換を頼む薄いクライアント（POI を読み込まないので起動が軽い）。
+ *
+ * <pre>
+ * java ... md2excel.app.Md2ExcelClient [--port N] [-o DIR] [options] &lt;file&gt;...
+ * </pre>
+ *
+ * 設定のオプションは Md2ExcelCli と同じ名前で、そのまま設定キーとしてサーバーに渡す（知らない名前は引数エラー。値はサーバーが
+ * 確かめる）。 ディレクトリ・glob は展開しない。
+ * 依頼にはサーバーが起動時に書いたトークンを付ける。
+ * Md2ExcelConfig は設定キーの定数（コンパイル時に埋め込まれる）しか使わない。
+ */
+public final class Md2ExcelClient {
+
+    private Md2ExcelClient() {
+    }
+
+    private static final String USAGE = String.join(System.lineSeparator(),
+            "使い方: java md2excel.app.Md2ExcelClient [options] <file>...",
+            "options:",
+            "  --port N          サーバーのポート（既定: " + Md2ExcelServer.DEFAULT_PORT + "）",
+            "  --token-file FILE サーバーのトークンのファイル（既定: ~/.md2excel/server-PORT.token）",
+            "  -c, --config FILE 設定ファイル（properties。キーは設定のオプション名と同じ）",
+            "  -o, --out DIR     出力先ディレクトリ（既定: 入力と同じ場所）",
+            "  --timeout SEC     1 ファイルの変換の期限（秒）",
+            "  --ping            サーバーが動いているか確かめる",
+            "  --shutdown        サーバーを止める",
+            "  ほかの設定（--merge-cols N, --streaming など）は Md2ExcelCli と同じ",
+            "  -h, --help        このヘルプを表示");
+
+    // 値を取らない設定
+    private static final Set<String> FLAG_KEYS = new HashSet<String>(Arrays.asList(Md2ExcelConfig.KEY_STREAMING,
+            Md2ExcelConfig.KEY_TWO_PHASE, Md2ExcelConfig.KEY_PIPELINE, Md2ExcelConfig.KEY_SPARSE_DECORATION,
+            Md2ExcelConfig.KEY_TABLE_AUTO_WIDTH, Md2ExcelConfig.KEY_WRAP_TEXT, Md2ExcelConfig.KEY_AUTO_ENGINE,
+            Md2ExcelConfig.KEY_INCREMENTAL));
+
+    // 値を 1 つ取る設定（Md2ExcelCli と同じ）
+    private static final Set<String> VALUE_KEYS = new HashSet<String>(Arrays.asList(Md2ExcelConfig.KEY_MERGE_COLS,
+            Md2ExcelConfig.KEY_FONT, Md2ExcelConfig.KEY_VALIGN, Md2ExcelConfig.KEY_H1, Md2ExcelConfig.KEY_H2,
+            Md2ExcelConfig.KEY_H3, Md2ExcelConfig.KEY_NORMAL, Md2ExcelConfig.KEY_WINDOW,
+            Md2ExcelConfig.KEY_INLINE_CACHE, Md2ExcelConfig.KEY_SHEET_ROWS, Md2ExcelConfig.KEY_INLINE_LIMIT));
+
+    public static void main(String[] args) throws IOException {
+        System.exit(run(args));
+    }
+
+    /** @return 終了コード（0: 全件成功 / 1: 失敗あり / 2: 引数エラー / 3: サーバーにつながらない） */
+    public static int run(String[] args) throws IOException {
+        int port = Md2ExcelServer.DEFAULT_PORT;
+        Path tokenFile = null;
+        Properties settings = new Properties();
+        Path outDir = null;
+        String command = null;
+        List<Path> inputs = new ArrayList<Path>();
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String a = args[i];
+                switch (a) {
+                case "-h":
+                case "--help":
+                    System.out.println(USAGE);
+                    return 0;
+                case "--port":
+                    port = Integer.parseInt(requireValue(args, ++i, a));
+                    break;
+                case "--token-file":
+                    tokenFile = Paths.get(requireValue(args, ++i, a));
+                    break;
+                case "-c":
+                case "--config":
+                    try (InputStream in = Files.newInputStream(Paths.get(requireValue(args, ++i, a)))) {
+                        Properties file = new Properties();
+                        file.load(in);
+                        // コマンドラインの指定が設定ファイルより優先
+                        for (String k : file.stringPropertyNames()) {
+                            if (!FLAG_KEYS.contains(k) && !VALUE_KEYS.contains(k)) {
+                                throw new IllegalArgumentException("不明な設定: " + k + "（" + a + " " + args[i] + "）");
+                            }
+                            if (!settings.containsKey(k)) {
+                                settings.setProperty(k, file.getProperty(k));
+                            }
+                        }
+                    }
+                    break;
+                case "-o":
+                case "--out":
+                    outDir = Paths.get(requireValue(args, ++i, a));
+                    break;
+                case "--timeout":
+                    settings.setProperty("timeout", requireValue(args, ++i, a));
+                    break;
+                case "--ping":
+                    command = "ping";
+                    break;
+                case "--shutdown":
+                    command = "shutdown";
+                    break;
+                default:
+                    if (a.startsWith("--") && FLAG_KEYS.contains(a.substring(2))) {
+                        settings.setProperty(a.substring(2), "true");
+                    } else if (a.startsWith("--") && VALUE_KEYS.contains(a.substring(2))) {
+                        settings.setProperty(a.substring(2), requireValue(args, ++i, a));
+                    } else if (a.startsWith("-")) {
+                        throw new IllegalArgumentException("不明なオプション: " + a);
+                    } else {
+                        inputs.add(Paths.get(a));
+                    }
+                    break;
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println("引数エラー: " + e.getMessage());
+            System.err.println(USAGE);
+            return 2;
+        }
+
+        if (command == null && inputs.isEmpty()) {
+            System.err.println(USAGE);
+            return 2;
+        }
+
+        String token;
+        try {
+            token = new String(Files.readAllBytes(tokenFile != null ? tokenFile : defaultTokenFile(port)),
+                    StandardCharsets.UTF_8).trim();
+        } catch (NoSuchFileException e) {
+            System.err.println("サーバーのトークンのファイルがありません（サーバーが動いていない？）: " + e.getMessage());
+            return 3;
+        }
+
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            BufferedReader r = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+                    StandardCharsets.UTF_8));
+            Writer w = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+
+            if (command != null) {
+                w.write("token=" + token + "\ncmd=" + command + "\n\n");
+                w.flush();
+                System.out.println(r.readLine());
+                return 0;
+            }
+
+            int failed = 0;
+            for (Path in : inputs) {
+                // サーバーの作業ディレクトリは違うので絶対パスで渡す
+                Path abs = in.toAbsolutePath();
+                StringBuilder frame = new StringBuilder();
+                frame.append("token=").append(token).append('\n');
+                frame.append("in=").append(abs).append('\n');
+                if (outDir != null) {
+                    frame.append("out-dir=").append(outDir.toAbsolutePath()).append('\n');
+                }
+                for (Map.Entry<Object, Object> e : settings.entrySet()) {
+                    frame.append(e.getKey()).append('=').append(e.getValue()).append('\n');
+                }
+                frame.append('\n');
+                w.write(frame.toString());
+                w.flush();
+
+                String reply = r.readLine();
+                if (reply == null) {
+                    System.err.println("サーバーが接続を切りました。");
+                    return 1;
+                }
+                String[] f = reply.split("\t", 3);
+                boolean ok = "OK".equals(f[0]);
+                if (!ok) {
+                    failed++;
+                }
+                System.out.println(String.format(Locale.ROOT, "%s  %6s ms  %s %s %s", f[0], f.length > 1 ? f[1] : "",
+                        in, ok ? "->" : ":", f.length > 2 ? f[2] : ""));
+            }
+            return failed == 0 ? 0 : 1;
+        } catch (ConnectException e) {
+            System.err.println("サーバーにつながりません（127.0.0.1:" + port + "）: " + e.getMessage());
+            return 3;
+        }
+    }
+
+    /** サーバーがトークンを書く既定のファイル（ポートごと）。 */
+    static Path defaultTokenFile(int port) {
+        return Paths.get(System.getProperty("user.home"), ".md2excel", "server-" + port + ".token");
+    }
+
+    private static String requireValue(String[] args, int i, String opt) {
+        if (i >= args.length) {
+            throw new IllegalArgumentException("オプションの値がありません: " + opt);
+        }
+        return args[i];
+    }
+}
@@ -0,0 +1,520 @@
+package md2excel.app;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ProtocolException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import md2excel.api.Md2Excel;
+import md2excel.api.Md2ExcelOptions;
+import md2excel.config.Md2ExcelConfig;
+import md2excel.render.CancellationToken;
+
+/**
+ * 常駐して変換を受け付けるサーバー版（JVM の起動・POI のクラスの読み込み・JIT の立ち上がりを 1 回で済ませる）。
+ *
+ * <pre>
+ * java ... md2excel.app.Md2ExcelServer [--port N] [--threads N] [--queue N] [--token-file FILE] [--stdio]
+ * </pre>
+ *
+ * 受け付けるのはループバック（127.0.0.1）の TCP 接続か、--stdio なら標準入出力。 やりとりは UTF-8 のテキストで、
+ * 1 件の依頼は「key=value の行の並び + 空行」、返事は 1 行（タブ区切り）。
+ *
+ * ソケットでは、起動のたびに作る乱数のトークンを本人だけが読めるファイル（既定は ~/.md2excel/server-PORT.token）に
+ * 書き、token= の行が合わない依頼は NG を返して切る（同じマシンのほかのユーザーに変換・停止をさせない）。 行の長さと
+ * 1 件の行数には上限があり、しばらく何も送らない接続も切る。
+ *
+ * <pre>
+ * token=...                   （ソケットのとき必須）
+ * in=/abs/path/spec.md        （必須）
+ * out=/abs/path/spec.xlsx     （省略時は入力と同じ場所の .xlsx）
+ * out-dir=/abs/path/out       （out の代わりに、このディレクトリに入力と同じ名前の .xlsx）
+ * timeout=30                  （秒。正の数。省略時は期限なし）
+ * merge-cols=40               （ほかは CLI の設定キーと同じ。真偽値は streaming=true など）
+ * （空行）
+ *
+ * OK	12	/abs/path/spec.xlsx
+ * NG	3	入力が見つかりません: ...
+ * </pre>
+ *
+ * 知らないキー・不正な値（timeout を含む）は既定値に倒さずに NG を返す。 cmd=ping には PONG、cmd=shutdown には BYE を
+ * 返して終わる。 1 つの接続で依頼を続けて送れる（返事は送った順）。
+ * 変換は固定数のスレッドと上限つきの待ち行列で行い、あふれた依頼には待たせずに NG を返す。
+ */
+public final class Md2ExcelServer {
+
+    static final int DEFAULT_PORT = 17391;
+
+    // 温めたオプション（設定の値の組）の保持数
+    private static final int MAX_TEMPLATES = 64;
+
+    // 依頼の 1 行の長さ（文字）と 1 件の行数の上限
+    static final int MAX_LINE_CHARS = 8192;
+    static final int MAX_FRAME_LINES = 256;
+
+    // 依頼を待つ接続を切るまでの時間（変換中は読まないので数えない）
+    private static final int IDLE_TIMEOUT_MILLIS = 60_000;
+
+    private static final String USAGE = String.join(System.lineSeparator(),
+            "使い方: java md2excel.app.Md2ExcelServer [options]",
+            "options:",
+            "  --port N          待ち受けるポート（127.0.0.1。既定: " + DEFAULT_PORT + "。0 で空いているポート）",
+            "  --threads N       同時に変換する数（既定: CPU コア数）",
+            "  --queue N         変換を待たせておける数（既定: threads の 4 倍。あふれたら NG）",
+            "  --token-file FILE トークンを書くファイル（既定: ~/.md2excel/server-PORT.token）",
+            "  --stdio           ソケットではなく標準入力で依頼を受け、標準出力に返事を書く（トークンは使わない）",
+            "  -h, --help        このヘルプを表示");
+
+    private final ThreadPoolExecutor jobs;
+    private final ThreadPoolExecutor connections;
+    private final Map<Md2ExcelOptions, Md2ExcelOptions> templates = new LinkedHashMap<Md2ExcelOptions,
+            Md2ExcelOptions>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Md2ExcelOptions, Md2ExcelOptions> eldest) {
+            return size() > MAX_TEMPLATES;
+        }
+    };
+
+    private volatile ServerSocket serverSocket;
+    private volatile boolean stopping;
+
+    Md2ExcelServer(int threads, int queue) {
+        this.jobs = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queue), daemonThreads("md2excel-job-"));
+        // 接続の受け持ちは依頼を待つだけなので、変換中と待ち行列の数まで
+        this.connections = new ThreadPoolExecutor(0, threads + queue, 60, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(), daemonThreads("md2excel-conn-"));
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        int port = DEFAULT_PORT;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int queue = 0;
+        Path tokenFile = null;
+        boolean stdio = false;
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String a = args[i];
+                switch (a) {
+                case "-h":
+                case "--help":
+                    System.out.println(USAGE);
+                    return;
+                case "--port":
+                    port = Integer.parseInt(requireValue(args, ++i, a));
+                    break;
+                case "--threads":
+                    threads = Math.max(1, Integer.parseInt(requireValue(args, ++i, a)));
+                    break;
+                case "--queue":
+                    queue = Math.max(1, Integer.parseInt(requireValue(args, ++i, a)));
+                    break;
+                case "--token-file":
+                    tokenFile = Paths.get(requireValue(args, ++i, a));
+                    break;
+                case "--stdio":
+                    stdio = true;
+                    break;
+                default:
+                    throw new IllegalArgumentException("不明なオプション: " + a);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println("引数エラー: " + e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+
+        Md2ExcelServer server = new Md2ExcelServer(threads, queue > 0 ? queue : threads * 4);
+        // 既定の設定は JIT が効くまで通しておく
+        warmUp(server.options(Md2ExcelOptions.DEFAULTS), WARM_UP_RUNS);
+
+        if (stdio) {
+            System.err.println("md2excel server: stdio threads=" + threads);
+            server.serve(System.in, System.out);
+        } else {
+            ServerSocket ss = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+            if (tokenFile == null) {
+                tokenFile = Md2ExcelClient.defaultTokenFile(ss.getLocalPort());
+            }
+            String token = newToken();
+            writeToken(tokenFile, token);
+            // --port 0 のときに呼び出し側が読めるよう、実際のポートを標準出力に出す
+            System.out.println("md2excel server: 127.0.0.1:" + ss.getLocalPort() + " threads=" + threads + " token="
+                    + tokenFile.toAbsolutePath());
+            System.out.flush();
+            try {
+                server.serve(ss, token);
+            } finally {
+                deleteQuietly(tokenFile);
+            }
+        }
+        server.shutdown();
+    }
+
+    /** ソケットで受け付ける（shutdown を受けるか ss を閉じるまで戻らない）。 token が合う依頼だけを受ける。 */
+    void serve(ServerSocket ss, String token) throws IOException {
+        this.serverSocket = ss;
+        try {
+            while (!stopping) {
+                Socket s;
+                try {
+                    s = ss.accept();
+                } catch (IOException e) {
+                    if (stopping) {
+                        break;
+                    }
+                    throw e;
+                }
+                try {
+                    connections.execute(() -> serveSocket(s, token));
+                } catch (RejectedExecutionException e) {
+                    busy(s);
+                }
+            }
+        } finally {
+            ss.close();
+        }
+    }
+
+    /** in から依頼を読み、out に返事を書く（in が終わるか shutdown を受けるまで）。 */
+    void serve(InputStream in, OutputStream out) throws IOException {
+        serve(in, out, null);
+    }
+
+    /** token が null でなければ、token= の行が合わない依頼には NG を返して終わる。 */
+    private void serve(InputStream in, OutputStream out, String token) throws IOException {
+        BufferedReader r = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        Writer w = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        while (true) {
+            Map<String, String> frame;
+            String reply;
+            try {
+                frame = readFrame(r);
+                if (frame == null) {
+                    break;
+                }
+                String t = frame.remove("token");
+                reply = token == null || (t != null && MessageDigest.isEqual(token.getBytes(StandardCharsets.UTF_8),
+                        t.getBytes(StandardCharsets.UTF_8))) ? handle(frame) : null;
+            } catch (ProtocolException e) {
+                frame = null;
+                reply = "NG\t0\t" + e.getMessage();
+            }
+            w.write(reply != null ? reply : "NG\t0\t認証に失敗しました");
+            w.write('\n');
+            w.flush();
+            if (frame == null || reply == null || stopping) {
+                break;
+            }
+        }
+    }
+
+    void shutdown() throws InterruptedException {
+        stopping = true;
+        ServerSocket ss = serverSocket;
+        if (ss != null) {
+            try {
+                ss.close();
+            } catch (IOException e) {
+                // 閉じられなくても止める
+            }
+        }
+        connections.shutdown();
+        jobs.shutdown();
+        jobs.awaitTermination(1, TimeUnit.MINUTES);
+    }
+
+    private void serveSocket(Socket s, String token) {
+        try (Socket socket = s) {
+            socket.setSoTimeout(IDLE_TIMEOUT_MILLIS);
+            serve(socket.getInputStream(), socket.getOutputStream(), token);
+        } catch (IOException e) {
+            // 相手が切った・しばらく何も送ってこない
+        }
+        if (stopping) {
+            ServerSocket ss = serverSocket;
+            try {
+                if (ss != null) {
+                    ss.close();
+                }
+            } catch (IOException e) {
+                // accept が止まればよい
+            }
+        }
+    }
+
+    private static void busy(Socket s) {
+        try (Socket socket = s) {
+            OutputStream os = socket.getOutputStream();
+            os.write("NG\t0\tサーバーが混んでいます\n".getBytes(StandardCharsets.UTF_8));
+            os.flush();
+        } catch (IOException e) {
+            // 相手が切った
+        }
+    }
+
+    /** 1 件分の依頼（空行まで）。 入力の終わりなら null。 行が長すぎる・多すぎるときは ProtocolException。 */
+    static Map<String, String> readFrame(BufferedReader r) throws IOException {
+        Map<String, String> frame = new LinkedHashMap<String, String>();
+        StringBuilder buf = new StringBuilder();
+        String line;
+        int lines = 0;
+        while ((line = readLine(r, buf)) != null) {
+            if (line.isEmpty()) {
+                if (frame.isEmpty()) {
+                    continue;
+                }
+                return frame;
+            }
+            if (++lines > MAX_FRAME_LINES) {
+                throw new ProtocolException("依頼の行が多すぎます（上限 " + MAX_FRAME_LINES + " 行）");
+            }
+            if (line.startsWith("#")) {
+                continue;
+            }
+            int eq = line.indexOf('=');
+            if (eq > 0) {
+                frame.put(line.substring(0, eq).trim(), line.substring(eq + 1).trim());
+            }
+        }
+        return frame.isEmpty() ? null : frame;
+    }
+
+    // 1 行（改行は含めない）。 MAX_LINE_CHARS を超えたら、改行を待たずに ProtocolException
+    private static String readLine(BufferedReader r, StringBuilder buf) throws IOException {
+        buf.setLength(0);
+        int c;
+        while ((c = r.read()) >= 0 && c != '\n') {
+            if (buf.length() == MAX_LINE_CHARS) {
+                throw new ProtocolException("依頼の行が長すぎます（上限 " + MAX_LINE_CHARS + " 文字）");
+            }
+            buf.append((char) c);
+        }
+        if (c < 0 && buf.length() == 0) {
+            return null;
+        }
+        int end = buf.length();
+        if (end > 0 && buf.charAt(end - 1) == '\r') {
+            end--;
+        }
+        return buf.substring(0, end);
+    }
+
+    private String handle(Map<String, String> frame) {
+        String cmd = frame.remove("cmd");
+        if ("ping".equals(cmd)) {
+            return "PONG";
+        }
+        if ("shutdown".equals(cmd)) {
+            stopping = true;
+            return "BYE";
+        }
+        if (cmd != null && !"convert".equals(cmd)) {
+            return "NG\t0\t不明なコマンド: " + cmd;
+        }
+
+        long t0 = System.nanoTime();
+        try {
+            String in = frame.remove("in");
+            if (in == null || in.isEmpty()) {
+                throw new IllegalArgumentException("in がありません");
+            }
+            String out = frame.remove("out");
+            String outDir = frame.remove("out-dir");
+            Path inPath = Paths.get(in);
+            Path outPath;
+            if (out != null && !out.isEmpty()) {
+                outPath = Paths.get(out);
+            } else if (outDir != null && !outDir.isEmpty()) {
+                outPath = Paths.get(outDir).resolve(Md2ExcelConfig.defaultOutPath(inPath.getFileName().toString()));
+            } else {
+                outPath = Paths.get(Md2ExcelConfig.defaultOutPath(in));
+            }
+            String timeout = frame.remove("timeout");
+            long timeoutMillis = timeout != null ? Md2ExcelCli.parseTimeoutMillis(timeout) : 0;
+
+            // 知らないキー・不正な値は既定値に倒さずに NG（CLI と同じ）
+            Properties settings = new Properties();
+            settings.putAll(frame);
+            Md2ExcelConfig.checkSettings(settings);
+            Md2ExcelOptions requested = Md2ExcelOptions.fromProperties(settings);
+
+            Future<?> f = jobs.submit(() -> {
+                // 初めての設定の温めも、変換と同じ数のスレッドで
+                Md2ExcelOptions opts = options(requested);
+                if (!Files.isRegularFile(inPath)) {
+                    throw new IOException("入力が見つかりません: " + inPath);
+                }
+                Path parent = outPath.toAbsolutePath().getParent();
+                if (parent != null) {
+                    Files.createDirectories(parent);
+                }
+                // 期限は待ち行列を出て変換を始めてから数える
+                CancellationToken cancel = timeoutMillis > 0
+                        ? CancellationToken.withTimeout(timeoutMillis, TimeUnit.MILLISECONDS) : null;
+                Md2Excel.convert(inPath, outPath, opts, null, null, cancel);
+                return null;
+            });
+            f.get();
+            return "OK\t" + millis(t0) + "\t" + outPath.toAbsolutePath();
+        } catch (RejectedExecutionException e) {
+            return "NG\t" + millis(t0) + "\tサーバーが混んでいます";
+        } catch (ExecutionException e) {
+            return "NG\t" + millis(t0) + "\t" + message(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return "NG\t" + millis(t0) + "\t中断されました";
+        } catch (RuntimeException e) {
+            // 設定・timeout の誤り（NumberFormatException も IllegalArgumentException）
+            return "NG\t" + millis(t0) + "\t" + message(e);
+        }
+    }
+
+    /**
+     * 温めたオプション（変換のスレッドで呼ぶ）。 値が同じオプションは、設定キーの書き方・順によらず 1 つにまとめる。 初めての
+     * 値の組は小さな文書を 1 回変換してから返す（出力モードごとのクラスの読み込みを最初の依頼の前に済ませる）。
+     */
+    private Md2ExcelOptions options(Md2ExcelOptions requested) {
+        synchronized (templates) {
+            Md2ExcelOptions opts = templates.get(requested);
+            if (opts != null) {
+                return opts;
+            }
+        }
+        warmUp(requested, 1);
+        synchronized (templates) {
+            templates.put(requested, requested);
+        }
+        return requested;
+    }
+
+    // 見出し・リスト・表・コード・引用・インライン装飾を一通り含む文書
+    private static final String WARM_UP_DOC = String.join("\n", "# 見出し", "", "## 小見出し", "",
+            "本文 **太字** *斜体* `code` ~~打ち消し~~<br>続き", "", "- 箇条書き", "  - ネスト", "1. 番号", "",
+            "| 列1 | 列2 |", "|---|---|", "| a | **b** |", "", "```java", "int x = 1;", "```", "", "> 引用", "> 続き",
+            "", "---", "");
+
+    // 起動直後は JIT が効いていないので、同じ文書を何回か通す
+    private static final int WARM_UP_RUNS = 20;
+
+    /** 依頼と同じ経路（ファイルからファイル）で一時ファイルを変換する。 一時ファイルを作れなければ何もしない。 */
+    private static void warmUp(Md2ExcelOptions opts, int runs) {
+        Path in = null;
+        Path out = null;
+        try {
+            in = Files.createTempFile("md2excel-warmup", ".md");
+            out = Files.createTempFile("md2excel-warmup", ".xlsx");
+            Files.write(in, WARM_UP_DOC.getBytes(StandardCharsets.UTF_8));
+            // 差分変換は 2 回目から何もしない（索引も残る）ので、普通に変換して温める
+            Md2ExcelOptions warm = opts.withIncremental(false);
+            for (int i = 0; i < runs; i++) {
+                Md2Excel.convert(in, out, warm);
+            }
+        } catch (IOException e) {
+            // 温まらないだけで依頼は受けられる
+        } finally {
+            deleteQuietly(in);
+            deleteQuietly(out);
+        }
+    }
+
+    private static String newToken() {
+        byte[] b = new byte[16];
+        new SecureRandom().nextBytes(b);
+        StringBuilder sb = new StringBuilder();
+        for (byte x : b) {
+            sb.append(Character.forDigit((x >> 4) & 0xf, 16)).append(Character.forDigit(x & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    /** 本人だけが読めるファイル（POSIX なら 0600、ディレクトリは 0700）に書く。 前のファイルは作り直す。 */
+    private static void writeToken(Path file, String token) throws IOException {
+        boolean posix = FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+        Path dir = file.toAbsolutePath().getParent();
+        if (dir != null) {
+            if (posix) {
+                Files.createDirectories(dir, PosixFilePermissions.asFileAttribute(
+                        PosixFilePermissions.fromString("rwx------")));
+            } else {
+                Files.createDirectories(dir);
+            }
+        }
+        Files.deleteIfExists(file);
+        if (posix) {
+            Files.createFile(file, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } else {
+            Files.createFile(file);
+        }
+        Files.write(file, token.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void deleteQuietly(Path p) {
+        if (p == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(p);
+        } catch (IOException e) {
+            // 一時ファイルが残るだけ
+        }
+    }
+
+    private static String message(Throwable t) {
+        String m = t.getMessage() != null ? t.getClass().getSimpleName() + ": " + t.getMessage() : t.toString();
+        return m.replace('\n', ' ').replace('\r', ' ').replace('\t', ' ');
+    }
+
+    private static long millis(long t0) {
+        return (System.nanoTime() - t0) / 1_000_000;
+    }
+
+    private static String requireValue(String[] args, int i, String opt) {
+        if (i >= args.length) {
+            throw new IllegalArgumentException("オプションの値がありません: " + opt);
+        }
+        return args[i];
+    }
+
+    private static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger n = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, prefix + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+}
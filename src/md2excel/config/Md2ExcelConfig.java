@@ -1,12 +1,15 @@
 package md2excel.config;
 
 import java.io.File;
+import java.util.Properties;
 
 import javax.swing.JFileChooser;
 import javax.swing.JOptionPane;
 
 import org.apache.poi.ss.usermodel.VerticalAlignment;
 
+import md2excel.render.RenderContext;
+
 public final class Md2ExcelConfig {
     public final String inPath;
     public final String outPath;
@@ -17,6 +20,18 @@ public final class Md2ExcelConfig {
     public final int h3Size;
     public final int normalSize;
     public final VerticalAlignment vAlign;
+    public final boolean streaming; // true: SXSSF（逐次書き出し）
+    public final int backPatchWindow; // streaming 時に開いたブロック用に保持する行数
+    public final int inlineCacheSize; // インライン解析結果のキャッシュのエントリ数（0 で使わない）
+    public final boolean twoPhase; // true: インライン解析を先に並列で済ませてからセルを書く
+    public final boolean pipeline; // true: 読み込み・解析・書き込みを別スレッドで重ねる
+    public final boolean sparseDecoration; // true: コード・引用の背景と水平線をセルではなく条件付き書式で付ける
+    public final boolean tableAutoWidth; // true: 表の列幅をセルの文字列に合わせて広げる
+    public final boolean wrapText; // true: 右端を超える本文を折り返し、行の高さを合わせる
+    public final int sheetRows; // 1 シートの行数の上限（超えたら次の切れ目で spec_2, spec_3 ... に移る）
+    public final boolean autoEngine; // true: 入力の大きさ・ヒープから出力モードを選ぶ（streaming 等の指定より優先）
+    public final boolean incremental; // true: 前回の出力と索引から、変わったところより後ろだけ変換し直す
+    public final int inlineLimit; // 1 行（表はセル）の記号の run の数の上限（超えたら文字のまま。0 で上限なし）
 
     // 既定値
     private static final String DEFAULT_FONT_NAME = "游ゴシック";
@@ -26,17 +41,79 @@ public final class Md2ExcelConfig {
     private static final int DEFAULT_NORMAL_FONT_SIZE = 10;
     private static final int DEFAULT_MERGE_COLS = 40;
 
-    private Md2ExcelConfig(String in, String out, int mergeCols, String fontName, int h1, int h2, int h3, int normal,
-            VerticalAlignment vAlign) {
-        this.inPath = in;
-        this.outPath = out;
-        this.mergeCols = mergeCols;
-        this.fontName = fontName;
-        this.h1Size = h1;
-        this.h2Size = h2;
-        this.h3Size = h3;
-        this.normalSize = normal;
-        this.vAlign = vAlign;
+    // load / fromProperties / withPaths で組み立てる値（初期値は既定値）
+    private static final class Values {
+        String inPath;
+        String outPath;
+        int mergeCols = DEFAULT_MERGE_COLS;
+        String fontName = DEFAULT_FONT_NAME;
+        int h1Size = DEFAULT_H1_FONT_SIZE;
+        int h2Size = DEFAULT_H2_FONT_SIZE;
+        int h3Size = DEFAULT_H3_FONT_SIZE;
+        int normalSize = DEFAULT_NORMAL_FONT_SIZE;
+        VerticalAlignment vAlign = VerticalAlignment.CENTER;
+        boolean streaming;
+        int backPatchWindow = RenderContext.DEFAULT_BACK_PATCH_WINDOW;
+        int inlineCacheSize = RenderContext.DEFAULT_INLINE_CACHE_SIZE;
+        boolean twoPhase;
+        boolean pipeline;
+        boolean sparseDecoration;
+        boolean tableAutoWidth;
+        boolean wrapText;
+        int sheetRows = RenderContext.DEFAULT_SHEET_ROWS;
+        boolean autoEngine;
+        boolean incremental;
+        int inlineLimit = RenderContext.DEFAULT_INLINE_LIMIT;
+    }
+
+    private Md2ExcelConfig(Values v) {
+        this.inPath = v.inPath;
+        this.outPath = v.outPath;
+        this.mergeCols = v.mergeCols;
+        this.fontName = v.fontName;
+        this.h1Size = v.h1Size;
+        this.h2Size = v.h2Size;
+        this.h3Size = v.h3Size;
+        this.normalSize = v.normalSize;
+        this.vAlign = v.vAlign;
+        this.streaming = v.streaming;
+        this.backPatchWindow = v.backPatchWindow;
+        this.inlineCacheSize = v.inlineCacheSize;
+        this.twoPhase = v.twoPhase;
+        this.pipeline = v.pipeline;
+        this.sparseDecoration = v.sparseDecoration;
+        this.tableAutoWidth = v.tableAutoWidth;
+        this.wrapText = v.wrapText;
+        this.sheetRows = v.sheetRows;
+        this.autoEngine = v.autoEngine;
+        this.incremental = v.incremental;
+        this.inlineLimit = v.inlineLimit;
+    }
+
+    private Values values() {
+        Values v = new Values();
+        v.inPath = inPath;
+        v.outPath = outPath;
+        v.mergeCols = mergeCols;
+        v.fontName = fontName;
+        v.h1Size = h1Size;
+        v.h2Size = h2Size;
+        v.h3Size = h3Size;
+        v.normalSize = normalSize;
+        v.vAlign = vAlign;
+        v.streaming = streaming;
+        v.backPatchWindow = backPatchWindow;
+        v.inlineCacheSize = inlineCacheSize;
+        v.twoPhase = twoPhase;
+        v.pipeline = pipeline;
+        v.sparseDecoration = sparseDecoration;
+        v.tableAutoWidth = tableAutoWidth;
+        v.wrapText = wrapText;
+        v.sheetRows = sheetRows;
+        v.autoEngine = autoEngine;
+        v.incremental = incremental;
+        v.inlineLimit = inlineLimit;
+        return v;
     }
 
     public static Md2ExcelConfig load(String[] args) {
@@ -45,39 +122,182 @@ public final class Md2ExcelConfig {
         if (mdFile == null) {
             return null;
         }
-        String in = mdFile.getAbsolutePath();
-        String out = replaceExtension(in, ".xlsx");
+        Values v = new Values();
+        v.inPath = mdFile.getAbsolutePath();
+        v.outPath = defaultOutPath(v.inPath);
 
         String inputCols = JOptionPane.showInputDialog(null, "1行分として扱う列数（MERGE_LAST_COL）を入力してください。", "40");
-        int mergeCols = parseIntOrDefault(inputCols, DEFAULT_MERGE_COLS);
+        v.mergeCols = parseIntOrDefault(inputCols, DEFAULT_MERGE_COLS);
 
         // フォント選択
         String[] fontCandidates = { "游ゴシック", "Yu Gothic UI", "ＭＳ Ｐゴシック", "ＭＳ ゴシック", "Meiryo", "Meiryo UI" };
         Object selectedFont = JOptionPane.showInputDialog(null, "フォントを選択してください（キャンセルで既定のフォント）。", "フォント選択",
                 JOptionPane.QUESTION_MESSAGE, null, fontCandidates, DEFAULT_FONT_NAME);
-        String fontName = (selectedFont == null) ? DEFAULT_FONT_NAME : selectedFont.toString().trim();
+        if (selectedFont != null) {
+            v.fontName = selectedFont.toString().trim();
+        }
 
         // 縦位置
         String[] valignOptions = { "上揃え", "上下中央揃え", "下揃え" };
         Object selectedAlign = JOptionPane.showInputDialog(null, "セルの縦方向の配置を選択してください。", "縦位置",
                 JOptionPane.QUESTION_MESSAGE, null, valignOptions, "上下中央揃え");
-        VerticalAlignment vAlign = (selectedAlign == null) ? VerticalAlignment.CENTER
-                : toVerticalAlignment(selectedAlign.toString());
+        if (selectedAlign != null) {
+            v.vAlign = toVerticalAlignment(selectedAlign.toString());
+        }
 
         // サイズ
-        int h1 = parseFontSize(JOptionPane.showInputDialog(null, "# 見出しのフォントサイズ (pt) を入力してください。",
+        v.h1Size = parseFontSize(JOptionPane.showInputDialog(null, "# 見出しのフォントサイズ (pt) を入力してください。",
                 Integer.toString(DEFAULT_H1_FONT_SIZE)), DEFAULT_H1_FONT_SIZE);
 
-        int h2 = parseFontSize(JOptionPane.showInputDialog(null, "## 見出しのフォントサイズ (pt) を入力してください。",
+        v.h2Size = parseFontSize(JOptionPane.showInputDialog(null, "## 見出しのフォントサイズ (pt) を入力してください。",
                 Integer.toString(DEFAULT_H2_FONT_SIZE)), DEFAULT_H2_FONT_SIZE);
 
-        int h3 = parseFontSize(JOptionPane.showInputDialog(null, "### 見出しのフォントサイズ (pt) を入力してください。",
+        v.h3Size = parseFontSize(JOptionPane.showInputDialog(null, "### 見出しのフォントサイズ (pt) を入力してください。",
                 Integer.toString(DEFAULT_H3_FONT_SIZE)), DEFAULT_H3_FONT_SIZE);
 
-        int normal = parseFontSize(JOptionPane.showInputDialog(null, "通常テキストのフォントサイズ (pt) を入力してください。",
+        v.normalSize = parseFontSize(JOptionPane.showInputDialog(null, "通常テキストのフォントサイズ (pt) を入力してください。",
                 Integer.toString(DEFAULT_NORMAL_FONT_SIZE)), DEFAULT_NORMAL_FONT_SIZE);
 
-        return new Md2ExcelConfig(in, out, mergeCols, fontName, h1, h2, h3, normal, vAlign);
+        // 出力モード（大きなファイルはストリーミング）
+        String[] modeOptions = { "通常", "ストリーミング（大きなファイル向け）", "自動（ファイルの大きさとメモリから選ぶ）" };
+        Object selectedMode = JOptionPane.showInputDialog(null, "出力モードを選択してください。", "出力モード",
+                JOptionPane.QUESTION_MESSAGE, null, modeOptions, "通常");
+        v.streaming = selectedMode != null && selectedMode.toString().startsWith("ストリーミング");
+        v.autoEngine = selectedMode != null && selectedMode.toString().startsWith("自動");
+
+        if (v.streaming) {
+            v.backPatchWindow = parseIntOrDefault(
+                    JOptionPane.showInputDialog(null, "コードブロック/引用の装飾用にメモリへ保持する行数を入力してください。",
+                            Integer.toString(RenderContext.DEFAULT_BACK_PATCH_WINDOW)),
+                    RenderContext.DEFAULT_BACK_PATCH_WINDOW);
+        }
+
+        return new Md2ExcelConfig(v);
+    }
+
+    // 設定キー（CLI のオプション名 / 設定ファイルのキーと共通）
+    public static final String KEY_MERGE_COLS = "merge-cols";
+    public static final String KEY_FONT = "font";
+    public static final String KEY_VALIGN = "valign";
+    public static final String KEY_H1 = "h1";
+    public static final String KEY_H2 = "h2";
+    public static final String KEY_H3 = "h3";
+    public static final String KEY_NORMAL = "normal";
+    public static final String KEY_STREAMING = "streaming";
+    public static final String KEY_WINDOW = "window";
+    public static final String KEY_INLINE_CACHE = "inline-cache";
+    public static final String KEY_TWO_PHASE = "two-phase";
+    public static final String KEY_PIPELINE = "pipeline";
+    public static final String KEY_SPARSE_DECORATION = "sparse-decoration";
+    public static final String KEY_TABLE_AUTO_WIDTH = "table-auto-width";
+    public static final String KEY_WRAP_TEXT = "wrap-text";
+    public static final String KEY_SHEET_ROWS = "sheet-rows";
+    public static final String KEY_AUTO_ENGINE = "auto-engine";
+    public static final String KEY_INCREMENTAL = "incremental";
+    public static final String KEY_INLINE_LIMIT = "inline-limit";
+
+    /**
+     * 設定キーと値を確かめる（CLI・サーバーで、既定値に倒さずに誤りを知らせるため）。 不明なキーと、fromProperties が
+     * 既定値に倒す値（空・範囲外・数でない・true / false でないなど）は IllegalArgumentException。
+     */
+    public static void checkSetting(String key, String value) {
+        String v = (value == null) ? "" : value.trim();
+        String expected;
+        switch (key) {
+        case KEY_MERGE_COLS:
+        case KEY_WINDOW:
+        case KEY_SHEET_ROWS:
+            expected = parseIntOrDefault(v, -1) > 0 ? null : "正の整数";
+            break;
+        case KEY_INLINE_CACHE:
+        case KEY_INLINE_LIMIT:
+            expected = parseNonNegativeOrDefault(v, -1) >= 0 ? null : "0 以上の整数";
+            break;
+        case KEY_H1:
+        case KEY_H2:
+        case KEY_H3:
+        case KEY_NORMAL:
+            expected = parseFontSize(v, -1) > 0 ? null : "5 から 72 の整数";
+            break;
+        case KEY_FONT:
+            expected = v.isEmpty() ? "フォント名" : null;
+            break;
+        case KEY_VALIGN:
+            expected = (v.equals("top") || v.equals("center") || v.equals("bottom")) ? null : "top / center / bottom";
+            break;
+        case KEY_STREAMING:
+        case KEY_TWO_PHASE:
+        case KEY_PIPELINE:
+        case KEY_SPARSE_DECORATION:
+        case KEY_TABLE_AUTO_WIDTH:
+        case KEY_WRAP_TEXT:
+        case KEY_AUTO_ENGINE:
+        case KEY_INCREMENTAL:
+            expected = (v.equalsIgnoreCase("true") || v.equalsIgnoreCase("false")) ? null : "true / false";
+            break;
+        default:
+            throw new IllegalArgumentException("不明な設定: " + key);
+        }
+        if (expected != null) {
+            throw new IllegalArgumentException("設定の値が不正です: " + key + "=" + value + "（" + expected + "）");
+        }
+    }
+
+    /** p のすべてのキーと値を checkSetting で確かめる。 */
+    public static void checkSettings(Properties p) {
+        for (String key : p.stringPropertyNames()) {
+            checkSetting(key, p.getProperty(key));
+        }
+    }
+
+    /**
+     * ダイアログを使わずに設定を作る（入出力パスは未設定。withPaths で埋める）。 未指定・不正な値は GUI と同じ既定値に倒す。
+     */
+    public static Md2ExcelConfig fromProperties(Properties p) {
+        Values v = new Values();
+        v.mergeCols = parseIntOrDefault(p.getProperty(KEY_MERGE_COLS), DEFAULT_MERGE_COLS);
+
+        String font = p.getProperty(KEY_FONT);
+        if (font != null && !font.trim().isEmpty()) {
+            v.fontName = font.trim();
+        }
+
+        String align = p.getProperty(KEY_VALIGN);
+        if (align != null) {
+            v.vAlign = toVerticalAlignment(align.trim());
+        }
+
+        v.h1Size = parseFontSize(p.getProperty(KEY_H1), DEFAULT_H1_FONT_SIZE);
+        v.h2Size = parseFontSize(p.getProperty(KEY_H2), DEFAULT_H2_FONT_SIZE);
+        v.h3Size = parseFontSize(p.getProperty(KEY_H3), DEFAULT_H3_FONT_SIZE);
+        v.normalSize = parseFontSize(p.getProperty(KEY_NORMAL), DEFAULT_NORMAL_FONT_SIZE);
+
+        v.streaming = Boolean.parseBoolean(p.getProperty(KEY_STREAMING, "false").trim());
+        v.backPatchWindow = parseIntOrDefault(p.getProperty(KEY_WINDOW), RenderContext.DEFAULT_BACK_PATCH_WINDOW);
+        v.inlineCacheSize = parseNonNegativeOrDefault(p.getProperty(KEY_INLINE_CACHE),
+                RenderContext.DEFAULT_INLINE_CACHE_SIZE);
+        v.twoPhase = Boolean.parseBoolean(p.getProperty(KEY_TWO_PHASE, "false").trim());
+        v.pipeline = Boolean.parseBoolean(p.getProperty(KEY_PIPELINE, "false").trim());
+        v.sparseDecoration = Boolean.parseBoolean(p.getProperty(KEY_SPARSE_DECORATION, "false").trim());
+        v.tableAutoWidth = Boolean.parseBoolean(p.getProperty(KEY_TABLE_AUTO_WIDTH, "false").trim());
+        v.wrapText = Boolean.parseBoolean(p.getProperty(KEY_WRAP_TEXT, "false").trim());
+        v.sheetRows = parseIntOrDefault(p.getProperty(KEY_SHEET_ROWS), RenderContext.DEFAULT_SHEET_ROWS);
+        v.autoEngine = Boolean.parseBoolean(p.getProperty(KEY_AUTO_ENGINE, "false").trim());
+        v.incremental = Boolean.parseBoolean(p.getProperty(KEY_INCREMENTAL, "false").trim());
+        v.inlineLimit = parseNonNegativeOrDefault(p.getProperty(KEY_INLINE_LIMIT), RenderContext.DEFAULT_INLINE_LIMIT);
+
+        return new Md2ExcelConfig(v);
+    }
+
+    public Md2ExcelConfig withPaths(String in, String out) {
+        Values v = values();
+        v.inPath = in;
+        v.outPath = out;
+        return new Md2ExcelConfig(v);
+    }
+
+    public static String defaultOutPath(String in) {
+        return replaceExtension(in, ".xlsx");
     }
 
     private static File chooseMarkdownFile() {
@@ -94,8 +314,10 @@ public final class Md2ExcelConfig {
     private static VerticalAlignment toVerticalAlignment(String label) {
         switch (label) {
         case "上揃え":
+        case "top":
             return VerticalAlignment.TOP;
         case "下揃え":
+        case "bottom":
             return VerticalAlignment.BOTTOM;
         case "上下中央揃え":
         default:
@@ -130,6 +352,19 @@ public final class Md2ExcelConfig {
         }
     }
 
+    // 0 を「使わない」として受け付ける版
+    private static int parseNonNegativeOrDefault(String s, int defaultValue) {
+        if (s == null || s.trim().isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            int v = Integer.parseInt(s.trim());
+            return v >= 0 ? v : defaultValue;
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
     private static String replaceExtension(String path, String newExt) {
         int dot = path.lastIndexOf('.');
         if (dot == -1) {
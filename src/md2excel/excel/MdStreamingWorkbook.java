@@ -0,0 +1,267 @@
+package md2excel.excel;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.RichTextString;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.xssf.streaming.GZIPSheetDataWriter;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.apache.poi.xssf.streaming.SheetDataWriter;
+import org.apache.poi.xssf.usermodel.XSSFRichTextString;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTColor;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTRElt;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTRPrElt;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTRst;
+
+/**
+ * ストリーミング出力用の SXSSFWorkbook。
+ *
+ * 行のフラッシュは自動では行わない（rowAccessWindowSize = -1）。 レンダラ側が「後から書き換える可能性のある行」を
+ * 把握しているので、フラッシュのタイミングはレンダラ（StreamingFlushUtil）が決める。
+ *
+ * POI 5.0.0 の SheetDataWriter はリッチテキストの書式（run）を捨ててしまうため、 書式付き文字列だけは inlineStr
+ * として自前で書き出す。
+ */
+public final class MdStreamingWorkbook extends SXSSFWorkbook {
+
+    // 1 枚目のシートの XML（xlsx 内のパス）
+    private static final String FIRST_SHEET = "xl/worksheets/sheet1.xml";
+    private static final String SHEET_DATA = "<sheetData>";
+    private static final int COPY_BUFFER = 1 << 16;
+
+    // 次に作るシートの先頭に写す行（copyLeadingRows）
+    private Path leadingRowsFrom;
+    private int leadingRows;
+
+    public MdStreamingWorkbook() {
+        // 手動フラッシュ / 一時ファイル圧縮あり / 共有文字列テーブルなし（ヒープを平坦に保つ）
+        super(null, -1, true, false);
+    }
+
+    /**
+     * 次に作るシートの先頭に、xlsx（このクラスで書き出したもの）の 1 枚目のシートの先頭 rows 行を XML のまま写す。
+     * 写した行は書き出し済みの扱いになる（rows 未満の行は作れない）。 スタイルの index はそのまま使うので、
+     * 同じ順にスタイルを作った Workbook（RenderContext.createAllStyles）で書いたものに限る。
+     */
+    public void copyLeadingRows(Path xlsx, int rows) {
+        this.leadingRowsFrom = xlsx;
+        this.leadingRows = rows;
+    }
+
+    @Override
+    protected SheetDataWriter createSheetDataWriter() throws IOException {
+        RichTextSheetDataWriter w = new RichTextSheetDataWriter();
+        if (leadingRowsFrom != null) {
+            try (ZipFile zip = new ZipFile(leadingRowsFrom.toFile())) {
+                ZipEntry entry = zip.getEntry(FIRST_SHEET);
+                if (entry == null) {
+                    throw new IOException("シートがありません: " + leadingRowsFrom);
+                }
+                try (Reader in = new BufferedReader(
+                        new InputStreamReader(zip.getInputStream(entry), StandardCharsets.UTF_8))) {
+                    w.copyRows(in, leadingRows);
+                }
+            } finally {
+                leadingRowsFrom = null;
+            }
+        }
+        return w;
+    }
+
+    /**
+     * 一時ファイルを閉じて消す。 下の XSSFWorkbook は close しない（メモリ上に作ったものの close は、パッケージ全体を
+     * 捨てるだけのバッファにもう一度保存する。 MdWorkbook と同じ）。
+     */
+    @Override
+    public void close() throws IOException {
+        dispose();
+    }
+
+    private static final class RichTextSheetDataWriter extends GZIPSheetDataWriter {
+
+        RichTextSheetDataWriter() throws IOException {
+            super();
+        }
+
+        /** in（シートの XML）の sheetData のうち、行番号（0 始まり）が rows 未満の row 要素をそのまま書く。 */
+        void copyRows(Reader in, int rows) throws IOException {
+            if (!skipPast(in, SHEET_DATA)) {
+                return;
+            }
+            // 数十 MB になるので、バッファに読んでタグだけ調べ、タグの間はまとめて書く
+            char[] buf = new char[COPY_BUFFER];
+            int len = 0;
+            int pos = 0;
+            // 書いていない先頭（sheetData の直後の改行はシートのテンプレートにもあるので、最初のタグから書く）
+            int from = -1;
+            while (true) {
+                // 本文の < は &lt; で書かれているので、< はいつもタグの始まり
+                int lt = indexOf(buf, '<', pos, len);
+                int gt = (lt >= 0) ? indexOf(buf, '>', lt, len) : -1;
+                if (gt < 0) {
+                    // バッファの終わりまで来た（タグの途中なら、その < から残して読み足す）
+                    int keep = (lt >= 0) ? lt : len;
+                    if (from >= 0) {
+                        _out.write(buf, from, keep - from);
+                        from = 0;
+                    }
+                    len -= keep;
+                    System.arraycopy(buf, keep, buf, 0, len);
+                    pos = 0;
+                    if (len == buf.length) {
+                        buf = Arrays.copyOf(buf, buf.length * 2);
+                    }
+                    int n = in.read(buf, len, buf.length - len);
+                    if (n < 0) {
+                        return;
+                    }
+                    len += n;
+                    continue;
+                }
+                if (from < 0) {
+                    from = lt;
+                }
+                if (startsWith(buf, lt, gt, "</sheetData")
+                        || (startsWith(buf, lt, gt, "<row ") && rowNumber(buf, lt, gt) > rows)) {
+                    _out.write(buf, from, lt - from);
+                    return;
+                }
+                pos = gt + 1;
+            }
+        }
+
+        private static boolean skipPast(Reader in, String s) throws IOException {
+            int matched = 0;
+            int c;
+            while ((c = in.read()) >= 0) {
+                // s の < は先頭だけなので、食い違ったら < から数え直せばよい
+                matched = (c == s.charAt(matched)) ? matched + 1 : (c == '<') ? 1 : 0;
+                if (matched == s.length()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static int indexOf(char[] buf, char c, int from, int to) {
+            for (int i = from; i < to; i++) {
+                if (buf[i] == c) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        // buf[lt..gt]（タグ）が prefix で始まるか
+        private static boolean startsWith(char[] buf, int lt, int gt, String prefix) {
+            if (gt - lt < prefix.length()) {
+                return false;
+            }
+            for (int i = 0; i < prefix.length(); i++) {
+                if (buf[lt + i] != prefix.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // <row r="N" ...> の N（1 始まり）
+        private static int rowNumber(char[] buf, int lt, int gt) {
+            int n = 0;
+            for (int i = lt; i + 4 <= gt; i++) {
+                if (buf[i] == ' ' && buf[i + 1] == 'r' && buf[i + 2] == '=' && buf[i + 3] == '"') {
+                    for (int j = i + 4; j < gt && buf[j] >= '0' && buf[j] <= '9'; j++) {
+                        n = n * 10 + (buf[j] - '0');
+                    }
+                    break;
+                }
+            }
+            return n;
+        }
+
+        @Override
+        public void writeCell(int columnIndex, Cell cell) throws IOException {
+            if (cell == null || cell.getCellType() != CellType.STRING) {
+                super.writeCell(columnIndex, cell);
+                return;
+            }
+            RichTextString value = cell.getRichStringCellValue();
+            if (!(value instanceof XSSFRichTextString) || ((XSSFRichTextString) value).numFormattingRuns() == 0) {
+                super.writeCell(columnIndex, cell);
+                return;
+            }
+
+            CTRst rst = ((XSSFRichTextString) value).getCTRst();
+
+            _out.write("<c r=\"");
+            _out.write(new CellReference(cell.getRowIndex(), columnIndex).formatAsString());
+            _out.write('"');
+            int styleIndex = cell.getCellStyle().getIndex() & 0xffff;
+            if (styleIndex != 0) {
+                _out.write(" s=\"");
+                _out.write(Integer.toString(styleIndex));
+                _out.write('"');
+            }
+            _out.write(" t=\"inlineStr\"><is>");
+            for (CTRElt r : rst.getRArray()) {
+                _out.write("<r>");
+                if (r.isSetRPr()) {
+                    writeRunProperties(r.getRPr());
+                }
+                _out.write("<t xml:space=\"preserve\">");
+                outputEscapedString(r.getT());
+                _out.write("</t></r>");
+            }
+            _out.write("</is></c>");
+        }
+
+        private void writeRunProperties(CTRPrElt pr) throws IOException {
+            _out.write("<rPr>");
+            if (pr.sizeOfBArray() > 0 && pr.getBArray(0).getVal()) {
+                _out.write("<b/>");
+            }
+            if (pr.sizeOfIArray() > 0 && pr.getIArray(0).getVal()) {
+                _out.write("<i/>");
+            }
+            if (pr.sizeOfSzArray() > 0) {
+                _out.write("<sz val=\"");
+                _out.write(Double.toString(pr.getSzArray(0).getVal()));
+                _out.write("\"/>");
+            }
+            if (pr.sizeOfColorArray() > 0) {
+                writeColor(pr.getColorArray(0));
+            }
+            if (pr.sizeOfRFontArray() > 0) {
+                _out.write("<rFont val=\"");
+                outputEscapedString(pr.getRFontArray(0).getVal());
+                _out.write("\"/>");
+            }
+            _out.write("</rPr>");
+        }
+
+        private void writeColor(CTColor color) throws IOException {
+            if (color.isSetRgb()) {
+                _out.write("<color rgb=\"");
+                for (byte b : color.getRgb()) {
+                    _out.write(Character.toUpperCase(Character.forDigit((b >> 4) & 0xF, 16)));
+                    _out.write(Character.toUpperCase(Character.forDigit(b & 0xF, 16)));
+                }
+                _out.write("\"/>");
+            } else if (color.isSetTheme()) {
+                _out.write("<color theme=\"" + color.getTheme() + "\"/>");
+            } else if (color.isSetIndexed()) {
+                _out.write("<color indexed=\"" + color.getIndexed() + "\"/>");
+            }
+        }
+    }
+}
@@ -1,198 +1,247 @@
 package md2excel.excel;
 
-import java.awt.Color;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.apache.poi.ss.usermodel.BorderStyle;
 import org.apache.poi.ss.usermodel.CellStyle;
-import org.apache.poi.ss.usermodel.FillPatternType;
+import org.apache.poi.ss.usermodel.ConditionalFormattingRule;
 import org.apache.poi.ss.usermodel.Font;
+import org.apache.poi.ss.usermodel.PatternFormatting;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.SheetConditionalFormatting;
 import org.apache.poi.ss.usermodel.VerticalAlignment;
 import org.apache.poi.ss.usermodel.Workbook;
-import org.apache.poi.xssf.usermodel.XSSFCellStyle;
-import org.apache.poi.xssf.usermodel.XSSFColor;
-import org.apache.poi.xssf.usermodel.extensions.XSSFCellBorder.BorderSide;
+import org.apache.poi.ss.util.CellRangeAddress;
 
+/**
+ * 変換で使う CellStyle。 スタイルは初めて使うときに作り（コード・引用・表のない文書ではそれらを作らない）、属性が同じ
+ * スタイル・フォントは 1 つにまとめる（箇条書きと通常、表本文と水平線など）。
+ */
 public final class MdStyle {
-    public final CellStyle heading1Style;
-    public final CellStyle heading2Style;
-    public final CellStyle heading3Style;
-    public final CellStyle heading4Style;
-    public final CellStyle normalStyle;
-    public final CellStyle bulletStyle;
-    public final CellStyle listStyle;
 
-    public final CellStyle codeBlockStyle; // 背景＋フォント（枠線なし）
+    private static final int NO_COLOR = MdStylePool.NO_COLOR;
+    private static final int NO_BORDER = 0;
+
+    private static final int CODE_BG = 0xE8E8E8;
+    private static final int QUOTE_BORDER = 0x0070C0;
+
+    private static final String CODE_FONT_NAME = "Meiryo";
+    private static final int CODE_FONT_SIZE = 10;
+
+    // スタイルの番号（slots の添字）
+    private static final int HEADING1 = 0;
+    private static final int HEADING2 = 1;
+    private static final int HEADING3 = 2;
+    private static final int HEADING4 = 3;
+    private static final int NORMAL = 4;
+    private static final int BULLET = 5;
+    private static final int LIST = 6;
+    private static final int HORIZONTAL_RULE = 7;
+    private static final int TABLE_HEADER = 8;
+    private static final int TABLE_BODY = 9;
+    private static final int TABLE_BODY_LAST_ROW = 10;
+    private static final int BLOCK_QUOTE_LEFT = 11;
+    private static final int BLOCK_QUOTE_BODY = 12;
+    private static final int WRAPPED_NORMAL = 13;
+    private static final int STYLE_COUNT = 14;
+
+    private final MdStylePool pool;
+
+    private final String fontName;
+    private final int h1Size;
+    private final int h2Size;
+    private final int h3Size;
+    private final int normalSize;
+    private final VerticalAlignment vAlign;
+
+    private final CellStyle[] slots = new CellStyle[STYLE_COUNT];
+
+    // コードブロック（mask で取り出す。0 は枠線なし）
+    // mask bit: 1=TOP, 2=BOTTOM, 4=LEFT, 8=RIGHT
+    private final CellStyle[] codeBlockFrameStyles = new CellStyle[16];
+
+    public MdStyle(Workbook wb, String fontName, int h1Size, int h2Size, int h3Size, int normalSize,
+            VerticalAlignment vAlign) {
+        this.pool = new MdStylePool(wb);
+        this.fontName = fontName;
+        this.h1Size = h1Size;
+        this.h2Size = h2Size;
+        this.h3Size = h3Size;
+        this.normalSize = normalSize;
+        this.vAlign = vAlign;
+    }
+
+    public CellStyle heading1Style() {
+        return slot(HEADING1);
+    }
+
+    public CellStyle heading2Style() {
+        return slot(HEADING2);
+    }
+
+    public CellStyle heading3Style() {
+        return slot(HEADING3);
+    }
+
+    // 見出し4+
+    public CellStyle heading4Style() {
+        return slot(HEADING4);
+    }
 
-    public final CellStyle horizontalRuleStyle;
+    public CellStyle normalStyle() {
+        return slot(NORMAL);
+    }
+
+    // 箇条書き/番号付き（通常と同じ）
+    public CellStyle bulletStyle() {
+        return slot(BULLET);
+    }
+
+    public CellStyle listStyle() {
+        return slot(LIST);
+    }
+
+    // 通常＋折り返し（右端まで結合した長い本文）
+    public CellStyle wrappedNormalStyle() {
+        return slot(WRAPPED_NORMAL);
+    }
 
-    public final CellStyle tableHeaderStyle;
-    public final CellStyle tableBodyStyle;
-    public final CellStyle tableBodyLastRowStyle;
+    // 背景＋フォント（枠線なし）
+    public CellStyle codeBlockStyle() {
+        return codeBlockFrameStyle(0);
+    }
+
+    public CellStyle horizontalRuleStyle() {
+        return slot(HORIZONTAL_RULE);
+    }
+
+    public CellStyle tableHeaderStyle() {
+        return slot(TABLE_HEADER);
+    }
+
+    public CellStyle tableBodyStyle() {
+        return slot(TABLE_BODY);
+    }
+
+    public CellStyle tableBodyLastRowStyle() {
+        return slot(TABLE_BODY_LAST_ROW);
+    }
 
     // 引用ブロックは 2 種類だけ（左端・それ以外）
-    public final CellStyle blockQuoteLeftStyle;
-    public final CellStyle blockQuoteBodyStyle;
+    public CellStyle blockQuoteLeftStyle() {
+        return slot(BLOCK_QUOTE_LEFT);
+    }
+
+    public CellStyle blockQuoteBodyStyle() {
+        return slot(BLOCK_QUOTE_BODY);
+    }
 
-    // コードブロック枠線スタイル（mask で取り出す）
     // mask bit: 1=TOP, 2=BOTTOM, 4=LEFT, 8=RIGHT
-    private final CellStyle[] codeBlockFrameStyles = new CellStyle[16];
+    public CellStyle codeBlockFrameStyle(int mask) {
+        CellStyle s = codeBlockFrameStyles[mask];
+        if (s == null) {
+            BorderStyle top = ((mask & 1) != 0) ? BorderStyle.THIN : BorderStyle.NONE;
+            BorderStyle bottom = ((mask & 2) != 0) ? BorderStyle.THIN : BorderStyle.NONE;
+            BorderStyle left = ((mask & 4) != 0) ? BorderStyle.THIN : BorderStyle.NONE;
+            BorderStyle right = ((mask & 8) != 0) ? BorderStyle.THIN : BorderStyle.NONE;
+            s = pool.style(pool.font(CODE_FONT_NAME, CODE_FONT_SIZE, false), CODE_BG,
+                    MdStylePool.borders(top, bottom, left, right), NO_COLOR, vAlign);
+            codeBlockFrameStyles[mask] = s;
+        }
+        return s;
+    }
 
-    public MdStyle(Workbook wb, String fontName, int h1Size, int h2Size, int h3Size, int normalSize,
-            VerticalAlignment vAlign) {
+    /**
+     * すべてのスタイルを決まった順に作り、その順に返す。 文書の中身によらず、スタイルの index が毎回同じになる（前回の
+     * 出力の行をそのまま使う差分変換のため）。 使わないスタイルも出力に残る。
+     */
+    public List<CellStyle> createAll() {
+        List<CellStyle> all = new ArrayList<CellStyle>(STYLE_COUNT + codeBlockFrameStyles.length);
+        for (int id = 0; id < STYLE_COUNT; id++) {
+            all.add(slot(id));
+        }
+        for (int mask = 0; mask < codeBlockFrameStyles.length; mask++) {
+            all.add(codeBlockFrameStyle(mask));
+        }
+        return all;
+    }
+
+    /**
+     * セルを作らずに、ranges の背景をコードブロック・引用と同じ色にする（条件付き書式を 1 つ足す）。 枠線は付けない。
+     */
+    public void addBlockBackgroundFormatting(Sheet sheet, List<CellRangeAddress> ranges) {
+        if (ranges.isEmpty())
+            return;
+        SheetConditionalFormatting cf = sheet.getSheetConditionalFormatting();
+        ConditionalFormattingRule rule = cf.createConditionalFormattingRule("TRUE");
+        PatternFormatting fill = rule.createPatternFormatting();
+        fill.setFillBackgroundColor(MdStylePool.color(CODE_BG));
+        fill.setFillPattern(PatternFormatting.SOLID_FOREGROUND);
+        cf.addConditionalFormatting(ranges.toArray(new CellRangeAddress[0]), rule);
+    }
 
-        // 共通ベース
-        CellStyle base = wb.createCellStyle();
-        base.setWrapText(false);
-        base.setVerticalAlignment(vAlign);
-
-        // 見出し1
-        heading1Style = wb.createCellStyle();
-        heading1Style.cloneStyleFrom(base);
-        Font h1Font = wb.createFont();
-        h1Font.setBold(true);
-        h1Font.setFontHeightInPoints((short) h1Size);
-        h1Font.setFontName(fontName);
-        heading1Style.setFont(h1Font);
-
-        // 見出し2
-        heading2Style = wb.createCellStyle();
-        heading2Style.cloneStyleFrom(base);
-        Font h2Font = wb.createFont();
-        h2Font.setBold(true);
-        h2Font.setFontHeightInPoints((short) h2Size);
-        h2Font.setFontName(fontName);
-        heading2Style.setFont(h2Font);
-
-        // 見出し3
-        heading3Style = wb.createCellStyle();
-        heading3Style.cloneStyleFrom(base);
-        Font h3Font = wb.createFont();
-        h3Font.setBold(true);
-        h3Font.setFontHeightInPoints((short) h3Size);
-        h3Font.setFontName(fontName);
-        heading3Style.setFont(h3Font);
-
-        // 見出し4+
-        heading4Style = wb.createCellStyle();
-        heading4Style.cloneStyleFrom(base);
-        Font h4Font = wb.createFont();
-        h4Font.setBold(true);
-        h4Font.setFontHeightInPoints((short) normalSize);
-        h4Font.setFontName(fontName);
-        heading4Style.setFont(h4Font);
-
-        // 通常
-        normalStyle = wb.createCellStyle();
-        normalStyle.cloneStyleFrom(base);
-        Font normalFont = wb.createFont();
-        normalFont.setFontHeightInPoints((short) normalSize);
-        normalFont.setFontName(fontName);
-        normalStyle.setFont(normalFont);
-
-        // 箇条書き/番号付き（フォントは同じ）
-        bulletStyle = wb.createCellStyle();
-        bulletStyle.cloneStyleFrom(normalStyle);
-
-        listStyle = wb.createCellStyle();
-        listStyle.cloneStyleFrom(normalStyle);
-
-        // ---------------- コードブロック（ベース） ----------------
-        CellStyle baseCode = wb.createCellStyle();
-        baseCode.cloneStyleFrom(base);
-        Font codeFont = wb.createFont();
-        codeFont.setFontName("Meiryo");
-        codeFont.setFontHeightInPoints((short) 10);
-        baseCode.setFont(codeFont);
-
-        XSSFCellStyle xssfBaseCode = (XSSFCellStyle) baseCode;
-        XSSFColor bg = new XSSFColor(new Color(232, 232, 232), null);
-        xssfBaseCode.setFillForegroundColor(bg);
-        xssfBaseCode.setFillPattern(FillPatternType.SOLID_FOREGROUND);
-
-        this.codeBlockStyle = xssfBaseCode;
-
-        // コード枠線スタイル（最大15個だけ作る）
-        initCodeBlockFrameStyles(wb);
-
-        // ---------------- 水平線 ----------------
-        horizontalRuleStyle = wb.createCellStyle();
-        horizontalRuleStyle.cloneStyleFrom(base);
-        horizontalRuleStyle.setBorderBottom(BorderStyle.HAIR);
-        Font hrFont = wb.createFont();
-        hrFont.setFontName(fontName);
-        hrFont.setFontHeightInPoints((short) normalSize);
-        horizontalRuleStyle.setFont(hrFont);
-
-        // ---------------- テーブル ----------------
-        CellStyle th = wb.createCellStyle();
-        th.cloneStyleFrom(base);
-        Font thFont = wb.createFont();
-        thFont.setBold(true);
-        thFont.setFontHeightInPoints((short) normalSize);
-        thFont.setFontName(fontName);
-        th.setFont(thFont);
-        th.setBorderBottom(BorderStyle.THIN);
-        tableHeaderStyle = th;
-
-        CellStyle tb = wb.createCellStyle();
-        tb.cloneStyleFrom(base);
-        Font tbFont = wb.createFont();
-        tbFont.setFontHeightInPoints((short) normalSize);
-        tbFont.setFontName(fontName);
-        tb.setFont(tbFont);
-        tb.setBorderBottom(BorderStyle.HAIR);
-        tableBodyStyle = tb;
-
-        CellStyle tbLast = wb.createCellStyle();
-        tbLast.cloneStyleFrom(tableBodyStyle);
-        tbLast.setBorderBottom(BorderStyle.NONE);
-        tableBodyLastRowStyle = tbLast;
-
-        // 引用ブロック（2スタイルのみ作って使い回す）
-        XSSFColor codeBg = ((XSSFCellStyle) this.codeBlockStyle).getFillForegroundXSSFColor();
-
-        XSSFCellStyle quoteBody = (XSSFCellStyle) wb.createCellStyle();
-        quoteBody.cloneStyleFrom(this.normalStyle);
-        if (codeBg != null) {
-            quoteBody.setFillForegroundColor(codeBg);
-            quoteBody.setFillPattern(FillPatternType.SOLID_FOREGROUND);
+    /** セルを作らずに、ranges に水平線（horizontalRuleStyle と同じ下罫線）を引く（条件付き書式を 1 つ足す）。 */
+    public void addHorizontalRuleFormatting(Sheet sheet, List<CellRangeAddress> ranges) {
+        if (ranges.isEmpty())
+            return;
+        SheetConditionalFormatting cf = sheet.getSheetConditionalFormatting();
+        ConditionalFormattingRule rule = cf.createConditionalFormattingRule("TRUE");
+        rule.createBorderFormatting().setBorderBottom(BorderStyle.HAIR);
+        cf.addConditionalFormatting(ranges.toArray(new CellRangeAddress[0]), rule);
+    }
+
+    private CellStyle slot(int id) {
+        CellStyle s = slots[id];
+        if (s == null) {
+            s = create(id);
+            slots[id] = s;
         }
-        quoteBody.setBorderTop(BorderStyle.NONE);
-        quoteBody.setBorderRight(BorderStyle.NONE);
-        quoteBody.setBorderBottom(BorderStyle.NONE);
-        quoteBody.setBorderLeft(BorderStyle.NONE);
-        this.blockQuoteBodyStyle = quoteBody;
-
-        XSSFCellStyle quoteLeft = (XSSFCellStyle) wb.createCellStyle();
-        quoteLeft.cloneStyleFrom(this.blockQuoteBodyStyle);
-        quoteLeft.setBorderLeft(BorderStyle.THICK);
-        XSSFColor blue = new XSSFColor(new Color(0, 112, 192), null);
-        quoteLeft.setBorderColor(BorderSide.LEFT, blue);
-        this.blockQuoteLeftStyle = quoteLeft;
-    }
-
-    private void initCodeBlockFrameStyles(Workbook wb) {
-        for (int mask = 1; mask < 16; mask++) {
-            CellStyle s = wb.createCellStyle();
-            s.cloneStyleFrom(this.codeBlockStyle);
-
-            if ((mask & 1) != 0)
-                s.setBorderTop(BorderStyle.THIN);
-            if ((mask & 2) != 0)
-                s.setBorderBottom(BorderStyle.THIN);
-            if ((mask & 4) != 0)
-                s.setBorderLeft(BorderStyle.THIN);
-            if ((mask & 8) != 0)
-                s.setBorderRight(BorderStyle.THIN);
+        return s;
+    }
 
-            codeBlockFrameStyles[mask] = s;
+    private CellStyle create(int id) {
+        switch (id) {
+        case HEADING1:
+            return style(font(h1Size, true), NO_COLOR, NO_BORDER, NO_COLOR);
+        case HEADING2:
+            return style(font(h2Size, true), NO_COLOR, NO_BORDER, NO_COLOR);
+        case HEADING3:
+            return style(font(h3Size, true), NO_COLOR, NO_BORDER, NO_COLOR);
+        case HEADING4:
+            return style(font(normalSize, true), NO_COLOR, NO_BORDER, NO_COLOR);
+        case NORMAL:
+        case BULLET:
+        case LIST:
+        case TABLE_BODY_LAST_ROW:
+            return style(font(normalSize, false), NO_COLOR, NO_BORDER, NO_COLOR);
+        case HORIZONTAL_RULE:
+        case TABLE_BODY:
+            return style(font(normalSize, false), NO_COLOR, bottom(BorderStyle.HAIR), NO_COLOR);
+        case TABLE_HEADER:
+            return style(font(normalSize, true), NO_COLOR, bottom(BorderStyle.THIN), NO_COLOR);
+        case BLOCK_QUOTE_LEFT:
+            return style(font(normalSize, false), CODE_BG,
+                    MdStylePool.borders(BorderStyle.NONE, BorderStyle.NONE, BorderStyle.THICK, BorderStyle.NONE),
+                    QUOTE_BORDER);
+        case BLOCK_QUOTE_BODY:
+            return style(font(normalSize, false), CODE_BG, NO_BORDER, NO_COLOR);
+        case WRAPPED_NORMAL:
+            return pool.style(font(normalSize, false), NO_COLOR, NO_BORDER, NO_COLOR, vAlign, true);
+        default:
+            throw new IllegalArgumentException("style id: " + id);
         }
     }
 
-    // mask bit: 1=TOP, 2=BOTTOM, 4=LEFT, 8=RIGHT
-    public CellStyle codeBlockFrameStyle(int mask) {
-        if (mask == 0)
-            return codeBlockStyle;
-        return codeBlockFrameStyles[mask];
+    private Font font(int size, boolean bold) {
+        return pool.font(fontName, size, bold);
+    }
+
+    private CellStyle style(Font font, int fillRgb, int borders, int leftBorderRgb) {
+        return pool.style(font, fillRgb, borders, leftBorderRgb, vAlign);
+    }
+
+    private static int bottom(BorderStyle b) {
+        return MdStylePool.borders(BorderStyle.NONE, b, BorderStyle.NONE, BorderStyle.NONE);
     }
 }
@@ -0,0 +1,139 @@
+package md2excel.excel;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.poi.ss.usermodel.BorderStyle;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.FillPatternType;
+import org.apache.poi.ss.usermodel.Font;
+import org.apache.poi.ss.usermodel.VerticalAlignment;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.usermodel.XSSFCellStyle;
+import org.apache.poi.xssf.usermodel.XSSFColor;
+import org.apache.poi.xssf.usermodel.extensions.XSSFCellBorder.BorderSide;
+
+/**
+ * Workbook 1 つ分の CellStyle / Font の置き場。 属性（フォント・背景・罫線・左罫線の色・縦位置・折り返し）が同じなら同じ
+ * インスタンスを返し、初めて使うときに作る。
+ *
+ * MdStyle だけが使う。 Workbook と同じく 1 スレッドから使う前提で同期しない。
+ */
+final class MdStylePool {
+
+    // 色なし（RGB は 0xRRGGBB、なしは -1）
+    static final int NO_COLOR = -1;
+
+    // 罫線の指定（4 ビットずつ BorderStyle のコード）
+    static int borders(BorderStyle top, BorderStyle bottom, BorderStyle left, BorderStyle right) {
+        return top.getCode() | (bottom.getCode() << 4) | (left.getCode() << 8) | (right.getCode() << 12);
+    }
+
+    private final Workbook wb;
+
+    private final Map<String, Font> fonts = new HashMap<String, Font>();
+    private final Map<StyleKey, CellStyle> styles = new HashMap<StyleKey, CellStyle>();
+
+    MdStylePool(Workbook wb) {
+        this.wb = wb;
+    }
+
+    Font font(String name, int heightInPoints, boolean bold) {
+        String key = name + '\u0000' + heightInPoints + (bold ? "/b" : "");
+        Font f = fonts.get(key);
+        if (f == null) {
+            f = wb.createFont();
+            if (bold) {
+                f.setBold(true);
+            }
+            f.setFontHeightInPoints((short) heightInPoints);
+            f.setFontName(name);
+            fonts.put(key, f);
+        }
+        return f;
+    }
+
+    CellStyle style(Font font, int fillRgb, int borders, int leftBorderRgb, VerticalAlignment vAlign) {
+        return style(font, fillRgb, borders, leftBorderRgb, vAlign, false);
+    }
+
+    CellStyle style(Font font, int fillRgb, int borders, int leftBorderRgb, VerticalAlignment vAlign,
+            boolean wrap) {
+        StyleKey key = new StyleKey(font.getIndex(), fillRgb, borders, leftBorderRgb, vAlign.getCode(), wrap);
+        CellStyle s = styles.get(key);
+        if (s == null) {
+            s = create(font, fillRgb, borders, leftBorderRgb, vAlign, wrap);
+            styles.put(key, s);
+        }
+        return s;
+    }
+
+    private CellStyle create(Font font, int fillRgb, int borders, int leftBorderRgb, VerticalAlignment vAlign,
+            boolean wrap) {
+        XSSFCellStyle s = (XSSFCellStyle) wb.createCellStyle();
+        s.setWrapText(wrap);
+        s.setVerticalAlignment(vAlign);
+        s.setFont(font);
+
+        if (fillRgb != NO_COLOR) {
+            s.setFillForegroundColor(color(fillRgb));
+            s.setFillPattern(FillPatternType.SOLID_FOREGROUND);
+        }
+
+        if (borders != 0) {
+            s.setBorderTop(BorderStyle.valueOf((short) (borders & 0xf)));
+            s.setBorderBottom(BorderStyle.valueOf((short) ((borders >> 4) & 0xf)));
+            s.setBorderLeft(BorderStyle.valueOf((short) ((borders >> 8) & 0xf)));
+            s.setBorderRight(BorderStyle.valueOf((short) ((borders >> 12) & 0xf)));
+        }
+
+        if (leftBorderRgb != NO_COLOR) {
+            s.setBorderColor(BorderSide.LEFT, color(leftBorderRgb));
+        }
+        return s;
+    }
+
+    static XSSFColor color(int rgb) {
+        byte[] b = { (byte) (rgb >> 16), (byte) (rgb >> 8), (byte) rgb };
+        return new XSSFColor(b, null);
+    }
+
+    /** スタイルの属性（フォントは Workbook 内の index）。 */
+    private static final class StyleKey {
+        final int font;
+        final int fill;
+        final int borders;
+        final int leftBorderColor;
+        final int vAlign;
+        final boolean wrap;
+
+        StyleKey(int font, int fill, int borders, int leftBorderColor, int vAlign, boolean wrap) {
+            this.font = font;
+            this.fill = fill;
+            this.borders = borders;
+            this.leftBorderColor = leftBorderColor;
+            this.vAlign = vAlign;
+            this.wrap = wrap;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof StyleKey)) {
+                return false;
+            }
+            StyleKey k = (StyleKey) o;
+            return font == k.font && fill == k.fill && borders == k.borders && leftBorderColor == k.leftBorderColor
+                    && vAlign == k.vAlign && wrap == k.wrap;
+        }
+
+        @Override
+        public int hashCode() {
+            int h = font;
+            h = h * 31 + fill;
+            h = h * 31 + borders;
+            h = h * 31 + leftBorderColor;
+            h = h * 31 + vAlign;
+            return h * 31 + (wrap ? 1 : 0);
+        }
+    }
+}
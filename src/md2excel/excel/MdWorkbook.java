@@ -0,0 +1,18 @@
+package md2excel.excel;
+
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+
+/**
+ * 通常出力用の XSSFWorkbook。
+ *
+ * メモリ上に作った XSSFWorkbook（POI 5.0.0）の close は、パッケージ全体を内部の ByteArrayOutputStream にもう一度
+ * 保存してから捨てる（小さな文書では変換全体の 2 割）。 write で書き出した後に持っているのはメモリだけなので、close
+ * では何もしない。
+ */
+public final class MdWorkbook extends XSSFWorkbook {
+
+    @Override
+    public void close() {
+        // 一時ファイル・開いているファイルは無い（後はガベージコレクションに任せる）
+    }
+}
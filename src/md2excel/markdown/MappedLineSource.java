@@ -0,0 +1,210 @@
+package md2excel.markdown;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * UTF-8 のファイルをメモリマップして 1 行ずつ返す（行ごとの String / byte[] を作らない）。
+ *
+ * next() が返す CharSequence は使い回しのバッファで、次の next() までしか有効でない。 保持したいときは toString() する。
+ * 行の区切りは BufferedReader.readLine と同じ（\n / \r / \r\n。末尾の改行の後ろに空行は作らない）。 不正な UTF-8 は
+ * UncheckedIOException（原因は MalformedInputException 等）で知らせる。
+ */
+public final class MappedLineSource implements Iterator<CharSequence>, Closeable {
+
+    // 1 回にマップする最大サイズ（これを超える 1 行は扱わない）
+    private static final int MAX_REGION = 1 << 30;
+
+    private final FileChannel channel;
+    private final long size;
+
+    private MappedByteBuffer region;
+    private ByteBuffer decodeIn; // region の複製（デコード用に position / limit を動かす）
+    private long regionStart; // region の先頭のファイル内オフセット
+    private long offset; // 次の行の先頭のファイル内オフセット
+
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPORT).onUnmappableCharacter(CodingErrorAction.REPORT);
+    private final LineWindow window = new LineWindow();
+
+    public MappedLineSource(Path file) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            this.size = channel.size();
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return offset < size;
+    }
+
+    @Override
+    public CharSequence next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        try {
+            readLine();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return window;
+    }
+
+    @Override
+    public void close() throws IOException {
+        // マップ自体は GC で解放される（Java 8 には明示的な unmap がない）
+        region = null;
+        decodeIn = null;
+        channel.close();
+    }
+
+    private void readLine() throws IOException {
+        int from = (int) (offset - regionStart);
+        if (region == null || from >= region.limit()) {
+            map(offset);
+            from = 0;
+        }
+
+        // 行末を探す。 \r の直後の 1 バイトまで region に入っていないと \r\n を判定できない
+        int end = scanLineEnd(from);
+        if (end < 0) {
+            map(offset);
+            from = 0;
+            end = scanLineEnd(from);
+            if (end < 0) {
+                throw new IOException("line too long: offset " + offset);
+            }
+        }
+
+        decode(from, end);
+
+        int next = end;
+        if (next < region.limit()) {
+            byte b = region.get(next++);
+            if (b == '\r' && next < region.limit() && region.get(next) == '\n') {
+                next++;
+            }
+        }
+        offset = regionStart + next;
+    }
+
+    /** 行末（改行の位置、なければファイル末尾）。 region 内で決まらなければ -1。 */
+    private int scanLineEnd(int from) {
+        int limit = region.limit();
+        boolean regionReachesEof = regionStart + limit == size;
+        for (int i = from; i < limit; i++) {
+            byte b = region.get(i);
+            if (b == '\n') {
+                return i;
+            }
+            if (b == '\r') {
+                return (i + 1 < limit || regionReachesEof) ? i : -1;
+            }
+        }
+        return regionReachesEof ? limit : -1;
+    }
+
+    private void map(long start) throws IOException {
+        long len = Math.min(MAX_REGION, size - start);
+        region = channel.map(FileChannel.MapMode.READ_ONLY, start, len);
+        decodeIn = region.duplicate();
+        regionStart = start;
+    }
+
+    private void decode(int from, int end) throws CharacterCodingException {
+        int len = end - from;
+        char[] buf = window.ensureCapacity(len);
+
+        // ASCII だけの行はそのままコピーする
+        int i = 0;
+        for (; i < len; i++) {
+            byte b = region.get(from + i);
+            if (b < 0) {
+                break;
+            }
+            buf[i] = (char) b;
+        }
+        if (i == len) {
+            window.length = len;
+            return;
+        }
+
+        // UTF-8 は 1 バイトあたり最大 1 char なので buf に収まる
+        ByteBuffer in = decodeIn;
+        in.limit(end);
+        in.position(from + i);
+        CharBuffer out = window.out;
+        out.clear();
+        out.position(i);
+        decoder.reset();
+        CoderResult r = decoder.decode(in, out, true);
+        if (r.isError()) {
+            r.throwException();
+        }
+        r = decoder.flush(out);
+        if (r.isError()) {
+            r.throwException();
+        }
+        window.length = out.position();
+    }
+
+    /** 1 行分の窓（使い回す）。 */
+    private static final class LineWindow implements CharSequence {
+        private char[] chars = new char[256];
+        private CharBuffer out = CharBuffer.wrap(chars);
+        private int length;
+
+        char[] ensureCapacity(int n) {
+            if (chars.length < n) {
+                chars = new char[Math.max(n, chars.length * 2)];
+                out = CharBuffer.wrap(chars);
+            }
+            return chars;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= length) {
+                throw new IndexOutOfBoundsException(String.valueOf(index));
+            }
+            return chars[index];
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            if (start < 0 || end > length || start > end) {
+                throw new IndexOutOfBoundsException(start + ", " + end);
+            }
+            return new String(chars, start, end - start);
+        }
+
+        @Override
+        public String toString() {
+            return new String(chars, 0, length);
+        }
+    }
+}
@@ -4,7 +4,7 @@ public final class MdTextUtil {
     private MdTextUtil() {
     }
 
-    public static int countLeadingSpacesOrTabs(String s) {
+    public static int countLeadingSpacesOrTabs(CharSequence s) {
         int count = 0;
         for (int i = 0; i < s.length(); i++) {
             char ch = s.charAt(i);
@@ -18,15 +18,47 @@ public final class MdTextUtil {
         return count;
     }
 
-    public static int countHeadingLevel(String trimmedLine) {
-        int count = 0;
-        for (int i = 0; i < trimmedLine.length(); i++) {
-            if (trimmedLine.charAt(i) == '#')
-                count++;
-            else
-                break;
+    // String.trim() と同じ範囲（先頭/末尾の ' ' 以下の文字を除く）を文字列を作らずに求める
+    public static int trimStart(CharSequence s) {
+        int i = 0;
+        int n = s.length();
+        while (i < n && s.charAt(i) <= ' ') {
+            i++;
         }
-        return count;
+        return i;
+    }
+
+    public static int trimEnd(CharSequence s, int trimStart) {
+        int end = s.length();
+        while (end > trimStart && s.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        return end;
+    }
+
+    public static boolean startsWith(CharSequence s, int from, int to, String prefix) {
+        if (to - from < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (s.charAt(from + i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // s[from] から続く '#' の数
+    public static int countHeadingLevel(CharSequence s, int from, int to) {
+        int i = from;
+        while (i < to && s.charAt(i) == '#') {
+            i++;
+        }
+        return i - from;
+    }
+
+    public static int countHeadingLevel(String trimmedLine) {
+        return countHeadingLevel(trimmedLine, 0, trimmedLine.length());
     }
 
     public static boolean isAsciiLike(char ch) {
@@ -36,21 +68,28 @@ public final class MdTextUtil {
     // "1. " / "12.\t" / "1) " のような形式を番号付きリストとして判定（正規表現なし）
     // 条件：先頭が数字+、続いて '.' or ')'、続いて空白（スペース/タブ等）が1文字以上
     public static boolean isNumberedListLine(String trimmed) {
-        if (trimmed == null || trimmed.isEmpty()) {
+        if (trimmed == null) {
             return false;
         }
+        return isNumberedListLine(trimmed, 0, trimmed.length());
+    }
 
-        int n = trimmed.length();
-        int i = 0;
+    // s の [from, to)（trim 済みの範囲）で判定する
+    public static boolean isNumberedListLine(CharSequence s, int from, int to) {
+        if (from >= to) {
+            return false;
+        }
+
+        int i = from;
 
-        char c0 = trimmed.charAt(0);
+        char c0 = s.charAt(from);
         if (c0 < '0' || c0 > '9') {
             return false;
         }
 
         // 数字列を読む
-        while (i < n) {
-            char ch = trimmed.charAt(i);
+        while (i < to) {
+            char ch = s.charAt(i);
             if (ch < '0' || ch > '9') {
                 break;
             }
@@ -58,17 +97,17 @@ public final class MdTextUtil {
         }
 
         // 数字の後に '.' or ')' が必要
-        if (i >= n) {
+        if (i >= to) {
             return false;
         }
-        char marker = trimmed.charAt(i);
+        char marker = s.charAt(i);
         if (marker != '.' && marker != ')') {
             return false;
         }
         i++;
 
         // '.' の後に空白が1文字以上必要（元の \s+ と同じ）
-        if (i >= n || !Character.isWhitespace(trimmed.charAt(i))) {
+        if (i >= to || !Character.isWhitespace(s.charAt(i))) {
             return false;
         }
 
@@ -76,8 +115,8 @@ public final class MdTextUtil {
     }
 
     // 行末の半角スペース2個以上でハード改行
-    public static boolean hasHardLineBreakBySpaces(String rawLine) {
-        if (rawLine == null || rawLine.isEmpty()) {
+    public static boolean hasHardLineBreakBySpaces(CharSequence rawLine) {
+        if (rawLine == null || rawLine.length() == 0) {
             return false;
         }
         int count = 0;
@@ -96,8 +135,8 @@ public final class MdTextUtil {
     }
 
     // 行末のバックスラッシュでハード改行（末尾の空白/タブは無視）
-    public static boolean hasHardLineBreakByBackslash(String rawLine) {
-        if (rawLine == null || rawLine.isEmpty()) {
+    public static boolean hasHardLineBreakByBackslash(CharSequence rawLine) {
+        if (rawLine == null || rawLine.length() == 0) {
             return false;
         }
         int end = rawLine.length();
@@ -190,14 +229,22 @@ public final class MdTextUtil {
 
     // "---", "***", "___", "- - -" のような水平線を判定（空白/タブのみ許可）
     public static boolean isHorizontalRuleLine(String trimmed) {
-        if (trimmed == null || trimmed.isEmpty()) {
+        if (trimmed == null) {
+            return false;
+        }
+        return isHorizontalRuleLine(trimmed, 0, trimmed.length());
+    }
+
+    // s の [from, to)（trim 済みの範囲）で判定する
+    public static boolean isHorizontalRuleLine(CharSequence s, int from, int to) {
+        if (from >= to) {
             return false;
         }
 
         char marker = '\0';
         int count = 0;
-        for (int i = 0; i < trimmed.length(); i++) {
-            char ch = trimmed.charAt(i);
+        for (int i = from; i < to; i++) {
+            char ch = s.charAt(i);
             if (ch == ' ' || ch == '\t') {
                 continue;
             }
@@ -0,0 +1,262 @@
+package md2excel.render;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import md2excel.render.MarkdownRenderer.LineInfo;
+import md2excel.render.MarkdownRenderer.LineKind;
+
+/**
+ * 差分変換のためのブロックの索引（出力の横にファイルで置く）。
+ *
+ * 入力を render の再開できる切れ目（チェックポイント）で区切り、ブロックごとに入力の行の範囲・内容のハッシュ・出力の
+ * 行の範囲と、切れ目での RenderState を持つ。 切れ目は 1 枚目のシートの見出しか（リストの外の）空行で、境界処理の後に
+ * どのブロックも <br> 継続も開いておらず、それより前の行をもう触らないところ（SheetRollover の切れ目より狭い）。
+ * 切れ目の行はその手前のブロックに含める。
+ *
+ * 次の変換では新しい入力と先頭からブロックごとに比べ、変わっていないブロックの終わりから render を続ける
+ * （MarkdownRenderer.resume）。 Workbook と同じく 1 スレッドから使う。
+ */
+public final class BlockIndex {
+
+    private static final String HEADER = "md2excel-blocks 1";
+
+    // ブロックの最小の行数（短いブロックは次の切れ目までつなげて索引を小さくする。 再開で余分に render するのはこの程度）
+    private static final int MIN_BLOCK_LINES = 32;
+
+    // FNV-1a（64 ビット）
+    private static final long HASH_BASIS = 0xcbf29ce484222325L;
+    private static final long HASH_PRIME = 0x100000001b3L;
+
+    private static final class Block {
+        final int startLine;
+        final int endLine; // 含まない
+        final long hash;
+        final int startRow;
+        final int endRow; // 含まない
+        final String checkpoint; // 終わりの切れ目での RenderState（最後のブロックは null）
+
+        Block(int startLine, int endLine, long hash, int startRow, int endRow, String checkpoint) {
+            this.startLine = startLine;
+            this.endLine = endLine;
+            this.hash = hash;
+            this.startRow = startRow;
+            this.endRow = endRow;
+            this.checkpoint = checkpoint;
+        }
+    }
+
+    private final List<Block> blocks = new ArrayList<Block>();
+
+    // 読み込んだ索引の出力（書いたときのオプション・出力ファイルの大きさと更新日時）
+    private String key = "";
+    private long outputSize = -1;
+    private long outputModified = -1;
+
+    // 記録中のブロック
+    private int lineCount;
+    private int startLine;
+    private int startRow;
+    private long hash = HASH_BASIS;
+
+    public int blockCount() {
+        return blocks.size();
+    }
+
+    /** 索引を書いたときのオプション（key）と出力ファイルの大きさ・更新日時が同じか。 */
+    public boolean matches(String key, long outputSize, long outputModified) {
+        return this.key.equals(key) && this.outputSize == outputSize && this.outputModified == outputModified;
+    }
+
+    /**
+     * lines（新しい入力）を先頭からブロックごとに比べ、変わっていないブロックの数を返す。 全部同じで lines が
+     * 残っていなければ、入力は前回と同じ。
+     */
+    public int unchangedBlocks(Iterator<? extends CharSequence> lines) {
+        for (int b = 0; b < blocks.size(); b++) {
+            Block block = blocks.get(b);
+            long h = HASH_BASIS;
+            for (int i = block.startLine; i < block.endLine; i++) {
+                if (!lines.hasNext()) {
+                    return b;
+                }
+                h = hash(h, lines.next());
+            }
+            if (h != block.hash) {
+                return b;
+            }
+        }
+        return blocks.size();
+    }
+
+    /** 先頭の unchanged 個のブロックのうち、終わりから再開できる最後のブロック（なければ -1）。 */
+    public int restartBlock(int unchanged) {
+        for (int b = Math.min(unchanged, blocks.size()) - 1; b >= 0; b--) {
+            if (blocks.get(b).checkpoint != null) {
+                return b;
+            }
+        }
+        return -1;
+    }
+
+    /** block の終わりの切れ目の行（0 始まり。再開はこの行から）。 */
+    public int restartLine(int block) {
+        return blocks.get(block).endLine - 1;
+    }
+
+    /** block の終わりでの出力の行数（これより前の行を前回の出力から写す）。 */
+    public int restartRow(int block) {
+        return blocks.get(block).endRow;
+    }
+
+    // ---- 記録（MarkdownRenderer から） ----
+
+    /** 境界処理（とシートの切り替え）の後に 1 行ごとに呼ぶ。 */
+    void afterBoundary(CharSequence line, LineInfo li, RenderContext ctx) {
+        hash = hash(hash, line);
+        lineCount++;
+        if (lineCount - startLine < MIN_BLOCK_LINES || !isRestartPoint(li, ctx)) {
+            return;
+        }
+        StringBuilder sb = new StringBuilder();
+        ctx.st.transfer(new Codec(sb));
+        blocks.add(new Block(startLine, lineCount, hash, startRow, ctx.st.rowIndex, sb.toString()));
+        startLine = lineCount;
+        startRow = ctx.st.rowIndex;
+        hash = HASH_BASIS;
+    }
+
+    /** render の最後に呼ぶ（最後の切れ目から後ろを 1 ブロックにする）。 */
+    void finish(RenderState st) {
+        if (lineCount > startLine) {
+            blocks.add(new Block(startLine, lineCount, hash, startRow, st.rowIndex, null));
+            startLine = lineCount;
+            startRow = st.rowIndex;
+            hash = HASH_BASIS;
+        }
+    }
+
+    /** st を block の終わりの切れ目に戻し、索引をそこまでに切り詰める（続きは新しく記録する）。 */
+    void restore(int block, RenderState st) {
+        Block b = blocks.get(block);
+        st.transfer(new Codec(b.checkpoint));
+        // 切れ目より前の行は前回の出力から写してある（書き出し済み）
+        st.flushedRowCount = st.rowIndex;
+
+        blocks.subList(block + 1, blocks.size()).clear();
+        lineCount = b.endLine;
+        startLine = b.endLine;
+        startRow = b.endRow;
+        hash = HASH_BASIS;
+    }
+
+    private static boolean isRestartPoint(LineInfo li, RenderContext ctx) {
+        RenderState st = ctx.st;
+        if (ctx.sheetNumber != 1 || !SheetRollover.isSafeBoundary(li, st)) {
+            return false;
+        }
+        // 段落・説明行の追記先は境界処理で切れている。 直前が空行の空行は前の空行の行を指し直すので切らない
+        return st.lastNormalRowIndex < 0 && !st.bulletDetailActive
+                && !(li.kind == LineKind.BLANK && st.lastRowType == RenderState.RowType.BLANK);
+    }
+
+    private static long hash(long h, CharSequence line) {
+        for (int i = 0, n = line.length(); i < n; i++) {
+            h = (h ^ line.charAt(i)) * HASH_PRIME;
+        }
+        return (h ^ '\n') * HASH_PRIME;
+    }
+
+    // ---- ファイル ----
+
+    /** file を読む。 無い・読めない（形式が違う）ときは null。 */
+    public static BlockIndex read(Path file) throws IOException {
+        try (BufferedReader r = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            if (!HEADER.equals(r.readLine())) {
+                return null;
+            }
+            BlockIndex index = new BlockIndex();
+            index.key = r.readLine();
+            String[] out = r.readLine().split(" ");
+            index.outputSize = Long.parseLong(out[0]);
+            index.outputModified = Long.parseLong(out[1]);
+            for (String line; (line = r.readLine()) != null;) {
+                String[] f = line.split(" ");
+                index.blocks.add(new Block(Integer.parseInt(f[0]), Integer.parseInt(f[1]),
+                        Long.parseUnsignedLong(f[2], 16), Integer.parseInt(f[3]), Integer.parseInt(f[4]),
+                        f.length > 5 ? f[5] : null));
+            }
+            return index.key != null ? index : null;
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (RuntimeException e) {
+            // 途中で切れた・壊れた索引
+            return null;
+        }
+    }
+
+    /** key（オプション）と、書き出した出力ファイルの大きさ・更新日時を添えて file に書く。 */
+    public void write(Path file, String key, long outputSize, long outputModified) throws IOException {
+        try (BufferedWriter w = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            w.write(HEADER);
+            w.newLine();
+            w.write(key);
+            w.newLine();
+            w.write(outputSize + " " + outputModified);
+            w.newLine();
+            for (Block b : blocks) {
+                w.write(b.startLine + " " + b.endLine + " " + Long.toHexString(b.hash) + " " + b.startRow + " "
+                        + b.endRow);
+                if (b.checkpoint != null) {
+                    w.write(' ');
+                    w.write(b.checkpoint);
+                }
+                w.newLine();
+            }
+        }
+    }
+
+    /** RenderState.transfer の値の受け渡し。 保存では値を書き足してそのまま返し、復元では保存した値を順に返す。 */
+    static final class Codec {
+        private final StringBuilder out;
+        private final String[] in;
+        private int pos;
+
+        Codec(StringBuilder out) {
+            this.out = out;
+            this.in = null;
+        }
+
+        Codec(String saved) {
+            this.out = null;
+            this.in = saved.split(",");
+        }
+
+        int i(int v) {
+            if (in != null) {
+                return Integer.parseInt(in[pos++]);
+            }
+            if (out.length() > 0) {
+                out.append(',');
+            }
+            out.append(v);
+            return v;
+        }
+
+        boolean b(boolean v) {
+            return i(v ? 1 : 0) != 0;
+        }
+
+        <E extends Enum<E>> E e(E v, E[] values) {
+            return values[i(v.ordinal())];
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package md2excel.render;
+
+import java.util.List;
+
+import md2excel.render.MarkdownRenderer.LineInfo;
+import md2excel.render.MarkdownRenderer.LineKind;
+
+/**
+ * 二段階変換の 1 段目。 全行を MarkdownRenderer と同じ規則（LineInfo）で分類し、インライン解析の単位（ブロック）に分ける。
+ *
+ * ブロックは「前の行の &lt;br&gt; 継続になりうる行」をつないだ範囲。 継続できるのは NORMAL / BLOCK_QUOTE の行だけなので、
+ * 見出し・リスト・引用・本文の後に続く NORMAL / BLOCK_QUOTE は同じブロックにする。 表の行は 1 行で 1 ブロック、
+ * コード・空行・水平線・表の区切り行はどのブロックにも入れない（インライン解析をしない）。 ブロックどうしは
+ * 持ち越し（carryPrefix）を共有しないので、別々のスレッドで解析してよい。
+ */
+final class BlockModel {
+
+    final List<String> lines;
+
+    // 行ごとの種別（LineKind.ordinal()）
+    final byte[] kinds;
+
+    // ブロック i は行 [blockStart[i], blockEnd[i])
+    final int[] blockStart;
+    final int[] blockEnd;
+    final int blockCount;
+
+    private BlockModel(List<String> lines, byte[] kinds, int[] blockStart, int[] blockEnd, int blockCount) {
+        this.lines = lines;
+        this.kinds = kinds;
+        this.blockStart = blockStart;
+        this.blockEnd = blockEnd;
+        this.blockCount = blockCount;
+    }
+
+    private static final LineKind[] KINDS = LineKind.values();
+
+    LineKind kind(int line) {
+        return KINDS[kinds[line]];
+    }
+
+    static BlockModel build(List<String> lines) {
+        int n = lines.size();
+        byte[] kinds = new byte[n];
+        int[] start = new int[Math.max(1, n)];
+        int[] end = new int[Math.max(1, n)];
+        int count = 0;
+
+        LineInfo li = new LineInfo();
+        boolean inCodeBlock = false;
+        boolean continuable = false; // 前の行がブロックを続けられる行か
+
+        for (int i = 0; i < n; i++) {
+            li.parse(lines.get(i), inCodeBlock);
+            LineKind kind = li.kind;
+            kinds[i] = (byte) kind.ordinal();
+
+            if (kind == LineKind.CODE_FENCE) {
+                // render と同じく、フェンスのたびに反転する
+                inCodeBlock = !inCodeBlock;
+            }
+            if (hasInline(kind)) {
+                if (continuable && continues(kind)) {
+                    end[count - 1] = i + 1;
+                } else {
+                    start[count] = i;
+                    end[count] = i + 1;
+                    count++;
+                }
+            }
+            continuable = canBeContinued(kind);
+        }
+
+        return new BlockModel(lines, kinds, start, end, count);
+    }
+
+    // インライン解析をする行
+    static boolean hasInline(LineKind kind) {
+        switch (kind) {
+        case NORMAL:
+        case BLOCK_QUOTE:
+        case HEADING:
+        case BULLET_ITEM:
+        case NUMBER_ITEM:
+        case TABLE_ROW:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    // 前の行の <br> 継続になりうる行
+    static boolean continues(LineKind kind) {
+        return kind == LineKind.NORMAL || kind == LineKind.BLOCK_QUOTE;
+    }
+
+    // 次の行に <br> 継続を渡しうる行
+    static boolean canBeContinued(LineKind kind) {
+        return hasInline(kind) && kind != LineKind.TABLE_ROW;
+    }
+}
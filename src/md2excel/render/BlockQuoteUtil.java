@@ -2,7 +2,6 @@ package md2excel.render;
 
 import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.Row;
-import org.apache.poi.ss.usermodel.Sheet;
 
 import md2excel.excel.MdStyle;
 
@@ -10,14 +9,15 @@ public final class BlockQuoteUtil {
     private BlockQuoteUtil() {
     }
 
-    public static void closeBlockQuoteIfOpen(Sheet sheet, MdStyle styles, RenderState st) {
+    // 背景は DecorationLog に記録し、後でまとめて当てる
+    public static void closeBlockQuoteIfOpen(RenderState st) {
         if (!st.inBlockQuote)
             return;
         if (st.blockQuoteFirstRow < 0 || st.blockQuoteLastRow < 0)
             return;
 
-        applyBlockQuoteStyle(sheet, styles, st.blockQuoteFirstRow, st.blockQuoteLastRow, st.blockQuoteCol,
-                st.lastColIndex);
+        st.decorations.blockQuote(Math.max(st.blockQuoteFirstRow, st.flushedRowCount), st.blockQuoteLastRow,
+                st.blockQuoteCol, Math.max(st.blockQuoteCol, st.lastColIndex));
 
         st.inBlockQuote = false;
         st.blockQuoteFirstRow = -1;
@@ -26,26 +26,24 @@ public final class BlockQuoteUtil {
         st.blockQuoteCellCol = -1;
     }
 
-    private static void applyBlockQuoteStyle(Sheet sheet, MdStyle styles, int firstRow, int lastRow, int startCol,
-            int lastColIndex) {
+    // 引用の 1 行（rowObj）の [startCol, endCol]。 sparse のときは左端のセルだけを作る。 @return 新しく作ったセル数
+    static int applyBlockQuoteStyle(Row rowObj, MdStyle styles, int startCol, int endCol, boolean sparse) {
+        int created = 0;
 
-        int fillEndCol = Math.max(startCol, lastColIndex);
+        for (int c = startCol; c <= endCol; c++) {
+            boolean isLeft = (c == startCol);
 
-        for (int r = firstRow; r <= lastRow; r++) {
-            Row rowObj = sheet.getRow(r);
-            if (rowObj == null)
-                continue;
-
-            for (int c = startCol; c <= fillEndCol; c++) {
-                Cell cell = rowObj.getCell(c);
-                if (cell == null) {
-                    cell = rowObj.createCell(c);
-                    cell.setBlank();
-                }
-
-                boolean isLeft = (c == startCol);
-                cell.setCellStyle(isLeft ? styles.blockQuoteLeftStyle : styles.blockQuoteBodyStyle);
+            Cell cell = rowObj.getCell(c);
+            if (cell == null) {
+                if (sparse && !isLeft)
+                    continue;
+                cell = rowObj.createCell(c);
+                cell.setBlank();
+                created++;
             }
+
+            cell.setCellStyle(isLeft ? styles.blockQuoteLeftStyle() : styles.blockQuoteBodyStyle());
         }
+        return created;
     }
 }
@@ -0,0 +1,50 @@
+package md2excel.render;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 変換の中止の指示。 render は行と行の間でこれを見て、中止されていれば CancellationException を投げて抜ける
+ * （JVM やスレッドを止めずに、暴走した文書の変換だけをやめられる）。
+ *
+ * cancel は別スレッド（GUI のボタン・監視用のタイマーなど）から呼んでよい。 期限付きのものは、期限を過ぎると
+ * cancel されたものとして扱う。
+ */
+public final class CancellationToken {
+
+    private static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    private volatile boolean cancelled;
+    private final long deadlineNanos; // System.nanoTime() の値（NO_DEADLINE なら期限なし）
+
+    public CancellationToken() {
+        this.deadlineNanos = NO_DEADLINE;
+    }
+
+    private CancellationToken(long deadlineNanos) {
+        this.deadlineNanos = deadlineNanos;
+    }
+
+    /** 今から timeout 後に期限が切れるトークン。 */
+    public static CancellationToken withTimeout(long timeout, TimeUnit unit) {
+        return new CancellationToken(System.nanoTime() + unit.toNanos(timeout));
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled || (deadlineNanos != NO_DEADLINE && System.nanoTime() - deadlineNanos >= 0);
+    }
+
+    /** 中止されていれば CancellationException を投げる。 */
+    public void throwIfCancelled() {
+        if (cancelled) {
+            throw new CancellationException("変換を中止しました");
+        }
+        if (deadlineNanos != NO_DEADLINE && System.nanoTime() - deadlineNanos >= 0) {
+            throw new CancellationException("変換の期限を過ぎました");
+        }
+    }
+}
@@ -20,28 +20,32 @@ public final class CellAppendUtil {
         appendMarkdown(sheet, wb, styles, rowNum, colNum, markdownText, baseStyle, true);
     }
 
-    public static void appendMarkdown(Sheet sheet, Workbook wb, MdStyle styles, int rowNum, int colNum,
+    // @return セルを新しく作ったら true
+    public static boolean appendMarkdown(Sheet sheet, Workbook wb, MdStyle styles, int rowNum, int colNum,
             String markdownText, CellStyle baseStyle, boolean withLeadingSpace) {
 
         if (markdownText == null || markdownText.isEmpty()) {
-            return;
+            return false;
         }
 
-        Row row = RowUtil.getOrCreateRow(sheet, rowNum, styles.normalStyle);
+        Row row = RowUtil.getOrCreateRow(sheet, rowNum, styles.normalStyle());
+        MarkdownInline.FontRegistry fonts = new MarkdownInline.FontRegistry(wb);
 
         Cell cell = row.getCell(colNum);
-        if (cell == null) {
+        boolean created = (cell == null);
+        if (created) {
             cell = row.createCell(colNum);
-            MarkdownInline.setResolvedSegmentsCell(wb, cell, Collections.<MarkdownInline.MdSegment>emptyList(),
+            MarkdownInline.setResolvedSegmentsCell(fonts, cell, Collections.<MarkdownInline.MdSegment>emptyList(),
                     baseStyle);
         }
 
-        MarkdownInline.appendResolvedSegmentsToCell(wb, cell,
+        MarkdownInline.appendResolvedSegmentsToCell(fonts, cell,
                 MarkdownInline.splitByBrPreserveFormatting(markdownText).lines.isEmpty()
                         ? Collections.<MarkdownInline.MdSegment>emptyList()
                         : MarkdownInline
                                 .joinLinesWithSingleSpace(MarkdownInline.splitByBrPreserveFormatting(markdownText)),
                 baseStyle, withLeadingSpace);
+        return created;
     }
 
     // resolved segment
@@ -50,23 +54,27 @@ public final class CellAppendUtil {
         appendResolvedSegments(sheet, wb, styles, rowNum, colNum, segments, baseStyle, true);
     }
 
-    public static void appendResolvedSegments(Sheet sheet, Workbook wb, MdStyle styles, int rowNum, int colNum,
+    // @return セルを新しく作ったら true
+    public static boolean appendResolvedSegments(Sheet sheet, Workbook wb, MdStyle styles, int rowNum, int colNum,
             List<MarkdownInline.MdSegment> segments, CellStyle baseStyle, boolean withLeadingSpace) {
 
         if (segments == null || segments.isEmpty()) {
-            return;
+            return false;
         }
 
-        Row row = RowUtil.getOrCreateRow(sheet, rowNum, styles.normalStyle);
+        Row row = RowUtil.getOrCreateRow(sheet, rowNum, styles.normalStyle());
+        MarkdownInline.FontRegistry fonts = new MarkdownInline.FontRegistry(wb);
 
         Cell cell = row.getCell(colNum);
-        if (cell == null) {
+        boolean created = (cell == null);
+        if (created) {
             cell = row.createCell(colNum);
-            MarkdownInline.setResolvedSegmentsCell(wb, cell, Collections.<MarkdownInline.MdSegment>emptyList(),
+            MarkdownInline.setResolvedSegmentsCell(fonts, cell, Collections.<MarkdownInline.MdSegment>emptyList(),
                     baseStyle);
         }
 
-        MarkdownInline.appendResolvedSegmentsToCell(wb, cell, segments, baseStyle, withLeadingSpace);
+        MarkdownInline.appendResolvedSegmentsToCell(fonts, cell, segments, baseStyle, withLeadingSpace);
+        return created;
     }
 
     public static void appendMarkdownWithSpace(RenderContext ctx, int rowNum, int colNum, String markdownText,
@@ -74,19 +82,47 @@ public final class CellAppendUtil {
         appendMarkdown(ctx, rowNum, colNum, markdownText, baseStyle, true);
     }
 
+    // ctx版は追記を RenderState.openCell に溜める（セルのリッチテキストにするのは閉じるとき 1 回だけ）
     public static void appendMarkdown(RenderContext ctx, int rowNum, int colNum, String markdownText,
             CellStyle baseStyle, boolean withLeadingSpace) {
-        appendMarkdown(ctx.sheet, ctx.wb, ctx.styles, rowNum, colNum, markdownText, baseStyle, withLeadingSpace);
+
+        if (markdownText == null || markdownText.isEmpty()) {
+            return;
+        }
+
+        MarkdownInline.BrSplitResult sp = MarkdownInline.splitByBrPreserveFormatting(markdownText, ctx);
+        appendToOpenCell(ctx, rowNum, colNum,
+                sp.lines.isEmpty() ? Collections.<MarkdownInline.MdSegment>emptyList()
+                        : MarkdownInline.joinLinesWithSingleSpace(sp),
+                baseStyle, withLeadingSpace);
     }
 
-    // ctx版
     public static void appendResolvedSegmentsWithSpace(RenderContext ctx, int rowNum, int colNum,
             List<MarkdownInline.MdSegment> segments, CellStyle baseStyle) {
-        appendResolvedSegments(ctx.sheet, ctx.wb, ctx.styles, rowNum, colNum, segments, baseStyle, true);
+        appendResolvedSegments(ctx, rowNum, colNum, segments, baseStyle, true);
     }
 
     public static void appendResolvedSegments(RenderContext ctx, int rowNum, int colNum,
             List<MarkdownInline.MdSegment> segments, CellStyle baseStyle, boolean withLeadingSpace) {
-        appendResolvedSegments(ctx.sheet, ctx.wb, ctx.styles, rowNum, colNum, segments, baseStyle, withLeadingSpace);
+
+        if (segments == null || segments.isEmpty()) {
+            return;
+        }
+        appendToOpenCell(ctx, rowNum, colNum, segments, baseStyle, withLeadingSpace);
+    }
+
+    private static void appendToOpenCell(RenderContext ctx, int rowNum, int colNum,
+            List<MarkdownInline.MdSegment> segments, CellStyle baseStyle, boolean withLeadingSpace) {
+
+        Row row = RowUtil.getOrCreateRow(ctx.sheet, rowNum, ctx.styles.normalStyle());
+
+        Cell cell = row.getCell(colNum);
+        if (cell == null) {
+            cell = RowUtil.createCell(row, colNum, ctx.st);
+            MarkdownInline.setResolvedSegmentsCell(ctx.fonts, cell, Collections.<MarkdownInline.MdSegment>emptyList(),
+                    baseStyle);
+        }
+
+        ctx.st.openCell.append(ctx.fonts, cell, segments, baseStyle, withLeadingSpace);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,64 @@
+package md2excel.render;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.Row;
+
+import md2excel.excel.MdStyle;
+
+public final class CodeBlockUtil {
+    private CodeBlockUtil() {
+    }
+
+    // 枠線は DecorationLog に記録し、後でまとめて当てる
+    public static void closeCodeBlockFrameIfOpen(RenderState st) {
+        if (!st.inCodeBlock || st.codeBlockFirstRow < 0 || st.codeBlockLastRow < 0)
+            return;
+
+        // ストリーミングで書き出し済みの行は、書き出す前に装飾済み
+        st.decorations.codeFrame(st.codeBlockFirstRow, st.codeBlockLastRow,
+                Math.max(st.codeBlockFirstRow, st.flushedRowCount), st.codeBlockLastRow, st.codeBlockCol,
+                Math.max(st.codeBlockCol, st.lastColIndex));
+    }
+
+    /**
+     * コードブロック [blockFirstRow, blockLastRow] の 1 行（rowObj）の [startCol, endCol] に枠線スタイルを当てる。
+     * blockLastRow が未確定（ブロックが開いたまま）のときは -1 を渡す（下枠線は付けない）。 sparse のときは枠線の
+     * 付くセルだけを作る（枠線のないセルは、あれば当てる）。
+     *
+     * @return 新しく作ったセル数
+     */
+    static int applyCodeBlockFrame(Row rowObj, MdStyle styles, int blockFirstRow, int blockLastRow, int startCol,
+            int endCol, boolean sparse) {
+
+        int r = rowObj.getRowNum();
+        int created = 0;
+
+        for (int c = startCol; c <= endCol; c++) {
+            boolean isTop = (r == blockFirstRow);
+            boolean isBottom = (r == blockLastRow);
+            boolean isLeft = (c == startCol);
+            boolean isRight = (c == endCol);
+
+            int mask = 0;
+            if (isTop)
+                mask |= 1;
+            if (isBottom)
+                mask |= 2;
+            if (isLeft)
+                mask |= 4;
+            if (isRight)
+                mask |= 8;
+
+            Cell cell = rowObj.getCell(c);
+            if (cell == null) {
+                if (sparse && mask == 0)
+                    continue;
+                cell = rowObj.createCell(c);
+                created++;
+            }
+
+            cell.setCellStyle(styles.codeBlockFrameStyle(mask));
+        }
+        return created;
+    }
+}
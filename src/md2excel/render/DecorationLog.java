@@ -0,0 +1,189 @@
+package md2excel.render;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.util.CellRangeAddress;
+
+import md2excel.excel.MdStyle;
+
+/**
+ * ブロックを閉じたときの装飾（コード枠・引用の背景・表の最終行の罫線）の記録。
+ *
+ * 閉じたときには範囲（行・列・種類）だけを記録し、apply でまとめて当てる。 当てるときはシートの行を先頭から順に
+ * 1 回だけたどり（getRow で行を探し直さない）、行ごとに掛かっている範囲を当てる。 XSSF では render の最後に 1 回、
+ * SXSSF では行を書き出す直前に、書き出す行の分だけ当てる。
+ *
+ * sparse のときは、枠線のあるセル（コード枠の上下の行・左右の列、引用の左端）だけを作り、背景と水平線はセルを作らずに
+ * 条件付き書式の範囲として finish でまとめて足す（長いコードブロックでも 1 行あたり 2 セル）。
+ */
+final class DecorationLog {
+
+    enum Kind {
+        CODE_FRAME,
+        BLOCK_QUOTE,
+        TABLE_LAST_ROW
+    }
+
+    /** 装飾する範囲。 行は [fromRow, toRow]、列は [startCol, endCol]。 */
+    private static final class Region {
+        final Kind kind;
+        // コード枠の上下（ブロックの先頭・最終行。最終行が未確定なら -1）
+        final int blockFirstRow;
+        final int blockLastRow;
+        int fromRow;
+        final int toRow;
+        final int startCol;
+        final int endCol;
+
+        Region(Kind kind, int blockFirstRow, int blockLastRow, int fromRow, int toRow, int startCol, int endCol) {
+            this.kind = kind;
+            this.blockFirstRow = blockFirstRow;
+            this.blockLastRow = blockLastRow;
+            this.fromRow = fromRow;
+            this.toRow = toRow;
+            this.startCol = startCol;
+            this.endCol = endCol;
+        }
+    }
+
+    // 先頭行の順（同じ行からなら記録した順）
+    private static final Comparator<Region> BY_FROM_ROW = new Comparator<Region>() {
+        @Override
+        public int compare(Region a, Region b) {
+            return Integer.compare(a.fromRow, b.fromRow);
+        }
+    };
+
+    // true: 背景・水平線をセルではなく条件付き書式で付ける
+    final boolean sparse;
+
+    private final List<Region> pending = new ArrayList<Region>();
+
+    // sparse のときの条件付き書式の範囲（続いている範囲はつなげる）
+    private final List<CellRangeAddress> backgrounds = new ArrayList<CellRangeAddress>();
+    private final List<CellRangeAddress> horizontalRules = new ArrayList<CellRangeAddress>();
+
+    DecorationLog(boolean sparse) {
+        this.sparse = sparse;
+    }
+
+    /** コードブロック [blockFirstRow, blockLastRow] のうち [fromRow, toRow]。 blockLastRow が未確定なら -1。 */
+    void codeFrame(int blockFirstRow, int blockLastRow, int fromRow, int toRow, int startCol, int endCol) {
+        add(new Region(Kind.CODE_FRAME, blockFirstRow, blockLastRow, fromRow, toRow, startCol, endCol));
+    }
+
+    void blockQuote(int fromRow, int toRow, int startCol, int endCol) {
+        add(new Region(Kind.BLOCK_QUOTE, -1, -1, fromRow, toRow, startCol, endCol));
+    }
+
+    void tableLastRow(int row, int startCol, int endCol) {
+        add(new Region(Kind.TABLE_LAST_ROW, -1, -1, row, row, startCol, endCol));
+    }
+
+    // sparse のときだけ（セルは作らない）
+    void horizontalRule(int row, int startCol, int endCol) {
+        addRange(horizontalRules, row, row, startCol, endCol);
+    }
+
+    private void add(Region r) {
+        if (r.fromRow <= r.toRow && r.startCol <= r.endCol) {
+            pending.add(r);
+            if (sparse && r.kind != Kind.TABLE_LAST_ROW) {
+                addRange(backgrounds, r.fromRow, r.toRow, r.startCol, r.endCol);
+            }
+        }
+    }
+
+    private static void addRange(List<CellRangeAddress> ranges, int fromRow, int toRow, int startCol, int endCol) {
+        if (!ranges.isEmpty()) {
+            CellRangeAddress last = ranges.get(ranges.size() - 1);
+            if (last.getFirstColumn() == startCol && last.getLastColumn() == endCol
+                    && last.getLastRow() + 1 == fromRow) {
+                last.setLastRow(toRow);
+                return;
+            }
+        }
+        ranges.add(new CellRangeAddress(fromRow, toRow, startCol, endCol));
+    }
+
+    /** sparse のとき、記録した背景・水平線の範囲を条件付き書式にする（render の最後に 1 回）。 */
+    void finish(Sheet sheet, MdStyle styles) {
+        styles.addBlockBackgroundFormatting(sheet, backgrounds);
+        styles.addHorizontalRuleFormatting(sheet, horizontalRules);
+        backgrounds.clear();
+        horizontalRules.clear();
+    }
+
+    /**
+     * limitRow 未満の行に記録した装飾を当てる（limitRow 以降の分は残す）。 シートに無い行（書き出し済み）は飛ばす。
+     *
+     * @return 新しく作ったセル数
+     */
+    int apply(Sheet sheet, MdStyle styles, int limitRow) {
+        if (pending.isEmpty()) {
+            return 0;
+        }
+        Collections.sort(pending, BY_FROM_ROW);
+
+        int lastRow = -1;
+        for (Region r : pending) {
+            lastRow = Math.max(lastRow, r.toRow);
+        }
+        lastRow = Math.min(lastRow, limitRow - 1);
+
+        int created = 0;
+        List<Region> active = new ArrayList<Region>();
+        int next = 0;
+
+        Iterator<Row> rows = sheet.rowIterator();
+        while (rows.hasNext()) {
+            Row row = rows.next();
+            int r = row.getRowNum();
+            if (r > lastRow) {
+                break;
+            }
+            while (next < pending.size() && pending.get(next).fromRow <= r) {
+                active.add(pending.get(next++));
+            }
+            for (Iterator<Region> it = active.iterator(); it.hasNext();) {
+                Region reg = it.next();
+                if (reg.toRow < r) {
+                    it.remove();
+                    continue;
+                }
+                created += applyRow(row, styles, reg, sparse);
+            }
+        }
+
+        // 当て終わった範囲を消し、limitRow をまたぐ範囲は残りだけにする
+        for (Iterator<Region> it = pending.iterator(); it.hasNext();) {
+            Region reg = it.next();
+            if (reg.toRow < limitRow) {
+                it.remove();
+            } else if (reg.fromRow < limitRow) {
+                reg.fromRow = limitRow;
+            }
+        }
+        return created;
+    }
+
+    private static int applyRow(Row row, MdStyle styles, Region reg, boolean sparse) {
+        switch (reg.kind) {
+        case CODE_FRAME:
+            return CodeBlockUtil.applyCodeBlockFrame(row, styles, reg.blockFirstRow, reg.blockLastRow, reg.startCol,
+                    reg.endCol, sparse);
+        case BLOCK_QUOTE:
+            return BlockQuoteUtil.applyBlockQuoteStyle(row, styles, reg.startCol, reg.endCol, sparse);
+        case TABLE_LAST_ROW:
+            return MarkdownTable.applyLastRowBorders(row, styles, reg.startCol, reg.endCol);
+        default:
+            throw new AssertionError("Unhandled Kind: " + reg.kind);
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package md2excel.render;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Font;
+import org.apache.poi.ss.usermodel.Workbook;
+
+/**
+ * 文字列の表示幅の見積もり（Excel の列幅の単位 = 既定フォントの数字 1 文字分）。 AWT でフォントを描画して測らず、
+ * 文字の種類ごとの幅の表（ASCII は 1 文字ずつ、全角は一律）をフォントのサイズ・太字ごとに 1 回だけ作って引く。
+ *
+ * Workbook 1 つ分（RenderContext が持つ）。 Workbook と同じく 1 スレッドから使う前提で同期しない。
+ */
+final class GlyphWidthTable {
+
+    // 数字 1 文字を 1 とした幅（プロポーショナルフォントの ASCII）
+    private static final String NARROW = "'|ijl.,:;!`";
+    private static final String SEMI_NARROW = " ()[]{}frtI-\"";
+    private static final String SEMI_WIDE = "ABCDEFGHJKLNOPQRSTUVXYZ&";
+    private static final String WIDE = "mwMW@%";
+
+    private static final float NARROW_WIDTH = 0.45f;
+    private static final float SEMI_NARROW_WIDTH = 0.6f;
+    private static final float DIGIT_WIDTH = 1.0f;
+    private static final float SEMI_WIDE_WIDTH = 1.2f;
+    private static final float WIDE_WIDTH = 1.5f;
+
+    // 等幅（Consolas）の ASCII
+    private static final float MONO_WIDTH = 1.1f;
+    // 全角（CJK・全角記号）
+    private static final float FULL_WIDTH = 2.0f;
+
+    private static final float BOLD_FACTOR = 1.07f;
+
+    // 表の添字（0..127 は ASCII、FULL は全角、OTHER はそれ以外の半角）
+    private static final int FULL = 128;
+    private static final int OTHER = 129;
+
+    private static final float[] PROPORTIONAL = proportional();
+
+    private final Workbook wb;
+    private final float basePoints;
+
+    // キーはフォントのサイズ（1/20 pt）・太字・等幅
+    private final Map<Integer, float[]> tables = new HashMap<Integer, float[]>();
+    // スタイルのフォント index ごとのサイズ・太字
+    private final Map<Integer, Integer> fontKeys = new HashMap<Integer, Integer>();
+
+    GlyphWidthTable(Workbook wb) {
+        this.wb = wb;
+        // 列幅の単位は既定フォント（index 0）の数字の幅
+        this.basePoints = Math.max(1, wb.getFontAt(0).getFontHeight()) / 20f;
+    }
+
+    /** baseStyle のセルに segments を書いたときの幅。 */
+    float width(List<MarkdownInline.MdSegment> segments, CellStyle baseStyle) {
+        int key = fontKey(baseStyle);
+        int height = key >>> 1;
+        boolean baseBold = (key & 1) != 0;
+
+        float w = 0;
+        for (MarkdownInline.MdSegment seg : segments) {
+            w += width(seg.text, table(height, baseBold || seg.inBold, seg.inCode));
+        }
+        return w;
+    }
+
+    /** baseStyle のフォントで text を書いたときの幅（強調なし）。 */
+    float width(CharSequence text, CellStyle baseStyle) {
+        int key = fontKey(baseStyle);
+        return width(text, table(key >>> 1, (key & 1) != 0, false));
+    }
+
+    /**
+     * baseStyle のフォントで text を幅 maxWidth に折り返したときの行数（強調なし）。 空白の後ろで折り返し、空白のない
+     * 語（日本語の文など）は文字の間で折り返す。
+     */
+    int lineCount(CharSequence text, CellStyle baseStyle, float maxWidth) {
+        int key = fontKey(baseStyle);
+        float[] t = table(key >>> 1, (key & 1) != 0, false);
+
+        int lines = 1;
+        float line = 0; // 今の行の幅
+        float sinceBreak = 0; // 今の行で、最後の空白より後ろの幅
+        boolean hasBreak = false;
+        int n = text.length();
+        for (int i = 0; i < n; i++) {
+            char ch = text.charAt(i);
+            float w;
+            if (ch < 128) {
+                w = t[ch];
+            } else if (isFullWidth(ch)) {
+                w = t[FULL];
+                if (Character.isHighSurrogate(ch) && i + 1 < n && Character.isLowSurrogate(text.charAt(i + 1))) {
+                    i++;
+                }
+            } else {
+                w = t[OTHER];
+            }
+
+            if (ch == ' ') {
+                line += w;
+                sinceBreak = 0;
+                hasBreak = true;
+                continue;
+            }
+            if (line + w > maxWidth && line > 0) {
+                lines++;
+                // 空白の後ろの語は次の行へ送る（語が 1 行より長ければ文字の間で切る）
+                line = (hasBreak && sinceBreak + w <= maxWidth) ? sinceBreak : 0;
+                sinceBreak = line;
+                hasBreak = false;
+            }
+            line += w;
+            sinceBreak += w;
+        }
+        return lines;
+    }
+
+    /** baseStyle のフォントのサイズ（pt）。 */
+    float fontPoints(CellStyle baseStyle) {
+        return (fontKey(baseStyle) >>> 1) / 20f;
+    }
+
+    private static float width(CharSequence text, float[] t) {
+        float w = 0;
+        int n = text.length();
+        for (int i = 0; i < n; i++) {
+            char ch = text.charAt(i);
+            if (ch < 128) {
+                w += t[ch];
+            } else if (isFullWidth(ch)) {
+                w += t[FULL];
+                // サロゲートペアは 1 文字（全角）として数える
+                if (Character.isHighSurrogate(ch) && i + 1 < n && Character.isLowSurrogate(text.charAt(i + 1))) {
+                    i++;
+                }
+            } else {
+                w += t[OTHER];
+            }
+        }
+        return w;
+    }
+
+    // 東アジアの全角・絵文字など（半角カナ FF61-FF9F は半角）
+    static boolean isFullWidth(char ch) {
+        return (ch >= 0x1100 && ch <= 0x115F) || (ch >= 0x2E80 && ch <= 0xA4CF) || (ch >= 0xAC00 && ch <= 0xD7A3)
+                || (ch >= 0xF900 && ch <= 0xFAFF) || (ch >= 0xFE30 && ch <= 0xFE4F) || (ch >= 0xFF00 && ch <= 0xFF60)
+                || (ch >= 0xFFE0 && ch <= 0xFFE6) || Character.isSurrogate(ch);
+    }
+
+    private int fontKey(CellStyle style) {
+        Integer idx = style.getFontIndex();
+        Integer key = fontKeys.get(idx);
+        if (key == null) {
+            Font f = wb.getFontAt(style.getFontIndex());
+            key = (f.getFontHeight() << 1) | (f.getBold() ? 1 : 0);
+            fontKeys.put(idx, key);
+        }
+        return key;
+    }
+
+    private float[] table(int height, boolean bold, boolean mono) {
+        int key = (height << 2) | (bold ? 2 : 0) | (mono ? 1 : 0);
+        float[] t = tables.get(key);
+        if (t == null) {
+            t = new float[OTHER + 1];
+            float scale = (height / 20f) / basePoints * (bold ? BOLD_FACTOR : 1f);
+            for (int c = 0; c < 128; c++) {
+                t[c] = (mono ? MONO_WIDTH : PROPORTIONAL[c]) * scale;
+            }
+            t[FULL] = FULL_WIDTH * scale;
+            t[OTHER] = DIGIT_WIDTH * scale;
+            tables.put(key, t);
+        }
+        return t;
+    }
+
+    private static float[] proportional() {
+        float[] t = new float[128];
+        for (int c = 0; c < 128; c++) {
+            t[c] = (c < 0x20 || c == 0x7F) ? 0 : DIGIT_WIDTH;
+        }
+        fill(t, SEMI_WIDE, SEMI_WIDE_WIDTH);
+        fill(t, WIDE, WIDE_WIDTH);
+        fill(t, SEMI_NARROW, SEMI_NARROW_WIDTH);
+        fill(t, NARROW, NARROW_WIDTH);
+        return t;
+    }
+
+    private static void fill(float[] t, String chars, float w) {
+        for (int i = 0; i < chars.length(); i++) {
+            t[chars.charAt(i)] = w;
+        }
+    }
+}
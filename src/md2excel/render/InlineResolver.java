@@ -0,0 +1,133 @@
+package md2excel.render;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import md2excel.render.MarkdownRenderer.LineInfo;
+
+/**
+ * 二段階変換の 2 段目。 BlockModel のブロックごとに、render がインライン解析に渡す文字列を作って先に解析する。
+ *
+ * 解析に渡す文字列は render と同じ作り方（LineInfo の本文 + ハード改行の &lt;br&gt;、前の行の持ち越し）。 render の
+ * 状態によっては別の文字列になることもあるが、そのときは render 中に解析する（キャッシュに無いだけで結果は同じ）。
+ */
+final class InlineResolver {
+
+    private InlineResolver() {
+    }
+
+    // これ以下のブロック数なら分けずに 1 タスクで解析する
+    private static final int SEQUENTIAL_BLOCKS = 32;
+
+    /**
+     * inlineLimit は render と同じ記号の run の数の上限（MarkdownInline.tokenizeInline）。
+     *
+     * @return 解析する文字列 → 結果（共有してよい不変の結果）
+     */
+    static Map<String, MarkdownInline.BrSplitResult> resolve(BlockModel model, ForkJoinPool pool, int inlineLimit) {
+        Map<String, MarkdownInline.BrSplitResult> out = new ConcurrentHashMap<String, MarkdownInline.BrSplitResult>(
+                Math.max(16, model.lines.size()));
+        pool.invoke(new ResolveTask(model, 0, model.blockCount, inlineLimit, out));
+        return out;
+    }
+
+    private static final class ResolveTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final BlockModel model;
+        private final int from;
+        private final int to;
+        private final int inlineLimit;
+        private final Map<String, MarkdownInline.BrSplitResult> out;
+
+        ResolveTask(BlockModel model, int from, int to, int inlineLimit,
+                Map<String, MarkdownInline.BrSplitResult> out) {
+            this.model = model;
+            this.from = from;
+            this.to = to;
+            this.inlineLimit = inlineLimit;
+            this.out = out;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= SEQUENTIAL_BLOCKS) {
+                LineInfo li = new LineInfo();
+                List<String> cells = new ArrayList<String>();
+                for (int b = from; b < to; b++) {
+                    resolveBlock(model, b, li, cells, inlineLimit, out);
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new ResolveTask(model, from, mid, inlineLimit, out),
+                    new ResolveTask(model, mid, to, inlineLimit, out));
+        }
+    }
+
+    private static void resolveBlock(BlockModel model, int block, LineInfo li, List<String> cells, int inlineLimit,
+            Map<String, MarkdownInline.BrSplitResult> out) {
+
+        MarkdownInline.BrSplitResult prev = null;
+        for (int i = model.blockStart[block]; i < model.blockEnd[block]; i++) {
+            // ブロックの中はコードブロックの外
+            li.parse(model.lines.get(i), false);
+            prev = resolveLine(li, prev, cells, out, inlineLimit);
+        }
+    }
+
+    /**
+     * 1 行分（li は解析済み、インライン解析をする種別）。 prev は同じブロックの前の行の結果（先頭なら null）。
+     *
+     * @return この行の結果（次の行の prev。表の行は null）
+     */
+    static MarkdownInline.BrSplitResult resolveLine(LineInfo li, MarkdownInline.BrSplitResult prev,
+            List<String> cells, Map<String, MarkdownInline.BrSplitResult> out, int inlineLimit) {
+
+        if (li.kind == MarkdownRenderer.LineKind.TABLE_ROW) {
+            cells.clear();
+            MarkdownTable.splitCellTexts(li.line, li.contentStart, li.contentEnd, cells);
+            for (String cell : cells) {
+                resolve(cell, out, inlineLimit);
+            }
+            return null;
+        }
+
+        String text = MarkdownRenderer.applyHardLineBreak(text(li), li);
+        MarkdownInline.BrSplitResult r = resolve(text, out, inlineLimit);
+
+        // 前の行の <br> 継続なら、持ち越した記号を先頭に付けた文字列で解析される
+        if (prev != null && (prev.endsWithBr || prev.lines.size() >= 2) && !prev.carryPrefix.isEmpty()) {
+            r = resolve(prev.carryPrefix + text, out, inlineLimit);
+        }
+        return r;
+    }
+
+    // render が行の種別ごとに解析に渡す本文
+    private static String text(LineInfo li) {
+        switch (li.kind) {
+        case BLOCK_QUOTE:
+            return li.quoteText();
+        case HEADING:
+            return li.headingText();
+        case BULLET_ITEM:
+            return li.bulletMarkdownText();
+        default:
+            return li.trimmed();
+        }
+    }
+
+    private static MarkdownInline.BrSplitResult resolve(String text, Map<String, MarkdownInline.BrSplitResult> out,
+            int inlineLimit) {
+        MarkdownInline.BrSplitResult r = out.get(text);
+        if (r == null) {
+            r = MarkdownInline.resolveShared(text, inlineLimit);
+            out.put(text, r);
+        }
+        return r;
+    }
+}
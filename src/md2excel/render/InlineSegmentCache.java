@@ -0,0 +1,87 @@
+package md2excel.render;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * インライン解析（MarkdownInline.splitByBrPreserveFormatting）の結果の LRU キャッシュ。
+ *
+ * 仕様書では "`null`" / "**必須**" / "-" のような同じセル文字列が何度も出るので、解析結果（不変）を使い回す。 キーは
+ * 解析する文字列そのもの（前の行から持ち越した未閉じ強調記号を先頭に含む）なので、持ち越し状態ごとに別のエントリになる。
+ *
+ * RenderContext ごとに 1 つ作る（render 1 回分）。スレッドセーフではない。
+ *
+ * 二段階変換（MarkdownRenderer.renderTwoPhase）では、先に並列で解析した結果を setResolved で渡す。 そちらは長さに
+ * 関係なく引き当て、LRU からは追い出さない。
+ */
+final class InlineSegmentCache {
+
+    // これより長い文字列は繰り返し出にくく、メモリだけ使うので入れない
+    static final int MAX_KEY_LENGTH = 256;
+
+    private final Map<String, MarkdownInline.BrSplitResult> map;
+
+    // 先に解析しておいた結果（読み取りだけ。null ならなし）
+    private Map<String, MarkdownInline.BrSplitResult> resolved;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    InlineSegmentCache(final int maxEntries) {
+        // accessOrder = true で LRU
+        this.map = new LinkedHashMap<String, MarkdownInline.BrSplitResult>(Math.min(maxEntries, 256), 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, MarkdownInline.BrSplitResult> eldest) {
+                if (size() > maxEntries) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    void setResolved(Map<String, MarkdownInline.BrSplitResult> resolved) {
+        this.resolved = resolved;
+    }
+
+    // 引き当てる対象か（長い文字列は先に解析した結果があるときだけ）
+    boolean accepts(String key) {
+        return key.length() <= MAX_KEY_LENGTH || resolved != null;
+    }
+
+    // null なら未登録（misses に数える）
+    MarkdownInline.BrSplitResult get(String key) {
+        MarkdownInline.BrSplitResult r = (resolved != null) ? resolved.get(key) : null;
+        if (r == null && key.length() <= MAX_KEY_LENGTH) {
+            r = map.get(key);
+        }
+        if (r == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return r;
+    }
+
+    void put(String key, MarkdownInline.BrSplitResult value) {
+        if (key.length() <= MAX_KEY_LENGTH) {
+            map.put(key, value);
+        }
+    }
+
+    long hits() {
+        return hits;
+    }
+
+    long misses() {
+        return misses;
+    }
+
+    long evictions() {
+        return evictions;
+    }
+}
@@ -0,0 +1,269 @@
+package md2excel.render;
+
+import java.util.Arrays;
+
+/**
+ * インライン解析（MarkdownInline）のトークン列と作業領域。
+ *
+ * トークンごとにオブジェクトを作らず、種類・範囲・記号・フラグ・使った文字数を int 配列に並べて持つ。 TEXT と CODE は
+ * 解析中の文字列（text）の範囲だけを持ち、文字列は segment を作るときに初めて作る。 強調記号の run を opener / closer
+ * として使った分（use）も配列上のリストで持つ。
+ *
+ * MarkdownInline はスレッドごとに 1 つを使い回すので、解析を繰り返しても（segment の文字列のほかは）配列を作り直さない。
+ * 1 スレッドから使う。
+ */
+final class InlineTokens {
+
+    static final int TEXT = 0;
+    static final int CODE = 1;
+    static final int DELIM = 2;
+
+    // flags（DELIM のみ）
+    static final int CAN_OPEN = 1;
+    static final int CAN_CLOSE = 2;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    // これより大きくなった配列・バッファは release で手放す（一度だけの長い行のために持ち続けない）
+    private static final int MAX_RETAINED = 1 << 14;
+
+    // 解析中の文字列
+    String text;
+
+    int count;
+    int[] type = new int[INITIAL_CAPACITY];
+    int[] start = new int[INITIAL_CAPACITY]; // TEXT/CODE: 文字列にする範囲（CODE は前後の空白を除いた後）、DELIM: run
+    int[] end = new int[INITIAL_CAPACITY]; // 含まない
+    char[] marker = new char[INITIAL_CAPACITY]; // DELIM のみ
+    int[] flags = new int[INITIAL_CAPACITY];
+    int[] usedOpen = new int[INITIAL_CAPACITY]; // opener として使った文字数（run の末尾から）
+    int[] usedClose = new int[INITIAL_CAPACITY]; // closer として使った文字数（run の先頭から）
+
+    // use のリスト（-1 で終わり）。 closer は使った順（= run の先頭から）、opener は使った逆順（= run の先頭から）
+    int[] closeHead = new int[INITIAL_CAPACITY];
+    int[] closeTail = new int[INITIAL_CAPACITY];
+    int[] openHead = new int[INITIAL_CAPACITY];
+
+    int useCount;
+    int[] useLen = new int[INITIAL_CAPACITY]; // 2 なら strong、1 なら em
+    int[] useNext = new int[INITIAL_CAPACITY];
+
+    // resolveEmphasis の opener のスタック（トークンの番号）。 rule of 3 に関わる性質（openerClass）ごとに分けて持つ
+    static final int OPENER_CLASSES = 6;
+    final int[][] openers = new int[OPENER_CLASSES][INITIAL_CAPACITY];
+    final int[] openerCount = new int[OPENER_CLASSES];
+
+    // バッククォートの run（文字列の先頭から順に）。 tickClose は閉じる run（同じ長さの次の run。なければ -1）
+    int tickCount;
+    int[] tickStart = new int[INITIAL_CAPACITY];
+    int[] tickLen = new int[INITIAL_CAPACITY];
+    int[] tickClose = new int[INITIAL_CAPACITY];
+    private int[] lastTickOfLen = new int[INITIAL_CAPACITY]; // 長さ → 後ろから見て最後に見た run
+
+    // buildSegments の強調の深さと、書式が変わるまでつなげている segment
+    int boldDepth;
+    int italicDepth;
+    final StringBuilder segment = new StringBuilder();
+    boolean segmentBold;
+    boolean segmentItalic;
+    boolean segmentCode;
+    final StringBuilder carry = new StringBuilder();
+
+    void reset(String text) {
+        this.text = text;
+        count = 0;
+        useCount = 0;
+        tickCount = 0;
+        clearOpeners();
+    }
+
+    /** 解析の後に呼ぶ（文字列を離し、大きくなりすぎた配列を手放す）。 */
+    void release() {
+        text = null;
+        if (type.length > MAX_RETAINED) {
+            reallocateTokens(INITIAL_CAPACITY);
+        }
+        if (useLen.length > MAX_RETAINED) {
+            useLen = new int[INITIAL_CAPACITY];
+            useNext = new int[INITIAL_CAPACITY];
+        }
+        for (int c = 0; c < OPENER_CLASSES; c++) {
+            if (openers[c].length > MAX_RETAINED) {
+                openers[c] = new int[INITIAL_CAPACITY];
+            }
+        }
+        if (tickStart.length > MAX_RETAINED) {
+            tickStart = new int[INITIAL_CAPACITY];
+            tickLen = new int[INITIAL_CAPACITY];
+            tickClose = new int[INITIAL_CAPACITY];
+        }
+        if (lastTickOfLen.length > MAX_RETAINED) {
+            lastTickOfLen = new int[INITIAL_CAPACITY];
+        }
+        trim(segment);
+        trim(carry);
+    }
+
+    /** TEXT / CODE（範囲が空なら足さない）。 */
+    void add(int tokenType, int from, int to) {
+        if (to > from) {
+            append(tokenType, from, to, '\0', 0);
+        }
+    }
+
+    void addDelim(char ch, int from, int to, int delimFlags) {
+        append(DELIM, from, to, ch, delimFlags);
+    }
+
+    private void append(int tokenType, int from, int to, char ch, int tokenFlags) {
+        if (count == type.length) {
+            reallocateTokens(count * 2);
+        }
+        int t = count++;
+        type[t] = tokenType;
+        start[t] = from;
+        end[t] = to;
+        marker[t] = ch;
+        flags[t] = tokenFlags;
+        usedOpen[t] = 0;
+        usedClose[t] = 0;
+        closeHead[t] = -1;
+        closeTail[t] = -1;
+        openHead[t] = -1;
+    }
+
+    boolean isEmphasisDelimiter(int t, char ch) {
+        return type[t] == DELIM && marker[t] == ch;
+    }
+
+    boolean canOpen(int t) {
+        return (flags[t] & CAN_OPEN) != 0;
+    }
+
+    boolean canClose(int t) {
+        return (flags[t] & CAN_CLOSE) != 0;
+    }
+
+    int originalLen(int t) {
+        return end[t] - start[t];
+    }
+
+    int remainingChars(int t) {
+        return end[t] - start[t] - usedOpen[t] - usedClose[t];
+    }
+
+    void consumeAsOpen(int t, int len) {
+        int u = newUse(len);
+        useNext[u] = openHead[t];
+        openHead[t] = u;
+        usedOpen[t] += len;
+    }
+
+    void consumeAsClose(int t, int len) {
+        int u = newUse(len);
+        useNext[u] = -1;
+        if (closeTail[t] < 0) {
+            closeHead[t] = u;
+        } else {
+            useNext[closeTail[t]] = u;
+        }
+        closeTail[t] = u;
+        usedClose[t] += len;
+    }
+
+    private int newUse(int len) {
+        if (useCount == useLen.length) {
+            useLen = Arrays.copyOf(useLen, useCount * 2);
+            useNext = Arrays.copyOf(useNext, useCount * 2);
+        }
+        useLen[useCount] = len;
+        return useCount++;
+    }
+
+    /**
+     * rule of 3 で見る性質（開けて閉じられるか・元の run 長を 3 で割った余り）の組。 0..2 は余り、3..5 は開けて閉じられる
+     * run の余り + 3。
+     */
+    int openerClass(int t) {
+        return ((canOpen(t) && canClose(t)) ? 3 : 0) + originalLen(t) % 3;
+    }
+
+    void clearOpeners() {
+        Arrays.fill(openerCount, 0);
+    }
+
+    void pushOpener(int t) {
+        int c = openerClass(t);
+        int n = openerCount[c];
+        if (n == openers[c].length) {
+            openers[c] = Arrays.copyOf(openers[c], n * 2);
+        }
+        openers[c][n] = t;
+        openerCount[c] = n + 1;
+    }
+
+    /** openerClass が c の opener のうち最後に積んだもの（なければ -1）。 */
+    int topOpener(int c) {
+        int n = openerCount[c];
+        return (n > 0) ? openers[c][n - 1] : -1;
+    }
+
+    void popOpener(int c) {
+        openerCount[c]--;
+    }
+
+    /** text のバッククォートの run を集め、それぞれを閉じる run を求める。 */
+    void indexBackticks(String text) {
+        tickCount = 0;
+        int maxLen = 0;
+        for (int i = text.indexOf('`'); i >= 0; i = text.indexOf('`', i)) {
+            int from = i;
+            while (i < text.length() && text.charAt(i) == '`') {
+                i++;
+            }
+            if (tickCount == tickStart.length) {
+                tickStart = Arrays.copyOf(tickStart, tickCount * 2);
+                tickLen = Arrays.copyOf(tickLen, tickCount * 2);
+                tickClose = Arrays.copyOf(tickClose, tickCount * 2);
+            }
+            tickStart[tickCount] = from;
+            tickLen[tickCount] = i - from;
+            tickCount++;
+            maxLen = Math.max(maxLen, i - from);
+        }
+        if (tickCount == 0) {
+            return;
+        }
+
+        if (maxLen >= lastTickOfLen.length) {
+            lastTickOfLen = new int[Math.max(maxLen + 1, lastTickOfLen.length * 2)];
+        }
+        for (int k = 0; k < tickCount; k++) {
+            lastTickOfLen[tickLen[k]] = -1;
+        }
+        for (int k = tickCount - 1; k >= 0; k--) {
+            tickClose[k] = lastTickOfLen[tickLen[k]];
+            lastTickOfLen[tickLen[k]] = k;
+        }
+    }
+
+    private void reallocateTokens(int capacity) {
+        type = Arrays.copyOf(type, capacity);
+        start = Arrays.copyOf(start, capacity);
+        end = Arrays.copyOf(end, capacity);
+        marker = Arrays.copyOf(marker, capacity);
+        flags = Arrays.copyOf(flags, capacity);
+        usedOpen = Arrays.copyOf(usedOpen, capacity);
+        usedClose = Arrays.copyOf(usedClose, capacity);
+        closeHead = Arrays.copyOf(closeHead, capacity);
+        closeTail = Arrays.copyOf(closeTail, capacity);
+        openHead = Arrays.copyOf(openHead, capacity);
+    }
+
+    private static void trim(StringBuilder sb) {
+        sb.setLength(0);
+        if (sb.capacity() > MAX_RETAINED) {
+            sb.trimToSize();
+        }
+    }
+}
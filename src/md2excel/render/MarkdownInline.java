@@ -6,7 +6,8 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.WeakHashMap;
+
+import javax.xml.namespace.QName;
 
 import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.CellStyle;
@@ -15,6 +16,11 @@ import org.apache.poi.ss.usermodel.Workbook;
 import org.apache.poi.xssf.usermodel.XSSFColor;
 import org.apache.poi.xssf.usermodel.XSSFFont;
 import org.apache.poi.xssf.usermodel.XSSFRichTextString;
+import org.apache.xmlbeans.XmlCursor;
+import org.openxmlformats.schemas.officeDocument.x2006.sharedTypes.STXstring;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTRElt;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTRPrElt;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTRst;
 
 import md2excel.markdown.MdTextUtil;
 
@@ -23,21 +29,111 @@ public final class MarkdownInline {
     private MarkdownInline() {
     }
 
-    private static final Map<Workbook, FontCache> FONT_CACHE = Collections
-            .synchronizedMap(new WeakHashMap<Workbook, FontCache>());
+    private static final QName XML_SPACE = new QName("http://www.w3.org/XML/1998/namespace", "space");
 
-    private static final class FontCache {
-        final Map<Short, MarkdownFonts> inlineFontsByBaseFontIndex = new HashMap<Short, MarkdownFonts>();
-        final Map<Short, CodeBlockFonts> codeBlockFontsByStyleFontIndex = new HashMap<Short, CodeBlockFonts>();
-    }
+    /**
+     * Workbook 1 つ分のインライン用フォント（太字・斜体・インラインコード・コードブロック）。 RenderContext が持つ。
+     * Workbook と同じく 1 スレッドからしか使わないので同期しない。
+     *
+     * フォントは名前・サイズ・装飾ごとに 1 つだけ作る（標準と表本文のように同じフォントのスタイルで共有する）。 Workbook に
+     * 同じ属性のフォントが既にあればそれを使う。
+     */
+    static final class FontRegistry {
+        private final Workbook wb;
+
+        // スタイルのフォント index ごと（セルごとの引き当てはここで済む）
+        private final Map<Short, MarkdownFonts> inlineFontsByBaseFontIndex = new HashMap<Short, MarkdownFonts>();
+        private final Map<Short, CodeBlockFonts> codeBlockFontsByStyleFontIndex = new HashMap<Short, CodeBlockFonts>();
+
+        // 名前・サイズ・装飾ごと
+        private final Map<String, XSSFFont> fonts = new HashMap<String, XSSFFont>();
+
+        FontRegistry(Workbook wb) {
+            this.wb = wb;
+        }
+
+        MarkdownFonts markdownFonts(CellStyle baseStyle) {
+            short key = (short) baseStyle.getFontIndex();
+            MarkdownFonts cached = inlineFontsByBaseFontIndex.get(key);
+            if (cached != null) {
+                return cached;
+            }
+
+            Font base = wb.getFontAt(baseStyle.getFontIndex());
+            String name = base.getFontName();
+            short height = base.getFontHeightInPoints();
+
+            XSSFColor inlineRed = new XSSFColor(new Color(180, 0, 0), null);
+
+            MarkdownFonts mf = new MarkdownFonts(base,
+                    font(name, height, true, false, null),
+                    font(name, height, false, true, null),
+                    font(name, height, true, true, null),
+                    font("Consolas", height, false, false, inlineRed),
+                    font("Meiryo", height, false, false, inlineRed),
+                    font("Consolas", height, true, false, inlineRed),
+                    font("Meiryo", height, true, false, inlineRed));
+            mf.baseBold = base.getBold();
+
+            inlineFontsByBaseFontIndex.put(key, mf);
+            return mf;
+        }
+
+        CodeBlockFonts codeBlockFonts(CellStyle codeBlockStyle) {
+            short key = (short) codeBlockStyle.getFontIndex();
+            CodeBlockFonts cached = codeBlockFontsByStyleFontIndex.get(key);
+            if (cached != null) {
+                return cached;
+            }
 
-    private static FontCache cache(Workbook wb) {
-        FontCache c = FONT_CACHE.get(wb);
-        if (c == null) {
-            c = new FontCache();
-            FONT_CACHE.put(wb, c);
+            short height = wb.getFontAt(codeBlockStyle.getFontIndex()).getFontHeightInPoints();
+            CodeBlockFonts fonts = new CodeBlockFonts(font("Consolas", height, false, false, null),
+                    font("Meiryo", height, false, false, null));
+            codeBlockFontsByStyleFontIndex.put(key, fonts);
+            return fonts;
+        }
+
+        private XSSFFont font(String name, short height, boolean bold, boolean italic, XSSFColor color) {
+            String key = name + '\u0000' + height + '\u0000' + (bold ? 'b' : '-') + (italic ? 'i' : '-')
+                    + (color == null ? "" : color.getARGBHex());
+            XSSFFont f = fonts.get(key);
+            if (f == null) {
+                f = findOrCreate(name, height, bold, italic, color);
+                fonts.put(key, f);
+            }
+            return f;
+        }
+
+        private XSSFFont findOrCreate(String name, short height, boolean bold, boolean italic, XSSFColor color) {
+            // Workbook に登録しない比較用のフォント（equals は属性で比べる）
+            XSSFFont wanted = new XSSFFont();
+            setUp(wanted, name, height, bold, italic, color);
+            for (int i = 0, n = wb.getNumberOfFonts(); i < n; i++) {
+                Font f = wb.getFontAt(i);
+                if (wanted.equals(f)) {
+                    return (XSSFFont) f;
+                }
+            }
+
+            XSSFFont created = (XSSFFont) wb.createFont();
+            setUp(created, name, height, bold, italic, color);
+            return created;
+        }
+
+        private static void setUp(XSSFFont f, String name, short height, boolean bold, boolean italic,
+                XSSFColor color) {
+            f.setFontName(name);
+            f.setFontHeightInPoints(height);
+            if (bold) {
+                f.setBold(true);
+            }
+            if (italic) {
+                f.setItalic(true);
+            }
+            if (color != null) {
+                f.setColor(color);
+            }
         }
-        return c;
     }
 
     private static final class CodeBlockFonts {
@@ -89,121 +185,14 @@ public final class MarkdownInline {
         }
     }
 
-    private enum InlineTokenType {
-        TEXT,
-        CODE,
-        DELIM
-    }
-
-    private enum DelimUseKind {
-        OPEN_EM,
-        CLOSE_EM,
-        OPEN_STRONG,
-        CLOSE_STRONG
-    }
-
-    private static final class DelimUse {
-        final int start;
-        final int len;
-        final DelimUseKind kind;
-
-        DelimUse(int start, int len, DelimUseKind kind) {
-            this.start = start;
-            this.len = len;
-            this.kind = kind;
-        }
-    }
-
-    private static final class InlineToken {
-        final InlineTokenType type;
-        final String text; // TEXT/CODEのみ
-        final char marker; // DELIMのみ
-        final int originalLen; // DELIMのみ
-        final boolean canOpen; // DELIMのみ
-        final boolean canClose; // DELIMのみ
-
-        int usedOpenChars;
-        int usedCloseChars;
-
-        final List<DelimUse> uses = new ArrayList<DelimUse>();
-
-        private InlineToken(InlineTokenType type, String text, char marker, int originalLen, boolean canOpen,
-                boolean canClose) {
-            this.type = type;
-            this.text = text;
-            this.marker = marker;
-            this.originalLen = originalLen;
-            this.canOpen = canOpen;
-            this.canClose = canClose;
-        }
-
-        static InlineToken text(String text) {
-            return new InlineToken(InlineTokenType.TEXT, text, '\0', 0, false, false);
-        }
-
-        static InlineToken code(String normalizedText) {
-            return new InlineToken(InlineTokenType.CODE, normalizedText, '\0', 0, false, false);
-        }
-
-        static InlineToken delim(char marker, int len, boolean canOpen, boolean canClose) {
-            return new InlineToken(InlineTokenType.DELIM, null, marker, len, canOpen, canClose);
-        }
-
-        boolean isEmphasisDelimiter(char ch) {
-            return type == InlineTokenType.DELIM && marker == ch;
-        }
-
-        int remainingChars() {
-            return originalLen - usedOpenChars - usedCloseChars;
-        }
-
-        int availableForOpen() {
-            return remainingChars();
-        }
-
-        int availableForClose() {
-            return remainingChars();
-        }
-
-        void consumeAsOpen(int len) {
-            int start = originalLen - usedOpenChars - len;
-            uses.add(new DelimUse(start, len, (len == 2) ? DelimUseKind.OPEN_STRONG : DelimUseKind.OPEN_EM));
-            usedOpenChars += len;
-        }
-
-        void consumeAsClose(int len) {
-            int start = usedCloseChars;
-            uses.add(new DelimUse(start, len, (len == 2) ? DelimUseKind.CLOSE_STRONG : DelimUseKind.CLOSE_EM));
-            usedCloseChars += len;
-        }
-
-        void sortUses() {
-            Collections.sort(uses, new java.util.Comparator<DelimUse>() {
-                @Override
-                public int compare(DelimUse a, DelimUse b) {
-                    return Integer.compare(a.start, b.start);
-                }
-            });
-        }
-    }
-
-    private static final class DelimiterRunInfo {
-        final boolean canOpen;
-        final boolean canClose;
-
-        DelimiterRunInfo(boolean canOpen, boolean canClose) {
-            this.canOpen = canOpen;
-            this.canClose = canClose;
-        }
-    }
-
     // ** / * / _ / `code` のみ（~~ は CommonMark core 非対応なので文字列扱い）
+    // Workbook 版は呼ぶたびに FontRegistry を作る（Workbook にある同じフォントを探して使う）。 繰り返すなら ctx 版を使う
     public static void setMarkdownRichTextCell(Workbook workbook, Cell cell, String markdownText, CellStyle baseStyle) {
         if (markdownText == null) {
             markdownText = "";
         }
-        List<MdSegment> segments = parseMarkdownToSegments(markdownText);
-        setResolvedSegmentsCell(workbook, cell, segments, baseStyle);
+        List<MdSegment> segments = parseMarkdownToSegments(markdownText, RenderContext.DEFAULT_INLINE_LIMIT);
+        setResolvedSegmentsCell(new FontRegistry(workbook), cell, segments, baseStyle);
     }
 
     public static void appendMarkdownToCell(Workbook workbook, Cell cell, String markdownText, CellStyle baseStyle,
@@ -213,17 +202,18 @@ public final class MarkdownInline {
             return;
         }
 
-        List<MdSegment> segments = parseMarkdownToSegments(markdownText);
-        appendResolvedSegmentsToCell(workbook, cell, segments, baseStyle, withLeadingSpace);
+        List<MdSegment> segments = parseMarkdownToSegments(markdownText, RenderContext.DEFAULT_INLINE_LIMIT);
+        appendResolvedSegmentsToCell(new FontRegistry(workbook), cell, segments, baseStyle, withLeadingSpace);
     }
 
     // package-private: Renderer / Table / CellAppendUtil から使う
-    static void setResolvedSegmentsCell(Workbook workbook, Cell cell, List<MdSegment> segments, CellStyle baseStyle) {
+    static void setResolvedSegmentsCell(FontRegistry registry, Cell cell, List<MdSegment> segments,
+            CellStyle baseStyle) {
         if (segments == null) {
             segments = Collections.<MdSegment>emptyList();
         }
 
-        MarkdownFonts fonts = prepareMarkdownFonts(workbook, baseStyle);
+        MarkdownFonts fonts = registry.markdownFonts(baseStyle);
 
         XSSFRichTextString rich = new XSSFRichTextString("");
         appendSegmentsToRichText(rich, 0, segments, fonts);
@@ -232,14 +222,14 @@ public final class MarkdownInline {
         cell.setCellValue(rich);
     }
 
-    static void appendResolvedSegmentsToCell(Workbook workbook, Cell cell, List<MdSegment> segments,
+    static void appendResolvedSegmentsToCell(FontRegistry registry, Cell cell, List<MdSegment> segments,
             CellStyle baseStyle, boolean withLeadingSpace) {
 
         if (segments == null || segments.isEmpty()) {
             return;
         }
 
-        MarkdownFonts fonts = prepareMarkdownFonts(workbook, baseStyle);
+        MarkdownFonts fonts = registry.markdownFonts(baseStyle);
 
         XSSFRichTextString original = (XSSFRichTextString) cell.getRichStringCellValue();
         XSSFRichTextString rich = cloneRichTextString(original);
@@ -260,11 +250,127 @@ public final class MarkdownInline {
         cell.setCellValue(rich);
     }
 
-    private static List<MdSegment> parseMarkdownToSegments(String markdownText) {
-        return parseMarkdown(markdownText, false).segments;
+    /**
+     * 追記中のセル（1 つだけ）。 追記のたびにセルのリッチテキストを複製し直すと、段落が長いほど遅くなる（行数の 2 乗）
+     * ので、追記分はここに溜めて、セルを閉じるとき（close）に 1 回だけリッチテキストにする。
+     *
+     * 溜めている間はセルの値・スタイルが古いままなので、そのセルを読む/装飾する前に必ず close する。
+     */
+    static final class OpenCell {
+        private Cell cell;
+        private XSSFRichTextString initial; // 追記を始めたときのセルの値（close で 1 回だけ複製する）
+        private final List<Chunk> chunks = new ArrayList<Chunk>();
+        private int length; // close 後の文字数（先頭スペースを付けるかの判定用）
+        private CellStyle style;
+        private int rowNum = -1;
+        private boolean appendedThisLine;
+
+        // フォントごとの rPr（close のたびに作らない）
+        private final Map<Font, CTRPrElt> runProps = new HashMap<Font, CTRPrElt>();
+
+        private static final class Chunk {
+            final List<MdSegment> segments;
+            final MarkdownFonts fonts;
+            final boolean leadingSpace;
+
+            Chunk(List<MdSegment> segments, MarkdownFonts fonts, boolean leadingSpace) {
+                this.segments = segments;
+                this.fonts = fonts;
+                this.leadingSpace = leadingSpace;
+            }
+        }
+
+        boolean isOpen() {
+            return cell != null;
+        }
+
+        int rowNum() {
+            return rowNum;
+        }
+
+        // appendResolvedSegmentsToCell と同じ結果になるよう溜める。 別のセルへの追記なら先に今のセルを閉じる
+        void append(FontRegistry registry, Cell target, List<MdSegment> segments, CellStyle baseStyle,
+                boolean withLeadingSpace) {
+
+            if (segments == null || segments.isEmpty()) {
+                return;
+            }
+
+            if (target != cell) {
+                close();
+                cell = target;
+                initial = (XSSFRichTextString) target.getRichStringCellValue();
+                length = (initial == null) ? 0 : initial.length();
+                rowNum = target.getRowIndex();
+            }
+
+            MarkdownFonts fonts = registry.markdownFonts(baseStyle);
+            boolean space = withLeadingSpace && length > 0;
+            if (space) {
+                length++;
+            }
+            for (MdSegment seg : segments) {
+                if (seg.text != null) {
+                    length += seg.text.length();
+                }
+            }
+            chunks.add(new Chunk(segments, fonts, space));
+            style = baseStyle;
+            appendedThisLine = true;
+        }
+
+        // 1 行の処理の終わり。 この行で追記しなかったら閉じる（次の行からは触らない）
+        void endLine() {
+            if (!appendedThisLine) {
+                close();
+            }
+            appendedThisLine = false;
+        }
+
+        void close() {
+            if (cell == null) {
+                return;
+            }
+
+            CTRst st = CTRst.Factory.newInstance();
+            CTRst src = (initial == null) ? null : initial.getCTRst();
+            if (src != null && src.sizeOfRArray() > 0) {
+                for (CTRElt r : src.getRArray()) {
+                    st.addNewR().set(r);
+                }
+            } else if (src != null && src.isSetT() && !src.getT().isEmpty()) {
+                CTRElt r = st.addNewR();
+                r.setT(src.getT());
+                preserveSpaces(r.xgetT());
+            }
+
+            for (Chunk c : chunks) {
+                if (c.leadingSpace) {
+                    addRun(st, " ", c.fonts.baseFont, runProps);
+                }
+                addSegmentRuns(st, c.segments, c.fonts, runProps);
+            }
+            if (st.sizeOfRArray() == 0) {
+                st.setT("");
+            }
+
+            cell.setCellStyle(style);
+            cell.setCellValue(new XSSFRichTextString(st));
+
+            cell = null;
+            initial = null;
+            chunks.clear();
+            length = 0;
+            style = null;
+            rowNum = -1;
+        }
     }
 
-    private static final class ParseResult {
+    private static List<MdSegment> parseMarkdownToSegments(String markdownText, int inlineLimit) {
+        return parseMarkdown(markdownText, false, inlineLimit).segments;
+    }
+
+    static final class ParseResult {
         final List<MdSegment> segments;
         final String carryPrefix;
 
@@ -274,70 +380,95 @@ public final class MarkdownInline {
         }
     }
 
-    private static final class EmphasisState {
-        int boldDepth;
-        int italicDepth;
-
-        EmphasisState(int boldDepth, int italicDepth) {
-            this.boldDepth = boldDepth;
-            this.italicDepth = italicDepth;
+    // スレッドごとのトークン列（解析のたびに配列を作り直さない）
+    private static final ThreadLocal<InlineTokens> TOKENS = new ThreadLocal<InlineTokens>() {
+        @Override
+        protected InlineTokens initialValue() {
+            return new InlineTokens();
         }
-    }
+    };
 
-    private static ParseResult parseMarkdown(String markdownText, boolean allowDanglingOpenCarry) {
-        List<InlineToken> tokens = tokenizeAndResolveInline(markdownText);
-        return buildSegments(tokens, allowDanglingOpenCarry);
-    }
-
-    private static List<InlineToken> tokenizeAndResolveInline(String markdownText) {
-        List<InlineToken> tokens = tokenizeInline(markdownText);
-        resolveEmphasis(tokens, '*');
-        resolveEmphasis(tokens, '_');
-        return tokens;
+    private static ParseResult parseMarkdown(String markdownText, boolean allowDanglingOpenCarry, int inlineLimit) {
+        InlineTokens tokens = TOKENS.get();
+        try {
+            tokenizeInline(markdownText, tokens, inlineLimit);
+            resolveEmphasis(tokens, '*');
+            resolveEmphasis(tokens, '_');
+            return buildSegments(tokens, allowDanglingOpenCarry);
+        } finally {
+            tokens.release();
+        }
     }
 
-    private static List<InlineToken> tokenizeInline(String markdownText) {
-        List<InlineToken> tokens = new ArrayList<InlineToken>();
+    /**
+     * markdownText をトークンに分ける。 記号の run（バッククォートの run と、強調記号として扱う * / _ の run）が
+     * inlineLimit を超える行は、全体を 1 つの TEXT にする（装飾せず文字のまま出す。 0 なら上限なし）。
+     */
+    static void tokenizeInline(String markdownText, InlineTokens tokens, int inlineLimit) {
+        tokens.reset(markdownText);
         if (markdownText == null || markdownText.isEmpty()) {
-            return tokens;
+            return;
         }
 
-        StringBuilder textBuf = new StringBuilder();
+        // TEXT は元の文字列の連続した範囲（コード・強調記号のトークンの間）
+        int textStart = 0;
+
+        // バッククォートの run は先に一度だけ集めて、閉じる run を引けるようにしておく（次の run の番号）
+        tokens.indexBackticks(markdownText);
+        int tick = 0;
+
+        // 残りの記号の run の数
+        int budget = (inlineLimit > 0) ? inlineLimit - tokens.tickCount : Integer.MAX_VALUE;
+        if (budget < 0) {
+            tokens.reset(markdownText);
+            tokens.add(InlineTokens.TEXT, 0, markdownText.length());
+            return;
+        }
 
         for (int i = 0; i < markdownText.length();) {
             char ch = markdownText.charAt(i);
 
             // `code`（複数バッククォート含む）
             if (ch == '`') {
-                int tickLen = countBackticks(markdownText, i);
-                int close = findClosingBackticks(markdownText, i + tickLen, tickLen);
-                if (close >= 0) {
-                    flushTextToken(tokens, textBuf);
-
-                    String code = markdownText.substring(i + tickLen, close);
-                    code = normalizeCodeSpanContent(code);
-
-                    tokens.add(InlineToken.code(code));
+                // i は tick 番目の run の先頭（コードの中の run は飛ばしている）
+                int tickLen = tokens.tickLen[tick];
+                int closeTick = tokens.tickClose[tick];
+                if (closeTick >= 0) {
+                    tokens.add(InlineTokens.TEXT, textStart, i);
+
+                    int codeStart = i + tickLen;
+                    int codeEnd = tokens.tickStart[closeTick];
+                    if (stripsCodeSpanSpace(markdownText, codeStart, codeEnd)) {
+                        codeStart++;
+                        codeEnd--;
+                    }
+                    tokens.add(InlineTokens.CODE, codeStart, codeEnd);
 
-                    i = close + tickLen;
+                    i = tokens.tickStart[closeTick] + tickLen;
+                    tick = closeTick + 1;
+                    textStart = i;
                     continue;
                 }
 
-                textBuf.append(markdownText, i, i + tickLen);
                 i += tickLen;
+                tick++;
                 continue;
             }
 
             // * / _ delimiter run
             if (ch == '*' || ch == '_') {
                 int runLen = countRun(markdownText, i, ch);
-                DelimiterRunInfo info = analyzeDelimiterRun(markdownText, i, runLen, ch);
+                int flags = analyzeDelimiterRun(markdownText, i, runLen, ch);
 
-                if (info.canOpen || info.canClose) {
-                    flushTextToken(tokens, textBuf);
-                    tokens.add(InlineToken.delim(ch, runLen, info.canOpen, info.canClose));
-                } else {
-                    appendRepeated(textBuf, ch, runLen);
+                if (flags != 0) {
+                    if (--budget < 0) {
+                        tokens.reset(markdownText);
+                        tokens.add(InlineTokens.TEXT, 0, markdownText.length());
+                        return;
+                    }
+                    tokens.add(InlineTokens.TEXT, textStart, i);
+                    tokens.addDelim(ch, i, i + runLen, flags);
+                    textStart = i + runLen;
                 }
 
                 i += runLen;
@@ -345,20 +476,10 @@ public final class MarkdownInline {
             }
 
             // ~~ は CommonMark core では非対応なので、そのまま文字列として流す
-            textBuf.append(ch);
             i++;
         }
 
-        flushTextToken(tokens, textBuf);
-        return tokens;
-    }
-
-    private static void flushTextToken(List<InlineToken> tokens, StringBuilder textBuf) {
-        if (textBuf.length() == 0) {
-            return;
-        }
-        tokens.add(InlineToken.text(textBuf.toString()));
-        textBuf.setLength(0);
+        tokens.add(InlineTokens.TEXT, textStart, markdownText.length());
     }
 
     private static int countRun(String text, int pos, char ch) {
@@ -369,7 +490,8 @@ public final class MarkdownInline {
         return len;
     }
 
-    private static DelimiterRunInfo analyzeDelimiterRun(String text, int pos, int runLen, char markerChar) {
+    // InlineTokens.CAN_OPEN / CAN_CLOSE（どちらでもなければ 0 で、文字列として扱う）
+    private static int analyzeDelimiterRun(String text, int pos, int runLen, char markerChar) {
         char before = (pos > 0) ? text.charAt(pos - 1) : '\0';
         char after = (pos + runLen < text.length()) ? text.charAt(pos + runLen) : '\0';
 
@@ -395,7 +517,7 @@ public final class MarkdownInline {
             canClose = rightFlanking && (!leftFlanking || afterPunctuation);
         }
 
-        return new DelimiterRunInfo(canOpen, canClose);
+        return (canOpen ? InlineTokens.CAN_OPEN : 0) | (canClose ? InlineTokens.CAN_CLOSE : 0);
     }
 
     private static boolean isUnicodeWhitespace(char ch) {
@@ -422,176 +544,185 @@ public final class MarkdownInline {
                 || (ch >= '{' && ch <= '~');
     }
 
-    private static void resolveEmphasis(List<InlineToken> tokens, char marker) {
-        List<Integer> openerStack = new ArrayList<Integer>();
+    /**
+     * marker の delimiter run を opener / closer として組み合わせる。 closer ごとに、rule of 3 に反しない opener のうち
+     * 最後に積んだものと組む。
+     *
+     * opener は rule of 3 に関わる性質（InlineTokens.openerClass）ごとのスタックに分けて積み、各スタックの先頭だけを見る
+     * （CommonMark の openers_bottom と同じく、組めない opener を closer ごとに見直さない）。 組み合わせは 1 つのスタックを
+     * 上から探すのと同じで、1 回ごとに closer を 1 文字以上使うので、行の長さに比例する時間で終わる。
+     */
+    static void resolveEmphasis(InlineTokens tokens, char marker) {
+        tokens.clearOpeners();
 
-        for (int i = 0; i < tokens.size(); i++) {
-            InlineToken closer = tokens.get(i);
-            if (!closer.isEmphasisDelimiter(marker)) {
+        for (int i = 0; i < tokens.count; i++) {
+            if (!tokens.isEmphasisDelimiter(i, marker)) {
                 continue;
             }
 
-            if (closer.canClose) {
-                while (closer.availableForClose() > 0) {
-                    int openerStackPos = findMatchingEmphasisOpener(tokens, openerStack, closer, marker);
-                    if (openerStackPos < 0) {
+            if (tokens.canClose(i)) {
+                while (tokens.remainingChars(i) > 0) {
+                    int openerClass = findMatchingEmphasisOpener(tokens, i);
+                    if (openerClass < 0) {
                         break;
                     }
 
-                    InlineToken opener = tokens.get(openerStack.get(openerStackPos));
-                    int useLen = (opener.availableForOpen() >= 2 && closer.availableForClose() >= 2) ? 2 : 1;
+                    int opener = tokens.topOpener(openerClass);
+                    int useLen = (tokens.remainingChars(opener) >= 2 && tokens.remainingChars(i) >= 2) ? 2 : 1;
 
-                    opener.consumeAsOpen(useLen);
-                    closer.consumeAsClose(useLen);
+                    tokens.consumeAsOpen(opener, useLen);
+                    tokens.consumeAsClose(i, useLen);
 
-                    if (opener.availableForOpen() == 0) {
-                        openerStack.remove(openerStackPos);
+                    if (tokens.remainingChars(opener) == 0) {
+                        tokens.popOpener(openerClass);
                     }
                 }
             }
 
-            if (closer.canOpen && closer.availableForOpen() > 0) {
-                openerStack.add(i);
+            if (tokens.canOpen(i) && tokens.remainingChars(i) > 0) {
+                tokens.pushOpener(i);
             }
         }
     }
 
-    private static int findMatchingEmphasisOpener(List<InlineToken> tokens, List<Integer> openerStack,
-            InlineToken closer, char marker) {
-
-        for (int i = openerStack.size() - 1; i >= 0; i--) {
-            InlineToken opener = tokens.get(openerStack.get(i));
-
-            if (!opener.isEmphasisDelimiter(marker) || opener.availableForOpen() <= 0) {
-                openerStack.remove(i);
-                continue;
-            }
-
-            if (violatesRuleOfThree(opener, closer)) {
-                continue;
+    // closer と組める opener のうち最後に積んだものの openerClass（なければ -1）
+    private static int findMatchingEmphasisOpener(InlineTokens tokens, int closer) {
+        int closerClass = tokens.openerClass(closer);
+        int found = -1;
+        int foundToken = -1;
+        for (int c = 0; c < InlineTokens.OPENER_CLASSES; c++) {
+            int opener = tokens.topOpener(c);
+            if (opener > foundToken && !violatesRuleOfThree(c, closerClass)) {
+                found = c;
+                foundToken = opener;
             }
-
-            return i;
         }
-
-        return -1;
+        return found;
     }
 
     /**
      * CommonMark の rule of 3: 片方でも「開けて閉じられる」delimiter run のとき、 opener/closer の元の
-     * run 長の合計が 3 の倍数で、 かつ両方とも 3 の倍数ではない場合はマッチ禁止。
+     * run 長の合計が 3 の倍数で、 かつ両方とも 3 の倍数ではない場合はマッチ禁止。 引数は InlineTokens.openerClass。
      */
-    private static boolean violatesRuleOfThree(InlineToken opener, InlineToken closer) {
-        boolean oneCanBoth = (opener.canOpen && opener.canClose) || (closer.canOpen && closer.canClose);
+    private static boolean violatesRuleOfThree(int openerClass, int closerClass) {
+        boolean oneCanBoth = openerClass >= 3 || closerClass >= 3;
         if (!oneCanBoth) {
             return false;
         }
 
-        int sum = opener.originalLen + closer.originalLen;
-        if ((sum % 3) != 0) {
+        int openerMod = openerClass % 3;
+        int closerMod = closerClass % 3;
+        if ((openerMod + closerMod) % 3 != 0) {
             return false;
         }
 
-        boolean bothMultipleOf3 = (opener.originalLen % 3 == 0) && (closer.originalLen % 3 == 0);
+        boolean bothMultipleOf3 = openerMod == 0 && closerMod == 0;
         return !bothMultipleOf3;
     }
 
-    private static ParseResult buildSegments(List<InlineToken> tokens, boolean allowDanglingOpenCarry) {
+    /** 解決済みのトークン列から segment を作る（トークン列は書き換えないので、同じ列に何度でも呼べる）。 */
+    static ParseResult buildSegments(InlineTokens tokens, boolean allowDanglingOpenCarry) {
         List<MdSegment> out = new ArrayList<MdSegment>();
-        StringBuilder carry = new StringBuilder();
-
-        EmphasisState state = new EmphasisState(0, 0);
-
-        for (InlineToken token : tokens) {
-            if (token.type == InlineTokenType.TEXT) {
-                addMergedSegment(out, token.text, state.boldDepth > 0, state.italicDepth > 0, false);
-                continue;
-            }
-
-            if (token.type == InlineTokenType.CODE) {
-                addMergedSegment(out, token.text, state.boldDepth > 0, state.italicDepth > 0, true);
+        tokens.boldDepth = 0;
+        tokens.italicDepth = 0;
+        tokens.segment.setLength(0);
+        tokens.carry.setLength(0);
+
+        for (int t = 0; t < tokens.count; t++) {
+            int type = tokens.type[t];
+            if (type != InlineTokens.DELIM) {
+                segmentBuffer(out, tokens, type == InlineTokens.CODE).append(tokens.text, tokens.start[t],
+                        tokens.end[t]);
                 continue;
             }
 
-            token.sortUses();
-
-            int pos = 0;
-            for (DelimUse use : token.uses) {
-                if (use.start > pos) {
-                    consumeUnmatchedDelimiterRun(out, token, use.start - pos, state, carry, allowDanglingOpenCarry);
-                }
-
-                switch (use.kind) {
-                case CLOSE_EM:
-                    if (state.italicDepth > 0) {
-                        state.italicDepth--;
-                    }
-                    break;
-                case CLOSE_STRONG:
-                    if (state.boldDepth > 0) {
-                        state.boldDepth--;
+            // run の先頭から: closer として使った分、どれにも使わなかった分、opener として使った分
+            for (int u = tokens.closeHead[t]; u >= 0; u = tokens.useNext[u]) {
+                if (tokens.useLen[u] == 2) {
+                    if (tokens.boldDepth > 0) {
+                        tokens.boldDepth--;
                     }
-                    break;
-                case OPEN_EM:
-                    state.italicDepth++;
-                    break;
-                case OPEN_STRONG:
-                    state.boldDepth++;
-                    break;
-                default:
-                    break;
+                } else if (tokens.italicDepth > 0) {
+                    tokens.italicDepth--;
                 }
-
-                pos = use.start + use.len;
             }
 
-            if (pos < token.originalLen) {
-                consumeUnmatchedDelimiterRun(out, token, token.originalLen - pos, state, carry, allowDanglingOpenCarry);
+            consumeUnmatchedDelimiterRun(out, tokens, t, allowDanglingOpenCarry);
+
+            for (int u = tokens.openHead[t]; u >= 0; u = tokens.useNext[u]) {
+                if (tokens.useLen[u] == 2) {
+                    tokens.boldDepth++;
+                } else {
+                    tokens.italicDepth++;
+                }
             }
         }
 
-        return new ParseResult(out, carry.toString());
+        flushSegment(out, tokens);
+        String carry = (tokens.carry.length() == 0) ? "" : tokens.carry.toString();
+        return new ParseResult(out, carry);
     }
 
-    private static void consumeUnmatchedDelimiterRun(List<MdSegment> out, InlineToken token, int len,
-            EmphasisState state, StringBuilder carry, boolean allowDanglingOpenCarry) {
+    private static void consumeUnmatchedDelimiterRun(List<MdSegment> out, InlineTokens tokens, int t,
+            boolean allowDanglingOpenCarry) {
 
-        if (len <= 0) {
+        int remaining = tokens.remainingChars(t);
+        if (remaining <= 0) {
             return;
         }
 
-        int remaining = len;
+        char marker = tokens.marker[t];
 
         // まず既存の open 状態を閉じられる分だけ閉じる
-        if (token.canClose) {
-            while (remaining >= 2 && state.boldDepth > 0) {
-                state.boldDepth--;
+        if (tokens.canClose(t)) {
+            while (remaining >= 2 && tokens.boldDepth > 0) {
+                tokens.boldDepth--;
                 remaining -= 2;
             }
-            while (remaining >= 1 && state.italicDepth > 0) {
-                state.italicDepth--;
+            while (remaining >= 1 && tokens.italicDepth > 0) {
+                tokens.italicDepth--;
                 remaining--;
             }
         }
 
         // opener としての carry は「行末 <br> で継続させたい時だけ」許可する
-        if (token.canOpen && allowDanglingOpenCarry) {
+        if (tokens.canOpen(t) && allowDanglingOpenCarry) {
             while (remaining >= 2) {
-                state.boldDepth++;
-                carry.append(token.marker).append(token.marker);
+                tokens.boldDepth++;
+                tokens.carry.append(marker).append(marker);
                 remaining -= 2;
             }
             while (remaining >= 1) {
-                state.italicDepth++;
-                carry.append(token.marker);
+                tokens.italicDepth++;
+                tokens.carry.append(marker);
                 remaining--;
             }
         }
 
         // 通常時の未解決 delimiter は文字として残す
         if (remaining > 0) {
-            addMergedSegment(out, repeatChar(token.marker, remaining), state.boldDepth > 0, state.italicDepth > 0,
-                    false);
+            appendRepeated(segmentBuffer(out, tokens, false), marker, remaining);
+        }
+    }
+
+    // 今の書式の segment の文字を足すバッファ（書式が変わったら、それまでの分を segment にする）
+    private static StringBuilder segmentBuffer(List<MdSegment> out, InlineTokens tokens, boolean inCode) {
+        boolean inBold = tokens.boldDepth > 0;
+        boolean inItalic = tokens.italicDepth > 0;
+        if (tokens.segmentBold != inBold || tokens.segmentItalic != inItalic || tokens.segmentCode != inCode) {
+            flushSegment(out, tokens);
+            tokens.segmentBold = inBold;
+            tokens.segmentItalic = inItalic;
+            tokens.segmentCode = inCode;
+        }
+        return tokens.segment;
+    }
+
+    private static void flushSegment(List<MdSegment> out, InlineTokens tokens) {
+        if (tokens.segment.length() > 0) {
+            out.add(new MdSegment(tokens.segment.toString(), tokens.segmentBold, tokens.segmentItalic,
+                    tokens.segmentCode));
+            tokens.segment.setLength(0);
         }
     }
 
@@ -618,75 +749,6 @@ public final class MarkdownInline {
         }
     }
 
-    private static String repeatChar(char ch, int count) {
-        if (count <= 0) {
-            return "";
-        }
-        StringBuilder sb = new StringBuilder(count);
-        appendRepeated(sb, ch, count);
-        return sb.toString();
-    }
-
-    private static MarkdownFonts prepareMarkdownFonts(Workbook wb, CellStyle baseStyle) {
-        short key = (short) baseStyle.getFontIndex();
-
-        FontCache c = cache(wb);
-        MarkdownFonts cached = c.inlineFontsByBaseFontIndex.get(key);
-        if (cached != null) {
-            return cached;
-        }
-
-        Font base = wb.getFontAt(baseStyle.getFontIndex());
-        boolean baseBold = base.getBold();
-
-        Font bold = wb.createFont();
-        bold.setFontName(base.getFontName());
-        bold.setFontHeightInPoints(base.getFontHeightInPoints());
-        bold.setBold(true);
-
-        Font italic = wb.createFont();
-        italic.setFontName(base.getFontName());
-        italic.setFontHeightInPoints(base.getFontHeightInPoints());
-        italic.setItalic(true);
-
-        Font boldItalic = wb.createFont();
-        boldItalic.setFontName(base.getFontName());
-        boldItalic.setFontHeightInPoints(base.getFontHeightInPoints());
-        boldItalic.setBold(true);
-        boldItalic.setItalic(true);
-
-        XSSFColor inlineRed = new XSSFColor(new Color(180, 0, 0), null);
-
-        XSSFFont codeAscii = (XSSFFont) wb.createFont();
-        codeAscii.setFontName("Consolas");
-        codeAscii.setFontHeightInPoints(base.getFontHeightInPoints());
-        codeAscii.setColor(inlineRed);
-
-        XSSFFont codeCjk = (XSSFFont) wb.createFont();
-        codeCjk.setFontName("Meiryo");
-        codeCjk.setFontHeightInPoints(base.getFontHeightInPoints());
-        codeCjk.setColor(inlineRed);
-
-        XSSFFont codeAsciiBold = (XSSFFont) wb.createFont();
-        codeAsciiBold.setFontName("Consolas");
-        codeAsciiBold.setFontHeightInPoints(base.getFontHeightInPoints());
-        codeAsciiBold.setBold(true);
-        codeAsciiBold.setColor(inlineRed);
-
-        XSSFFont codeCjkBold = (XSSFFont) wb.createFont();
-        codeCjkBold.setFontName("Meiryo");
-        codeCjkBold.setFontHeightInPoints(base.getFontHeightInPoints());
-        codeCjkBold.setBold(true);
-        codeCjkBold.setColor(inlineRed);
-
-        MarkdownFonts mf = new MarkdownFonts(base, bold, italic, boldItalic, codeAscii, codeCjk, codeAsciiBold,
-                codeCjkBold);
-        mf.baseBold = baseBold;
-
-        c.inlineFontsByBaseFontIndex.put(key, mf);
-        return mf;
-    }
-
     private static int appendSegmentsToRichText(XSSFRichTextString rich, int startPos, List<MdSegment> segments,
             MarkdownFonts fonts) {
 
@@ -721,20 +783,10 @@ public final class MarkdownInline {
                     int start = segStart + runStart;
                     int end = start + runLen;
 
-                    if (ascii) {
-                        rich.applyFont(start, end, wantBoldCode ? fonts.codeAsciiBold : fonts.codeAscii);
-                    } else {
-                        rich.applyFont(start, end, wantBoldCode ? fonts.codeCjkBold : fonts.codeCjk);
-                    }
+                    rich.applyFont(start, end, codeFont(ascii, wantBoldCode, fonts));
                 }
-            } else if (seg.inBold && seg.inItalic) {
-                rich.applyFont(segStart, segEnd, fonts.boldItalicFont);
-            } else if (seg.inBold) {
-                rich.applyFont(segStart, segEnd, fonts.boldFont);
-            } else if (seg.inItalic) {
-                rich.applyFont(segStart, segEnd, fonts.italicFont);
             } else {
-                rich.applyFont(segStart, segEnd, fonts.baseFont);
+                rich.applyFont(segStart, segEnd, segmentFont(seg, fonts));
             }
 
             pos = segEnd;
@@ -743,6 +795,90 @@ public final class MarkdownInline {
         return pos;
     }
 
+    private static Font codeFont(boolean ascii, boolean bold, MarkdownFonts fonts) {
+        if (ascii) {
+            return bold ? fonts.codeAsciiBold : fonts.codeAscii;
+        }
+        return bold ? fonts.codeCjkBold : fonts.codeCjk;
+    }
+
+    // インラインコード以外のセグメントのフォント
+    private static Font segmentFont(MdSegment seg, MarkdownFonts fonts) {
+        if (seg.inBold && seg.inItalic) {
+            return fonts.boldItalicFont;
+        } else if (seg.inBold) {
+            return fonts.boldFont;
+        } else if (seg.inItalic) {
+            return fonts.italicFont;
+        }
+        return fonts.baseFont;
+    }
+
+    /**
+     * appendSegmentsToRichText と同じランを CTRst に直接足す。 applyFont は呼ぶたびに全ランを作り直すので、ランの多い
+     * セル（長い段落の追記）はこちらで 1 回で組み立てる。
+     */
+    private static void addSegmentRuns(CTRst st, List<MdSegment> segments, MarkdownFonts fonts,
+            Map<Font, CTRPrElt> runProps) {
+
+        for (MdSegment seg : segments) {
+            String text = seg.text;
+            if (text == null || text.isEmpty()) {
+                continue;
+            }
+
+            if (seg.inCode) {
+                boolean wantBoldCode = seg.inBold || fonts.baseBold;
+
+                int i = 0;
+                while (i < text.length()) {
+                    int runStart = i;
+                    boolean ascii = MdTextUtil.isAsciiLike(text.charAt(i));
+                    i++;
+                    while (i < text.length() && MdTextUtil.isAsciiLike(text.charAt(i)) == ascii) {
+                        i++;
+                    }
+                    addRun(st, text.substring(runStart, i), codeFont(ascii, wantBoldCode, fonts), runProps);
+                }
+            } else {
+                addRun(st, text, segmentFont(seg, fonts), runProps);
+            }
+        }
+    }
+
+    private static void addRun(CTRst st, String text, Font font, Map<Font, CTRPrElt> runProps) {
+        CTRElt r = st.addNewR();
+        r.setT(text);
+        preserveSpaces(r.xgetT());
+
+        CTRPrElt pr = runProps.get(font);
+        if (pr == null) {
+            // applyFont と同じ書式（rPr）を 1 回だけ作って使い回す
+            XSSFRichTextString probe = new XSSFRichTextString("x");
+            probe.applyFont(0, 1, font);
+            pr = probe.getCTRst().getRArray(0).getRPr();
+            runProps.put(font, pr);
+        }
+        r.setRPr(pr);
+    }
+
+    // 前後に空白があれば xml:space="preserve"（XSSFRichTextString と同じ）
+    private static void preserveSpaces(STXstring xs) {
+        String text = xs.getStringValue();
+        if (text == null || text.isEmpty()) {
+            return;
+        }
+        if (Character.isWhitespace(text.charAt(0)) || Character.isWhitespace(text.charAt(text.length() - 1))) {
+            XmlCursor c = xs.newCursor();
+            try {
+                c.toNextToken();
+                c.insertAttributeWithValue(XML_SPACE, "preserve");
+            } finally {
+                c.dispose();
+            }
+        }
+    }
+
     private static XSSFRichTextString cloneRichTextString(XSSFRichTextString src) {
         if (src == null) {
             return new XSSFRichTextString("");
@@ -767,26 +903,11 @@ public final class MarkdownInline {
 
     public static void setCodeBlockRichTextCell(Workbook workbook, Cell cell, String codeText,
             CellStyle codeBlockStyle) {
+        setCodeBlockRichTextCell(new FontRegistry(workbook), cell, codeText, codeBlockStyle);
+    }
 
-        FontCache c = cache(workbook);
-
-        short key = (short) codeBlockStyle.getFontIndex();
-        CodeBlockFonts fonts = c.codeBlockFontsByStyleFontIndex.get(key);
-        if (fonts == null) {
-            Font baseFont = workbook.getFontAt(codeBlockStyle.getFontIndex());
-            short baseFontHeight = baseFont.getFontHeightInPoints();
-
-            Font codeAsciiFont = workbook.createFont();
-            codeAsciiFont.setFontName("Consolas");
-            codeAsciiFont.setFontHeightInPoints(baseFontHeight);
-
-            Font codeCjkFont = workbook.createFont();
-            codeCjkFont.setFontName("Meiryo");
-            codeCjkFont.setFontHeightInPoints(baseFontHeight);
-
-            fonts = new CodeBlockFonts(codeAsciiFont, codeCjkFont);
-            c.codeBlockFontsByStyleFontIndex.put(key, fonts);
-        }
+    static void setCodeBlockRichTextCell(FontRegistry registry, Cell cell, String codeText, CellStyle codeBlockStyle) {
+        CodeBlockFonts fonts = registry.codeBlockFonts(codeBlockStyle);
 
         XSSFRichTextString rich = new XSSFRichTextString(codeText);
 
@@ -810,7 +931,10 @@ public final class MarkdownInline {
     }
 
     public static void setMarkdownRichTextCell(RenderContext ctx, Cell cell, String markdownText, CellStyle baseStyle) {
-        setMarkdownRichTextCell(ctx.wb, cell, markdownText, baseStyle);
+        if (markdownText == null) {
+            markdownText = "";
+        }
+        setResolvedSegmentsCell(ctx.fonts, cell, parseMarkdownToSegments(markdownText, ctx.inlineLimit), baseStyle);
     }
 
     static final class BrSplitResult {
@@ -832,15 +956,55 @@ public final class MarkdownInline {
     }
 
     static BrSplitResult splitByBrPreserveFormatting(String markdownText) {
+        return splitByBrPreserveFormatting(markdownText, RenderContext.DEFAULT_INLINE_LIMIT);
+    }
+
+    // inlineLimit: 記号の run の数の上限（超えたら文字のまま。tokenizeInline）
+    static BrSplitResult splitByBrPreserveFormatting(String markdownText, int inlineLimit) {
         if (markdownText == null) {
             markdownText = "";
         }
 
         boolean endsWithBr = endsWithBrOutsideInlineCode(markdownText);
-        ParseResult parsed = parseMarkdown(markdownText, endsWithBr);
+        ParseResult parsed = parseMarkdown(markdownText, endsWithBr, inlineLimit);
         return splitResolvedSegmentsByBr(parsed.segments, parsed.carryPrefix);
     }
 
+    /** render 中の解析（ctx のキャッシュと記号の run の数の上限を使う）。 */
+    static BrSplitResult splitByBrPreserveFormatting(String markdownText, RenderContext ctx) {
+        return splitByBrPreserveFormatting(markdownText, ctx.inlineCache, ctx.inlineLimit);
+    }
+
+    /**
+     * cache があれば解析結果を使い回す（cache が null なら splitByBrPreserveFormatting(String, int) と同じ）。
+     * 返す BrSplitResult は共有されるので、呼び出し側で lines を書き換えないこと。 cache は同じ inlineLimit で使う。
+     */
+    static BrSplitResult splitByBrPreserveFormatting(String markdownText, InlineSegmentCache cache, int inlineLimit) {
+        if (cache == null || markdownText == null || !cache.accepts(markdownText)) {
+            return splitByBrPreserveFormatting(markdownText, inlineLimit);
+        }
+
+        BrSplitResult r = cache.get(markdownText);
+        if (r == null) {
+            r = resolveShared(markdownText, inlineLimit);
+            cache.put(markdownText, r);
+        }
+        return r;
+    }
+
+    // キャッシュ・スレッド間で共有する解析結果（lines を書き換えられないようにする）
+    static BrSplitResult resolveShared(String markdownText, int inlineLimit) {
+        return unmodifiable(splitByBrPreserveFormatting(markdownText, inlineLimit));
+    }
+
+    private static BrSplitResult unmodifiable(BrSplitResult r) {
+        List<List<MdSegment>> lines = new ArrayList<List<MdSegment>>(r.lines.size());
+        for (List<MdSegment> line : r.lines) {
+            lines.add(Collections.unmodifiableList(line));
+        }
+        return new BrSplitResult(Collections.unmodifiableList(lines), r.endsWithBr, r.carryPrefix);
+    }
+
     private static boolean endsWithBrOutsideInlineCode(String s) {
         if (s == null || s.isEmpty()) {
             return false;
@@ -945,21 +1109,42 @@ public final class MarkdownInline {
             return out;
         }
 
+        // 書式が同じ間は 1 つのバッファにつなぐ（segment ごとに文字列を足し直すと、<br> の多いセルで行数の 2 乗になる）
+        StringBuilder text = new StringBuilder();
+        MdSegment format = null; // text の書式
         for (int i = 0; i < sp.lines.size(); i++) {
             if (i > 0) {
-                addMergedSegment(out, " ", false, false, false);
+                format = appendJoined(out, text, format, PLAIN_SPACE);
             }
 
             List<MdSegment> line = sp.lines.get(i);
             for (int j = 0; j < line.size(); j++) {
-                MdSegment seg = line.get(j);
-                addMergedSegment(out, seg.text, seg.inBold, seg.inItalic, seg.inCode);
+                format = appendJoined(out, text, format, line.get(j));
             }
         }
+        if (text.length() > 0) {
+            out.add(new MdSegment(text.toString(), format.inBold, format.inItalic, format.inCode));
+        }
 
         return out;
     }
 
+    private static final MdSegment PLAIN_SPACE = new MdSegment(" ", false, false, false);
+
+    // seg の文字を text に足す（書式が変わったら、それまでの text を out に出す）。 @return text の書式
+    private static MdSegment appendJoined(List<MdSegment> out, StringBuilder text, MdSegment format, MdSegment seg) {
+        if (seg.text == null || seg.text.isEmpty()) {
+            return format;
+        }
+        if (text.length() > 0 && (format.inBold != seg.inBold || format.inItalic != seg.inItalic
+                || format.inCode != seg.inCode)) {
+            out.add(new MdSegment(text.toString(), format.inBold, format.inItalic, format.inCode));
+            text.setLength(0);
+        }
+        text.append(seg.text);
+        return seg;
+    }
+
     private static String segmentsToPlainText(List<MdSegment> segments) {
         if (segments == null || segments.isEmpty()) {
             return "";
@@ -977,6 +1162,11 @@ public final class MarkdownInline {
         return sp.endsWithBr || sp.lines.size() >= 2;
     }
 
+    static boolean hasBrOutsideInlineCode(String markdownText, RenderContext ctx) {
+        BrSplitResult sp = splitByBrPreserveFormatting(markdownText, ctx);
+        return sp.endsWithBr || sp.lines.size() >= 2;
+    }
+
     // 互換用。書式は落ちるので、新規コードでは joinLinesWithSingleSpace + setResolvedSegmentsCell
     // を使うこと。
     public static String brToSingleSpace(String markdownText) {
@@ -984,47 +1174,17 @@ public final class MarkdownInline {
         return segmentsToPlainText(joinLinesWithSingleSpace(sp));
     }
 
-    private static int countBackticks(String text, int pos) {
-        int count = 0;
-        while (pos + count < text.length() && text.charAt(pos + count) == '`') {
-            count++;
-        }
-        return count;
-    }
-
-    private static int findClosingBackticks(String text, int start, int tickLen) {
-        for (int i = start; i < text.length();) {
-            if (text.charAt(i) != '`') {
-                i++;
-                continue;
-            }
-            int runLen = countBackticks(text, i);
-            if (runLen == tickLen) {
-                return i;
-            }
-            i += runLen;
-        }
-        return -1;
-    }
-
-    private static String normalizeCodeSpanContent(String code) {
-        if (code == null || code.isEmpty()) {
-            return code;
+    // コードスパンの text[start, end) の前後が空白で、空白だけではないなら、前後の 1 文字ずつを除く
+    private static boolean stripsCodeSpanSpace(String text, int start, int end) {
+        if (start >= end || !Character.isWhitespace(text.charAt(start))
+                || !Character.isWhitespace(text.charAt(end - 1))) {
+            return false;
         }
-        int start = 0;
-        int end = code.length();
-        boolean leadingSpace = start < end && Character.isWhitespace(code.charAt(start));
-        boolean trailingSpace = end > start && Character.isWhitespace(code.charAt(end - 1));
-        if (leadingSpace && trailingSpace) {
-            int i = start;
-            while (i < end && Character.isWhitespace(code.charAt(i))) {
-                i++;
-            }
-            if (i < end) {
-                start++;
-                end--;
+        for (int i = start; i < end; i++) {
+            if (!Character.isWhitespace(text.charAt(i))) {
+                return true;
             }
         }
-        return code.substring(start, end);
+        return false;
     }
-}
\ No newline at end of file
+}
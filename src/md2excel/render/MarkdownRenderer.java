@@ -1,8 +1,10 @@
 package md2excel.render;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.CellStyle;
@@ -14,7 +16,8 @@ import md2excel.markdown.MdTextUtil;
 
 public final class MarkdownRenderer {
 
-    private enum LineKind {
+    // package-private: BlockModel / InlineResolver（二段階変換）から使う
+    enum LineKind {
         CODE_FENCE(MdBlockBoundary.Policy.CODE_FENCE),
         CODE_LINE(MdBlockBoundary.Policy.NONE), // inCodeBlock中は境界処理しない（従来通り）
         BLANK(MdBlockBoundary.Policy.MARKDOWN_BLANK),
@@ -34,203 +37,405 @@ public final class MarkdownRenderer {
         }
     }
 
-    private static final class LineInfo {
-        final String raw; // 元行（インデント含む）
-        final String trimmed; // raw.trim()
-        final int indent; // leading spaces/tabs（raw基準）
-        final LineKind kind;
+    // 計測結果（RenderStats）の行種別名。添字は LineKind.ordinal()
+    private static final String[] KIND_NAMES = kindNames();
 
-        // kind別で使う派生値（必要なものだけ埋める）
-        final int headingLevel; // kindがHEADINGのときのみ >=1
-        final String headingText; // kindがHEADINGのときのみ
-        final String quoteText; // kindがBLOCK_QUOTEのときのみ（">"除去済み）
-        final String bulletMarkdownText;// kindがBULLET_ITEMのときのみ（"・ "付与済み）
-
-        private LineInfo(String raw, String trimmed, int indent, LineKind kind, int headingLevel, String headingText,
-                String quoteText, String bulletMarkdownText) {
-            this.raw = raw;
-            this.trimmed = trimmed;
-            this.indent = indent;
-            this.kind = kind;
-
-            this.headingLevel = headingLevel;
-            this.headingText = headingText;
-            this.quoteText = quoteText;
-            this.bulletMarkdownText = bulletMarkdownText;
+    private static String[] kindNames() {
+        LineKind[] kinds = LineKind.values();
+        String[] names = new String[kinds.length];
+        for (LineKind k : kinds) {
+            names[k.ordinal()] = k.name();
         }
+        return names;
+    }
+
+    /**
+     * 1 行の種別と、本文の範囲（オフセット）。 render ごとに 1 つを使い回す（行ごとに作らない）。
+     *
+     * line は次の行を読むまでしか有効でない（MappedLineSource の再利用バッファ等）。 見出し本文などの文字列は、
+     * 使うハンドラが必要になった時点で作る。
+     */
+    static final class LineInfo {
+        CharSequence line; // 元行（インデント含む）
+        int indent; // leading spaces/tabs（line基準）
+        LineKind kind;
+        int contentStart; // trim 後の本文の範囲 [contentStart, contentEnd)
+        int contentEnd;
+        int headingLevel; // kindがHEADINGのときのみ >=1
+
+        // 同じ行で何度も使う文字列（作ったら行の終わりまで使い回す）
+        private String raw;
+        private String trimmed;
 
         boolean isTableLike() {
             return kind == LineKind.TABLE_SEPARATOR || kind == LineKind.TABLE_ROW;
         }
 
-        static LineInfo parse(String rawLine, RenderState st) {
-            String trimmed = rawLine.trim();
-            int indent = MdTextUtil.countLeadingSpacesOrTabs(rawLine);
+        /**
+         * 1 行を分類して自身を埋める。 先頭の空白は 1 回だけ走査し、以降は先頭文字で判定を絞る（全体を走査するのは
+         * テーブル判定の 1 回だけ）。
+         */
+        void parse(CharSequence line, boolean inCodeBlock) {
+            this.line = line;
+            this.raw = null;
+            this.trimmed = null;
+            this.headingLevel = -1;
+
+            int n = line.length();
+            int i = 0;
+            int ind = 0;
+            for (; i < n; i++) {
+                char ch = line.charAt(i);
+                if (ch == ' ')
+                    ind++;
+                else if (ch == '\t')
+                    ind += 4;
+                else
+                    break;
+            }
+            while (i < n && line.charAt(i) <= ' ') {
+                i++;
+            }
+            int ts = i;
+            int te = MdTextUtil.trimEnd(line, ts);
+            this.indent = ind;
+            this.contentStart = ts;
+            this.contentEnd = te;
+
+            char c = (ts < te) ? line.charAt(ts) : '\0';
 
             // 1) code fence は inCodeBlock 中でも最優先（閉じるため）
-            if (trimmed.startsWith("```") || trimmed.startsWith("~~~")) {
-                return new LineInfo(rawLine, trimmed, indent, LineKind.CODE_FENCE, -1, null, null, null);
+            if ((c == '`' && MdTextUtil.startsWith(line, ts, te, "```"))
+                    || (c == '~' && MdTextUtil.startsWith(line, ts, te, "~~~"))) {
+                kind = LineKind.CODE_FENCE;
+                return;
             }
 
             // 2) code block 中は「全部 code line」
-            if (st.inCodeBlock) {
-                return new LineInfo(rawLine, trimmed, indent, LineKind.CODE_LINE, -1, null, null, null);
+            if (inCodeBlock) {
+                kind = LineKind.CODE_LINE;
+                return;
             }
 
             // 3) blank
-            if (trimmed.isEmpty()) {
-                return new LineInfo(rawLine, trimmed, indent, LineKind.BLANK, -1, null, null, null);
+            if (ts == te) {
+                kind = LineKind.BLANK;
+                return;
             }
 
             // 4) horizontal rule
-            if (MdTextUtil.isHorizontalRuleLine(trimmed)) {
-                return new LineInfo(rawLine, trimmed, indent, LineKind.HORIZONTAL_RULE, -1, null, null, null);
+            if ((c == '-' || c == '_' || c == '*') && MdTextUtil.isHorizontalRuleLine(line, ts, te)) {
+                kind = LineKind.HORIZONTAL_RULE;
+                return;
             }
 
             // 5) block quote（テーブル判定より先："> |a|b|" は引用扱い）
-            if (trimmed.startsWith(">")) {
-                String quoteText = trimmed.substring(1).trim();
-                return new LineInfo(rawLine, trimmed, indent, LineKind.BLOCK_QUOTE, -1, null, quoteText, null);
+            if (c == '>') {
+                kind = LineKind.BLOCK_QUOTE;
+                return;
             }
 
-            // 6) table（isTableLine をここで1回だけ）
-            if (MarkdownTable.isTableLine(rawLine)) {
-                boolean sep = MarkdownTable.isTableSeparatorLine(trimmed);
-                return new LineInfo(rawLine, trimmed, indent, sep ? LineKind.TABLE_SEPARATOR : LineKind.TABLE_ROW, -1,
-                        null, null, null);
+            // 6) table
+            if (MarkdownTable.isTableLine(line, ts, te)) {
+                kind = MarkdownTable.isTableSeparatorLine(line, ts, te) ? LineKind.TABLE_SEPARATOR : LineKind.TABLE_ROW;
+                return;
             }
 
             // 7) heading
-            if (trimmed.startsWith("#")) {
-                int level = MdTextUtil.countHeadingLevel(trimmed);
-                String text = trimmed.substring(level).trim();
-                text = MdTextUtil.stripHeadingClosingHashes(text);
-                return new LineInfo(rawLine, trimmed, indent, LineKind.HEADING, level, text, null, null);
+            if (c == '#') {
+                headingLevel = MdTextUtil.countHeadingLevel(line, ts, te);
+                kind = LineKind.HEADING;
+                return;
             }
 
             // 8) list
-            if (trimmed.length() >= 2) {
-                char m = trimmed.charAt(0);
-                if ((m == '*' || m == '-' || m == '+') && Character.isWhitespace(trimmed.charAt(1))) {
-                    String content = trimmed.substring(2).trim();
-                    String bulletMd = "・ " + content;
-                    return new LineInfo(rawLine, trimmed, indent, LineKind.BULLET_ITEM, -1, null, null, bulletMd);
-                }
+            if ((c == '*' || c == '-' || c == '+') && te - ts >= 2 && Character.isWhitespace(line.charAt(ts + 1))) {
+                kind = LineKind.BULLET_ITEM;
+                return;
+            }
+
+            if (MdTextUtil.isNumberedListLine(line, ts, te)) {
+                kind = LineKind.NUMBER_ITEM;
+                return;
             }
 
-            if (MdTextUtil.isNumberedListLine(trimmed)) {
-                return new LineInfo(rawLine, trimmed, indent, LineKind.NUMBER_ITEM, -1, null, null, null);
+            kind = LineKind.NORMAL;
+        }
+
+        // 元行（String）
+        String raw() {
+            if (raw == null) {
+                raw = line.toString();
             }
+            return raw;
+        }
 
-            return new LineInfo(rawLine, trimmed, indent, LineKind.NORMAL, -1, null, null, null);
+        // raw().trim() と同じ
+        String trimmed() {
+            if (trimmed == null) {
+                trimmed = line.subSequence(contentStart, contentEnd).toString();
+            }
+            return trimmed;
+        }
+
+        // 本文の from 以降（先頭の空白は除く）
+        private String textFrom(int from) {
+            int i = from;
+            while (i < contentEnd && line.charAt(i) <= ' ') {
+                i++;
+            }
+            return line.subSequence(i, contentEnd).toString();
+        }
+
+        // kindがBLOCK_QUOTEのときのみ（">"除去済み）
+        String quoteText() {
+            return textFrom(contentStart + 1);
+        }
+
+        // kindがHEADINGのときのみ（"#" と閉じの "#" 除去済み）
+        String headingText() {
+            return MdTextUtil.stripHeadingClosingHashes(textFrom(contentStart + headingLevel));
+        }
+
+        // kindがBULLET_ITEMのときのみ（"・ "付与済み）
+        String bulletMarkdownText() {
+            int i = contentStart + 2;
+            while (i < contentEnd && line.charAt(i) <= ' ') {
+                i++;
+            }
+            return new StringBuilder(2 + contentEnd - i).append("・ ").append(line, i, contentEnd).toString();
+        }
+
+        // 行の i 文字目以降（コード行のインデント除去用）
+        String rawFrom(int i) {
+            return (i == 0) ? raw() : line.subSequence(i, line.length()).toString();
         }
     }
 
-    public static void render(Iterator<String> it, RenderContext ctx) {
+    public static void render(Iterator<? extends CharSequence> it, RenderContext ctx) {
         RenderState st = ctx.st;
+        LineInfo li = new LineInfo();
+        ProgressTracker progress = ctx.progress;
+        // 計測（RenderContext に listener を渡したときだけ。計測しないときは時刻も取らない）
+        RenderStats stats = (ctx.listener != null) ? new RenderStats(KIND_NAMES) : null;
+        long start = now(stats);
 
         while (it.hasNext()) {
-            String rawLine = it.next();
-            LineInfo li = LineInfo.parse(rawLine, st);
-
-            MdBlockBoundary.closeTableIfLeaving(li.isTableLike(), ctx);
-
-            // ここで必ず境界処理を実施（呼び忘れが起きない）
-            MdBlockBoundary.apply(li.kind.policy, ctx);
-
-            if (tryConsumeHeadingBr(li, ctx))
-                continue;
-            if (tryConsumeListBr(li, ctx))
-                continue;
-            if (tryConsumeQuoteBr(li, ctx))
-                continue;
-            if (tryConsumeSameColBr(li, ctx))
-                continue;
-
-            switch (li.kind) {
-            case CODE_FENCE:
-                handleCodeFence(li, ctx);
-                break;
-            case CODE_LINE:
-                handleInCodeBlock(li, ctx);
-                break;
-            case BLANK:
-                handleBlankLine(li, ctx);
-                break;
-            case HORIZONTAL_RULE:
-                handleHorizontalRule(li, ctx);
-                break;
-            case BLOCK_QUOTE:
-                handleBlockQuote(li, ctx);
-                break;
-            case TABLE_SEPARATOR:
-                handleTableSeparatorLine(li, ctx);
-                break;
-            case TABLE_ROW:
-                handleTableRow(li, ctx);
-                break;
-            case HEADING:
-                handleHeading(li, ctx);
-                break;
-            case BULLET_ITEM:
-                handleBullet(li, ctx);
-                break;
-            case NUMBER_ITEM:
-                handleNumberedList(li, ctx);
-                break;
-            case NORMAL:
-                handleNormalText(li, ctx);
-                break;
-            default:
-                throw new AssertionError("Unhandled LineKind: " + li.kind);
+            if (progress != null) {
+                progress.beforeLine();
+            }
+
+            // 前の行までで確定した行を書き出す（XSSF のときは何もしない）
+            long t0 = now(stats);
+            StreamingFlushUtil.flushIfNeeded(ctx);
+            if (stats != null) {
+                stats.addFlushNanos(System.nanoTime() - t0);
+            }
+
+            CharSequence rawLine = it.next();
+            long t1 = now(stats);
+            li.parse(rawLine, st.inCodeBlock);
+
+            int rows0 = st.rowIndex;
+            int cells0 = st.cellsCreated;
+
+            long t2 = now(stats);
+            applyBlockBoundary(li, ctx);
+            if (SheetRollover.rollOverIfNeeded(li, ctx)) {
+                // 行数は新しいシートで作った分だけ数える
+                rows0 = 0;
+            }
+            if (ctx.blocks != null) {
+                ctx.blocks.afterBoundary(rawLine, li, ctx);
+            }
+            long t3 = now(stats);
+            boolean consumed = tryConsumeBr(li, ctx);
+            long t4 = now(stats);
+            if (!consumed) {
+                dispatch(li, ctx);
+            }
+            st.openCell.endLine();
+
+            if (stats != null) {
+                long t5 = System.nanoTime();
+                int rows = st.rowIndex - rows0;
+                int cells = st.cellsCreated - cells0;
+                stats.recordLine(li.kind.ordinal(), t2 - t1, t3 - t2, t4 - t3, consumed, t5 - t4, rows, cells);
+                ctx.listener.onLine(li.kind.name(), t5 - t2, rows, cells);
+            }
+
+            if (progress != null) {
+                progress.afterLine(rawLine, st.rowIndex);
+            }
+        }
+
+        long f0 = now(stats);
+        finishRender(ctx);
+        if (stats != null) {
+            long end = System.nanoTime();
+            stats.finish(end - f0, end - start, ctx.inlineCache);
+            ctx.listener.onFinish(stats);
+        }
+        if (progress != null) {
+            progress.finish();
+        }
+    }
+
+    // 計測するときだけ時刻を取る（stats が null なら 0）
+    private static long now(RenderStats stats) {
+        return (stats != null) ? System.nanoTime() : 0L;
+    }
+
+    /** index にブロックの索引を記録しながら render する（差分変換の 1 回目）。 */
+    public static void render(Iterator<? extends CharSequence> it, RenderContext ctx, BlockIndex index) {
+        ctx.blocks = index;
+        render(it, ctx);
+        index.finish(ctx.st);
+    }
+
+    /**
+     * 差分変換。 index の block 番目のブロックの終わりの切れ目から render を続け、索引をその先だけ記録し直す。 it は
+     * 切れ目の行（index.restartLine。境界処理は済んでいる）から。 切れ目より前の行（index.restartRow 行）は
+     * 呼び出し側が前回の出力からシートに写しておく。
+     */
+    public static void resume(Iterator<? extends CharSequence> it, RenderContext ctx, BlockIndex index, int block) {
+        index.restore(block, ctx.st);
+        ctx.blocks = index;
+
+        if (it.hasNext()) {
+            LineInfo li = new LineInfo();
+            li.parse(it.next(), ctx.st.inCodeBlock);
+            if (!tryConsumeBr(li, ctx)) {
+                dispatch(li, ctx);
             }
+            ctx.st.openCell.endLine();
+        }
+
+        render(it, ctx);
+        index.finish(ctx.st);
+    }
+
+    /**
+     * 二段階の変換。 1) 全行を読んでブロックに分け（BlockModel）、2) ブロックごとのインライン解析を pool で並列に済ませて
+     * から、render と同じ順序でセルを書く（POI を触るのは呼び出したスレッドだけ）。 出力は render と同じ。
+     *
+     * 全行を String で持つので、メモリは文書の大きさに比例する。 インライン解析キャッシュを使わない設定（0）のときは
+     * 解析結果の置き場がないので、並列解析をせずに render と同じ処理になる。
+     */
+    public static void renderTwoPhase(Iterator<? extends CharSequence> it, RenderContext ctx, ForkJoinPool pool) {
+        List<String> lines = new ArrayList<String>();
+        while (it.hasNext()) {
+            lines.add(it.next().toString());
+        }
+
+        if (ctx.inlineCache != null) {
+            BlockModel model = BlockModel.build(lines);
+            ctx.inlineCache.setResolved(InlineResolver.resolve(model, pool, ctx.inlineLimit));
         }
 
+        render(lines.iterator(), ctx);
+    }
+
+    /**
+     * パイプライン変換。 読み込み・分類とインライン解析・セルの書き込みを 3 つのスレッドで重ねる（POI を触るのは
+     * 呼び出したスレッドだけ）。 段の間は 256 行ずつ、容量の決まったキューで受け渡すので、renderTwoPhase と
+     * 違って全行をメモリに持たない。 出力は render と同じ。
+     *
+     * 入力の Iterator は読み込み用のスレッドから使う。 戻るときにはそのスレッドは止まっている（失敗したときも）。
+     */
+    public static void renderPipelined(Iterator<? extends CharSequence> it, RenderContext ctx) {
+        PipelinedRender.render(it, ctx);
+    }
+
+    private static void applyBlockBoundary(LineInfo li, RenderContext ctx) {
+        // 前の行のセルへ追記を続けられるのは NORMAL / BLOCK_QUOTE だけ。それ以外は境界処理で周りを装飾するので先に閉じる
+        if (li.kind != LineKind.NORMAL && li.kind != LineKind.BLOCK_QUOTE) {
+            ctx.st.openCell.close();
+        }
+
+        MdBlockBoundary.closeTableIfLeaving(li.isTableLike(), ctx);
+
+        // ここで必ず境界処理を実施（呼び忘れが起きない）
+        MdBlockBoundary.apply(li.kind.policy, ctx);
+    }
+
+    // 前の行の <br> 継続として処理したら true
+    private static boolean tryConsumeBr(LineInfo li, RenderContext ctx) {
+        return tryConsumeHeadingBr(li, ctx) || tryConsumeListBr(li, ctx) || tryConsumeQuoteBr(li, ctx)
+                || tryConsumeSameColBr(li, ctx);
+    }
+
+    private static void dispatch(LineInfo li, RenderContext ctx) {
+        switch (li.kind) {
+        case CODE_FENCE:
+            handleCodeFence(li, ctx);
+            break;
+        case CODE_LINE:
+            handleInCodeBlock(li, ctx);
+            break;
+        case BLANK:
+            handleBlankLine(li, ctx);
+            break;
+        case HORIZONTAL_RULE:
+            handleHorizontalRule(li, ctx);
+            break;
+        case BLOCK_QUOTE:
+            handleBlockQuote(li, ctx);
+            break;
+        case TABLE_SEPARATOR:
+            handleTableSeparatorLine(li, ctx);
+            break;
+        case TABLE_ROW:
+            handleTableRow(li, ctx);
+            break;
+        case HEADING:
+            handleHeading(li, ctx);
+            break;
+        case BULLET_ITEM:
+            handleBullet(li, ctx);
+            break;
+        case NUMBER_ITEM:
+            handleNumberedList(li, ctx);
+            break;
+        case NORMAL:
+            handleNormalText(li, ctx);
+            break;
+        default:
+            throw new AssertionError("Unhandled LineKind: " + li.kind);
+        }
+    }
+
+    // 文書の終わりで開いているブロックを閉じる
+    private static void finishRender(RenderContext ctx) {
+        RenderState st = ctx.st;
+
+        st.openCell.close();
+
         if (st.lastLineWasTable) {
-            MarkdownTable.closeTableIfOpen(ctx.sheet, ctx.styles, st);
+            MarkdownTable.closeTableIfOpen(ctx);
+        }
+        BlockQuoteUtil.closeBlockQuoteIfOpen(st);
+        if (ctx.streamingSheet != null) {
+            // ストリーミングでは閉じていないコードブロックの前半を既に装飾済みなので、枠を最後まで閉じて揃える
+            CodeBlockUtil.closeCodeBlockFrameIfOpen(st);
+        }
+
+        // 記録した装飾を行の順に 1 回で当てる
+        st.cellsCreated += st.decorations.apply(ctx.sheet, ctx.styles, Integer.MAX_VALUE);
+        st.decorations.finish(ctx.sheet, ctx.styles);
+        if (st.paragraphWrap != null) {
+            st.paragraphWrap.apply(ctx.sheet, ctx.styles, Integer.MAX_VALUE);
         }
-        BlockQuoteUtil.closeBlockQuoteIfOpen(ctx.sheet, ctx.styles, st);
     }
 
     private static void handleCodeFence(LineInfo li, RenderContext ctx) {
 
         if (!ctx.st.inCodeBlock) {
-            ctx.st.ensureAutoBlankIfPrevBlockQuote(ctx.sheet, ctx.styles.normalStyle);
+            ctx.st.ensureAutoBlankIfPrevBlockQuote(ctx.sheet, ctx.styles.normalStyle());
             ctx.st.currentCodeBlockIndent = li.indent;
         }
 
-        if (ctx.st.inCodeBlock && ctx.st.codeBlockFirstRow >= 0 && ctx.st.codeBlockLastRow >= 0) {
-            int fillEndCol = Math.max(ctx.st.codeBlockCol, ctx.st.lastColIndex);
-
-            for (int r = ctx.st.codeBlockFirstRow; r <= ctx.st.codeBlockLastRow; r++) {
-                Row rowObj = ctx.sheet.getRow(r);
-                if (rowObj == null)
-                    continue;
-
-                for (int c = ctx.st.codeBlockCol; c <= fillEndCol; c++) {
-                    Cell cell = rowObj.getCell(c);
-                    if (cell == null)
-                        cell = rowObj.createCell(c);
-
-                    boolean isTop = (r == ctx.st.codeBlockFirstRow);
-                    boolean isBottom = (r == ctx.st.codeBlockLastRow);
-                    boolean isLeft = (c == ctx.st.codeBlockCol);
-                    boolean isRight = (c == fillEndCol);
-
-                    int mask = 0;
-                    if (isTop)
-                        mask |= 1;
-                    if (isBottom)
-                        mask |= 2;
-                    if (isLeft)
-                        mask |= 4;
-                    if (isRight)
-                        mask |= 8;
-
-                    cell.setCellStyle(ctx.styles.codeBlockFrameStyle(mask));
-                }
-            }
-        }
+        CodeBlockUtil.closeCodeBlockFrameIfOpen(ctx.st);
 
         ctx.st.inCodeBlock = !ctx.st.inCodeBlock;
         ctx.st.lastLineWasTable = false;
@@ -244,61 +449,72 @@ public final class MarkdownRenderer {
     private static void handleInCodeBlock(LineInfo li, RenderContext ctx) {
 
         Row row = RowUtil.createRowOrReusePreviousMarkdownBlank(ctx.sheet, ctx.st, RowUtil.ReuseKind.CODE_LINE,
-                ctx.styles.normalStyle);
+                ctx.styles.normalStyle());
 
         int codeCol = calcBlockStartCol(ctx.st.currentCodeBlockIndent, ctx.st);
 
         int leadingSpaces = li.indent;
         int trimSpaces = ctx.st.computeCodeTrimSpaces(leadingSpaces);
-        String codeLine = li.raw.substring(trimSpaces);
+        String codeLine = li.rawFrom(trimSpaces);
 
-        Cell cell = row.createCell(codeCol);
-        MarkdownInline.setCodeBlockRichTextCell(ctx.wb, cell, codeLine, ctx.styles.codeBlockStyle);
+        Cell cell = RowUtil.createCell(row, codeCol, ctx.st);
+        MarkdownInline.setCodeBlockRichTextCell(ctx.fonts, cell, codeLine, ctx.styles.codeBlockStyle());
 
         ctx.st.recordCodeBlockLinePos(row.getRowNum(), codeCol);
         ctx.st.afterWriteCodeLine(codeCol);
     }
 
     private static void handleBlankLine(LineInfo li, RenderContext ctx) {
-        ctx.st.onMarkdownBlankLine(ctx.sheet, ctx.styles.normalStyle);
+        ctx.st.onMarkdownBlankLine(ctx.sheet, ctx.styles.normalStyle());
     }
 
     private static void handleHorizontalRule(LineInfo li, RenderContext ctx) {
         Row row = RowUtil.createRowOrReusePreviousMarkdownBlank(ctx, RowUtil.ReuseKind.HORIZONTAL_RULE,
-                ctx.styles.normalStyle);
-        Md2ExcelSheetUtil.createHorizontalRuleRow(ctx.sheet, row, ctx.styles.horizontalRuleStyle, ctx.st.mergeLastCol);
+                ctx.styles.normalStyle());
+        if (ctx.st.decorations.sparse) {
+            ctx.st.decorations.horizontalRule(row.getRowNum(), 0, ctx.st.mergeLastCol - 1);
+        } else {
+            Md2ExcelSheetUtil.createHorizontalRuleRow(ctx.sheet, row, ctx.styles.horizontalRuleStyle(),
+                    ctx.st.mergeLastCol);
+            ctx.st.cellsCreated += ctx.st.mergeLastCol;
+        }
         ctx.st.afterWriteHorizontalRule();
     }
 
     private static void handleBlockQuote(LineInfo li, RenderContext ctx) {
-        ctx.st.ensureAutoBlankIfPrevCodeBlock(ctx.sheet, ctx.styles.normalStyle);
+        ctx.st.ensureAutoBlankIfPrevCodeBlock(ctx.sheet, ctx.styles.normalStyle());
 
-        String quoteText = applyHardLineBreak(li.quoteText, li);
-        MarkdownInline.BrSplitResult sp = MarkdownInline.splitByBrPreserveFormatting(quoteText);
+        String quoteText = applyHardLineBreak(li.quoteText(), li);
+        MarkdownInline.BrSplitResult sp = MarkdownInline.splitByBrPreserveFormatting(quoteText, ctx);
         boolean hasBr = sp.endsWithBr || sp.lines.size() >= 2;
 
-        if (!hasBr && ctx.st.inBlockQuote && ctx.st.blockQuoteCellRow >= 0 && ctx.st.blockQuoteCellCol >= 0
-                && ctx.st.lastRowType == RenderState.RowType.OTHER && !ctx.st.lastBlankFromMarkdown) {
-
-            appendBrSplitLineWithSpace(ctx, ctx.st.blockQuoteCellRow, ctx.st.blockQuoteCellCol, sp, 0,
-                    ctx.styles.normalStyle);
+        if (!hasBr && canAppendToBlockQuoteCell(ctx.st)) {
+            if (!blockQuoteCellFlushed(ctx.st)) {
+                appendBrSplitLineWithSpace(ctx, ctx.st.blockQuoteCellRow, ctx.st.blockQuoteCellCol, sp, 0,
+                        ctx.styles.normalStyle());
 
-            ctx.st.afterAppendBlockQuoteLine();
-            return;
+                ctx.st.afterAppendBlockQuoteLine();
+                return;
+            }
+            // 追記先のセルは書き出し済み: 引用を閉じて、新しい引用の行に書く
+            BlockQuoteUtil.closeBlockQuoteIfOpen(ctx.st);
         }
 
-        int col = calcBlockStartCol(li.indent, ctx.st);
+        writeBlockQuoteRows(ctx, sp, calcBlockStartCol(li.indent, ctx.st));
+    }
 
+    // 引用の行（<br> で分けた行ごと）を col に書く
+    private static void writeBlockQuoteRows(RenderContext ctx, MarkdownInline.BrSplitResult sp, int col) {
         Row row = RowUtil.createRowOrReusePreviousMarkdownBlank(ctx.sheet, ctx.st, RowUtil.ReuseKind.BLOCK_QUOTE,
-                ctx.styles.normalStyle);
-        Cell cell = row.createCell(col);
-        setBrSplitLineCell(ctx, cell, sp, 0, ctx.styles.normalStyle);
+                ctx.styles.normalStyle());
+        Cell cell = RowUtil.createCell(row, col, ctx.st);
+        setBrSplitLineCell(ctx, cell, sp, 0, ctx.styles.normalStyle());
         ctx.st.afterWriteBlockQuoteLine(row.getRowNum(), col);
 
         for (int i = 1; i < sp.lines.size(); i++) {
-            Row r2 = RowUtil.createRow(ctx.sheet, ctx.st, ctx.styles.normalStyle);
-            Cell c2 = r2.createCell(col);
-            setBrSplitLineCell(ctx, c2, sp, i, ctx.styles.normalStyle);
+            Row r2 = RowUtil.createRow(ctx.sheet, ctx.st, ctx.styles.normalStyle());
+            Cell c2 = RowUtil.createCell(r2, col, ctx.st);
+            setBrSplitLineCell(ctx, c2, sp, i, ctx.styles.normalStyle());
             ctx.st.afterWriteBlockQuoteLine(r2.getRowNum(), col);
         }
 
@@ -317,16 +533,16 @@ public final class MarkdownRenderer {
             return false;
         }
 
-        String text = (li.kind == LineKind.BLOCK_QUOTE) ? li.quoteText : li.trimmed;
+        String text = (li.kind == LineKind.BLOCK_QUOTE) ? li.quoteText() : li.trimmed();
         text = applyHardLineBreak(text, li);
         text = ctx.st.pendingQuoteBrCarry + text;
 
-        MarkdownInline.BrSplitResult sp = MarkdownInline.splitByBrPreserveFormatting(text);
+        MarkdownInline.BrSplitResult sp = MarkdownInline.splitByBrPreserveFormatting(text, ctx);
 
         for (int i = 0; i < sp.lines.size(); i++) {
-            Row row = RowUtil.createRow(ctx.sheet, ctx.st, ctx.styles.normalStyle);
-            Cell cell = row.createCell(ctx.st.pendingQuoteBrCol);
-            setBrSplitLineCell(ctx, cell, sp, i, ctx.styles.normalStyle);
+            Row row = RowUtil.createRow(ctx.sheet, ctx.st, ctx.styles.normalStyle());
+            Cell cell = RowUtil.createCell(row, ctx.st.pendingQuoteBrCol, ctx.st);
+            setBrSplitLineCell(ctx, cell, sp, i, ctx.styles.normalStyle());
             ctx.st.afterWriteBlockQuoteLine(row.getRowNum(), ctx.st.pendingQuoteBrCol);
         }
 
@@ -350,10 +566,12 @@ public final class MarkdownRenderer {
         }
 
         Row row = RowUtil.createRowOrReusePreviousMarkdownBlank(ctx.sheet, ctx.st, RowUtil.ReuseKind.TABLE_ROW,
-                ctx.styles.normalStyle);
+                ctx.styles.normalStyle());
 
         boolean isHeader = (ctx.st.currentTableHeaderRow < 0);
-        int lastCol = MarkdownTable.createTableRow(ctx.wb, li.raw, row, ctx.styles, isHeader, tableStartCol);
+        int lastCol = MarkdownTable.createTableRow(ctx.fonts, li.line, li.contentStart, li.contentEnd, ctx.inlineCache,
+                ctx.inlineLimit, row, ctx.styles, isHeader, tableStartCol, ctx.st.tableWidths);
+        ctx.st.cellsCreated += lastCol - tableStartCol + 1;
 
         int rowNum = row.getRowNum();
         if (isHeader) {
@@ -373,23 +591,23 @@ public final class MarkdownRenderer {
     }
 
     private static void handleHeading(LineInfo li, RenderContext ctx) {
-        ctx.st.ensureAutoBlankBeforeHeadingIfNeeded(ctx.sheet, ctx.styles.normalStyle);
+        ctx.st.ensureAutoBlankBeforeHeadingIfNeeded(ctx.sheet, ctx.styles.normalStyle());
 
-        CellStyle style = (li.headingLevel == 1) ? ctx.styles.heading1Style
-                : (li.headingLevel == 2) ? ctx.styles.heading2Style
-                        : (li.headingLevel == 3) ? ctx.styles.heading3Style : ctx.styles.heading4Style;
+        CellStyle style = (li.headingLevel == 1) ? ctx.styles.heading1Style()
+                : (li.headingLevel == 2) ? ctx.styles.heading2Style()
+                        : (li.headingLevel == 3) ? ctx.styles.heading3Style() : ctx.styles.heading4Style();
 
-        String headingText = applyHardLineBreak(li.headingText, li);
-        MarkdownInline.BrSplitResult sp = MarkdownInline.splitByBrPreserveFormatting(headingText);
+        String headingText = applyHardLineBreak(li.headingText(), li);
+        MarkdownInline.BrSplitResult sp = MarkdownInline.splitByBrPreserveFormatting(headingText, ctx);
 
-        Row row = RowUtil.createRow(ctx.sheet, ctx.st, ctx.styles.normalStyle);
-        Cell cell = row.createCell(0);
+        Row row = RowUtil.createRow(ctx.sheet, ctx.st, ctx.styles.normalStyle());
+        Cell cell = RowUtil.createCell(row, 0, ctx.st);
         setBrSplitLineCell(ctx, cell, sp, 0, style);
         ctx.st.afterWriteHeading();
 
         for (int i = 1; i < sp.lines.size(); i++) {
-            Row r2 = RowUtil.createRow(ctx.sheet, ctx.st, ctx.styles.normalStyle);
-            Cell c2 = r2.createCell(0);
+            Row r2 = RowUtil.createRow(ctx.sheet, ctx.st, ctx.styles.normalStyle());
+            Cell c2 = RowUtil.createCell(r2, 0, ctx.st);
             setBrSplitLineCell(ctx, c2, sp, i, style);
             ctx.st.afterWriteHeading();
         }
@@ -405,16 +623,16 @@ public final class MarkdownRenderer {
         if (li.kind != LineKind.NORMAL)
             return false;
 
-        CellStyle style = (ctx.st.pendingHeadingLevel == 1) ? ctx.styles.heading1Style
-                : (ctx.st.pendingHeadingLevel == 2) ? ctx.styles.heading2Style
-                        : (ctx.st.pendingHeadingLevel == 3) ? ctx.styles.heading3Style : ctx.styles.heading4Style;
+        CellStyle style = (ctx.st.pendingHeadingLevel == 1) ? ctx.styles.heading1Style()
+                : (ctx.st.pendingHeadingLevel == 2) ? ctx.styles.heading2Style()
+                        : (ctx.st.pendingHeadingLevel == 3) ? ctx.styles.heading3Style() : ctx.styles.heading4Style();
 
-        String text = ctx.st.pendingHeadingCarry + applyHardLineBreak(li.trimmed, li);
-        MarkdownInline.BrSplitResult sp = MarkdownInline.splitByBrPreserveFormatting(text);
+        String text = ctx.st.pendingHeadingCarry + applyHardLineBreak(li.trimmed(), li);
+        MarkdownInline.BrSplitResult sp = MarkdownInline.splitByBrPreserveFormatting(text, ctx);
 
         for (int i = 0; i < sp.lines.size(); i++) {
-            Row row = RowUtil.createRow(ctx.sheet, ctx.st, ctx.styles.normalStyle);
-            Cell cell = row.createCell(0);
+            Row row = RowUtil.createRow(ctx.sheet, ctx.st, ctx.styles.normalStyle());
+            Cell cell = RowUtil.createCell(row, 0, ctx.st);
             setBrSplitLineCell(ctx, cell, sp, i, style);
             ctx.st.afterWriteHeading();
         }
@@ -429,21 +647,21 @@ public final class MarkdownRenderer {
         int col = clampCol(1 + depth, ctx.st);
 
         Row row = RowUtil.createRowOrReusePreviousMarkdownBlank(ctx.sheet, ctx.st, RowUtil.ReuseKind.BULLET_ITEM,
-                ctx.styles.normalStyle);
+                ctx.styles.normalStyle());
 
-        String bulletText = applyHardLineBreak(li.bulletMarkdownText, li);
-        MarkdownInline.BrSplitResult sp = MarkdownInline.splitByBrPreserveFormatting(bulletText);
+        String bulletText = applyHardLineBreak(li.bulletMarkdownText(), li);
+        MarkdownInline.BrSplitResult sp = MarkdownInline.splitByBrPreserveFormatting(bulletText, ctx);
 
-        Cell cell = row.createCell(col);
-        setBrSplitLineCell(ctx, cell, sp, 0, ctx.styles.bulletStyle);
+        Cell cell = RowUtil.createCell(row, col, ctx.st);
+        setBrSplitLineCell(ctx, cell, sp, 0, ctx.styles.bulletStyle());
         ctx.st.afterWriteBulletItem(row.getRowNum(), col);
 
         int contCol = clampCol(col + 1, ctx.st);
         int lastRowNum = row.getRowNum();
         for (int i = 1; i < sp.lines.size(); i++) {
-            Row r2 = RowUtil.createRow(ctx.sheet, ctx.st, ctx.styles.normalStyle);
-            Cell c2 = r2.createCell(contCol);
-            setBrSplitLineCell(ctx, c2, sp, i, ctx.styles.bulletStyle);
+            Row r2 = RowUtil.createRow(ctx.sheet, ctx.st, ctx.styles.normalStyle());
+            Cell c2 = RowUtil.createCell(r2, contCol, ctx.st);
+            setBrSplitLineCell(ctx, c2, sp, i, ctx.styles.bulletStyle());
             lastRowNum = r2.getRowNum();
             ctx.st.afterWriteNormalText(lastRowNum, contCol, 0, false);
         }
@@ -454,7 +672,7 @@ public final class MarkdownRenderer {
             ctx.st.pendingListBrCol = contCol;
             ctx.st.pendingListBrRow = (sp.lines.size() >= 2) ? lastRowNum : -1;
             ctx.st.pendingListBrHasCell = (sp.lines.size() >= 2);
-            ctx.st.pendingListBrStyle = ctx.styles.bulletStyle;
+            ctx.st.pendingListBrStyle = ctx.styles.bulletStyle();
             ctx.st.pendingListBrCarry = sp.carryPrefix;
 
             ctx.st.bulletDetailActive = false;
@@ -466,21 +684,21 @@ public final class MarkdownRenderer {
         int col = clampCol(1 + depth, ctx.st);
 
         Row row = RowUtil.createRowOrReusePreviousMarkdownBlank(ctx.sheet, ctx.st, RowUtil.ReuseKind.NUMBER_ITEM,
-                ctx.styles.normalStyle);
+                ctx.styles.normalStyle());
 
-        String numberedText = applyHardLineBreak(li.trimmed, li);
-        MarkdownInline.BrSplitResult sp = MarkdownInline.splitByBrPreserveFormatting(numberedText);
+        String numberedText = applyHardLineBreak(li.trimmed(), li);
+        MarkdownInline.BrSplitResult sp = MarkdownInline.splitByBrPreserveFormatting(numberedText, ctx);
 
-        Cell cell = row.createCell(col);
-        setBrSplitLineCell(ctx, cell, sp, 0, ctx.styles.listStyle);
+        Cell cell = RowUtil.createCell(row, col, ctx.st);
+        setBrSplitLineCell(ctx, cell, sp, 0, ctx.styles.listStyle());
         ctx.st.afterWriteNumberedItem(li.indent, col);
 
         int contCol = clampCol(col + 1, ctx.st);
         int lastRowNum = row.getRowNum();
         for (int i = 1; i < sp.lines.size(); i++) {
-            Row r2 = RowUtil.createRow(ctx.sheet, ctx.st, ctx.styles.normalStyle);
-            Cell c2 = r2.createCell(contCol);
-            setBrSplitLineCell(ctx, c2, sp, i, ctx.styles.listStyle);
+            Row r2 = RowUtil.createRow(ctx.sheet, ctx.st, ctx.styles.normalStyle());
+            Cell c2 = RowUtil.createCell(r2, contCol, ctx.st);
+            setBrSplitLineCell(ctx, c2, sp, i, ctx.styles.listStyle());
             lastRowNum = r2.getRowNum();
             ctx.st.afterWriteNormalText(lastRowNum, contCol, 0, false);
         }
@@ -491,7 +709,7 @@ public final class MarkdownRenderer {
             ctx.st.pendingListBrCol = contCol;
             ctx.st.pendingListBrRow = (sp.lines.size() >= 2) ? lastRowNum : -1;
             ctx.st.pendingListBrHasCell = (sp.lines.size() >= 2);
-            ctx.st.pendingListBrStyle = ctx.styles.listStyle;
+            ctx.st.pendingListBrStyle = ctx.styles.listStyle();
             ctx.st.pendingListBrCarry = sp.carryPrefix;
 
             ctx.st.inNestedNumberBlock = false;
@@ -510,19 +728,19 @@ public final class MarkdownRenderer {
             return false;
         }
 
-        String text = ctx.st.pendingListBrCarry + applyHardLineBreak(li.trimmed, li);
-        MarkdownInline.BrSplitResult sp = MarkdownInline.splitByBrPreserveFormatting(text);
+        String text = ctx.st.pendingListBrCarry + applyHardLineBreak(li.trimmed(), li);
+        MarkdownInline.BrSplitResult sp = MarkdownInline.splitByBrPreserveFormatting(text, ctx);
 
-        Row row = RowUtil.createRow(ctx.sheet, ctx.st, ctx.styles.normalStyle);
-        Cell cell = row.createCell(ctx.st.pendingListBrCol);
+        Row row = RowUtil.createRow(ctx.sheet, ctx.st, ctx.styles.normalStyle());
+        Cell cell = RowUtil.createCell(row, ctx.st.pendingListBrCol, ctx.st);
         setBrSplitLineCell(ctx, cell, sp, 0, ctx.st.pendingListBrStyle);
 
         ctx.st.pendingListBrRow = row.getRowNum();
         ctx.st.pendingListBrHasCell = true;
 
         for (int i = 1; i < sp.lines.size(); i++) {
-            Row r2 = RowUtil.createRow(ctx.sheet, ctx.st, ctx.styles.normalStyle);
-            Cell c2 = r2.createCell(ctx.st.pendingListBrCol);
+            Row r2 = RowUtil.createRow(ctx.sheet, ctx.st, ctx.styles.normalStyle());
+            Cell c2 = RowUtil.createCell(r2, ctx.st.pendingListBrCol, ctx.st);
             setBrSplitLineCell(ctx, c2, sp, i, ctx.st.pendingListBrStyle);
             ctx.st.pendingListBrRow = r2.getRowNum();
         }
@@ -538,13 +756,13 @@ public final class MarkdownRenderer {
             return;
         }
 
-        String text = applyHardLineBreak(li.trimmed, li);
+        String text = applyHardLineBreak(li.trimmed(), li);
 
-        if (!MarkdownInline.hasBrOutsideInlineCode(text) && tryAppendToOpenBlockQuote(text, ctx)) {
+        if (!MarkdownInline.hasBrOutsideInlineCode(text, ctx) && tryAppendToOpenBlockQuote(text, ctx)) {
             return;
         }
 
-        ctx.st.ensureAutoBlankIfPrevHeading(ctx.sheet, ctx.styles.normalStyle);
+        ctx.st.ensureAutoBlankIfPrevHeading(ctx.sheet, ctx.styles.normalStyle());
 
         int indent = li.indent;
 
@@ -556,26 +774,26 @@ public final class MarkdownRenderer {
         int col = calcNormalTextCol(indent, ctx.st, f);
 
         boolean reuseBlank = shouldReuseBlankForNormalText(indent, ctx.st, f);
-        Row row = reuseBlank ? RowUtil.reuseLastMarkdownBlankRow(ctx.sheet, ctx.st, ctx.styles.normalStyle)
-                : RowUtil.createRow(ctx.sheet, ctx.st, ctx.styles.normalStyle);
+        Row row = reuseBlank ? RowUtil.reuseLastMarkdownBlankRow(ctx.sheet, ctx.st, ctx.styles.normalStyle())
+                : RowUtil.createRow(ctx.sheet, ctx.st, ctx.styles.normalStyle());
 
-        MarkdownInline.BrSplitResult sp = MarkdownInline.splitByBrPreserveFormatting(text);
+        MarkdownInline.BrSplitResult sp = MarkdownInline.splitByBrPreserveFormatting(text, ctx);
 
-        Cell cell = row.createCell(col);
-        setBrSplitLineCell(ctx, cell, sp, 0, ctx.styles.normalStyle);
+        Cell cell = RowUtil.createCell(row, col, ctx.st);
+        setBrSplitLineCell(ctx, cell, sp, 0, ctx.styles.normalStyle());
         ctx.st.afterWriteNormalText(row.getRowNum(), col, indent, f.isListNote);
 
         for (int i = 1; i < sp.lines.size(); i++) {
-            Row r2 = RowUtil.createRow(ctx.sheet, ctx.st, ctx.styles.normalStyle);
-            Cell c2 = r2.createCell(col);
-            setBrSplitLineCell(ctx, c2, sp, i, ctx.styles.normalStyle);
+            Row r2 = RowUtil.createRow(ctx.sheet, ctx.st, ctx.styles.normalStyle());
+            Cell c2 = RowUtil.createCell(r2, col, ctx.st);
+            setBrSplitLineCell(ctx, c2, sp, i, ctx.styles.normalStyle());
             ctx.st.afterWriteNormalText(r2.getRowNum(), col, indent, false);
         }
 
         if (sp.endsWithBr) {
             ctx.st.pendingSameColBr = true;
             ctx.st.pendingSameColBrCol = col;
-            ctx.st.pendingSameColBrStyle = ctx.styles.normalStyle;
+            ctx.st.pendingSameColBrStyle = ctx.styles.normalStyle();
             ctx.st.pendingSameColBrCarry = sp.carryPrefix;
         }
     }
@@ -584,12 +802,12 @@ public final class MarkdownRenderer {
         int col = ctx.st.pendingSameColBrCol;
         CellStyle style = ctx.st.pendingSameColBrStyle;
 
-        String text = ctx.st.pendingSameColBrCarry + applyHardLineBreak(li.trimmed, li);
-        MarkdownInline.BrSplitResult sp = MarkdownInline.splitByBrPreserveFormatting(text);
+        String text = ctx.st.pendingSameColBrCarry + applyHardLineBreak(li.trimmed(), li);
+        MarkdownInline.BrSplitResult sp = MarkdownInline.splitByBrPreserveFormatting(text, ctx);
 
         for (int i = 0; i < sp.lines.size(); i++) {
-            Row row = RowUtil.createRow(ctx.sheet, ctx.st, ctx.styles.normalStyle);
-            Cell cell = row.createCell(col);
+            Row row = RowUtil.createRow(ctx.sheet, ctx.st, ctx.styles.normalStyle());
+            Cell cell = RowUtil.createCell(row, col, ctx.st);
             setBrSplitLineCell(ctx, cell, sp, i, style);
             ctx.st.afterWriteNormalText(row.getRowNum(), col, 0, false);
         }
@@ -613,12 +831,12 @@ public final class MarkdownRenderer {
             return false;
         }
 
-        String text = ctx.st.pendingSameColBrCarry + applyHardLineBreak(li.trimmed, li);
-        MarkdownInline.BrSplitResult sp = MarkdownInline.splitByBrPreserveFormatting(text);
+        String text = ctx.st.pendingSameColBrCarry + applyHardLineBreak(li.trimmed(), li);
+        MarkdownInline.BrSplitResult sp = MarkdownInline.splitByBrPreserveFormatting(text, ctx);
 
         for (int i = 0; i < sp.lines.size(); i++) {
-            Row row = RowUtil.createRow(ctx.sheet, ctx.st, ctx.styles.normalStyle);
-            Cell cell = row.createCell(ctx.st.pendingSameColBrCol);
+            Row row = RowUtil.createRow(ctx.sheet, ctx.st, ctx.styles.normalStyle());
+            Cell cell = RowUtil.createCell(row, ctx.st.pendingSameColBrCol, ctx.st);
             setBrSplitLineCell(ctx, cell, sp, i, ctx.st.pendingSameColBrStyle);
             ctx.st.afterWriteNormalText(row.getRowNum(), ctx.st.pendingSameColBrCol, 0, false);
         }
@@ -629,24 +847,40 @@ public final class MarkdownRenderer {
     }
 
     private static boolean tryAppendToOpenBlockQuote(String trimmed, RenderContext ctx) {
-        if (!ctx.st.inBlockQuote || ctx.st.blockQuoteCellRow < 0 || ctx.st.blockQuoteCellCol < 0)
-            return false;
-        if (ctx.st.lastRowType != RenderState.RowType.OTHER || ctx.st.lastBlankFromMarkdown)
+        if (!canAppendToBlockQuoteCell(ctx.st))
             return false;
 
-        MarkdownInline.BrSplitResult sp = MarkdownInline.splitByBrPreserveFormatting(trimmed);
+        MarkdownInline.BrSplitResult sp = MarkdownInline.splitByBrPreserveFormatting(trimmed, ctx);
+        if (blockQuoteCellFlushed(ctx.st)) {
+            // 追記先のセルは書き出し済み: ほかのセルに渡さず、引用を閉じて新しい引用の行に書く
+            int col = ctx.st.blockQuoteCellCol;
+            BlockQuoteUtil.closeBlockQuoteIfOpen(ctx.st);
+            writeBlockQuoteRows(ctx, sp, col);
+            return true;
+        }
         appendBrSplitLineWithSpace(ctx, ctx.st.blockQuoteCellRow, ctx.st.blockQuoteCellCol, sp, 0,
-                ctx.styles.normalStyle);
+                ctx.styles.normalStyle());
 
         ctx.st.afterAppendToOpenBlockQuoteFromNormalText(ctx.st.blockQuoteCellRow, ctx.st.blockQuoteCellCol);
         return true;
     }
 
+    // 開いている引用のセルに続きを書ける（直前が引用・引用への追記で、Markdown の空行を挟まない）
+    private static boolean canAppendToBlockQuoteCell(RenderState st) {
+        return st.inBlockQuote && st.blockQuoteCellRow >= 0 && st.blockQuoteCellCol >= 0
+                && st.lastRowType == RenderState.RowType.OTHER && !st.lastBlankFromMarkdown;
+    }
+
+    // streaming で、引用のセルを窓を超えて書き出した（もう追記できない）
+    private static boolean blockQuoteCellFlushed(RenderState st) {
+        return st.blockQuoteCellRow < st.flushedRowCount;
+    }
+
     private static boolean tryAppendToPrevCells(RenderContext ctx, String trimmed, int indent) {
 
         if (ctx.st.bulletDetailActive && indent > 0 && ctx.st.bulletDetailRow == ctx.st.rowIndex - 1) {
             appendToExistingCellWithBr(ctx, ctx.st.bulletDetailRow, ctx.st.bulletDetailCol, trimmed,
-                    ctx.styles.bulletStyle, indent);
+                    ctx.styles.bulletStyle(), indent);
             return true;
         }
 
@@ -656,7 +890,7 @@ public final class MarkdownRenderer {
 
         if (isNumberDetail) {
             int rowNum = ctx.st.rowIndex - 1;
-            appendToExistingCellWithBr(ctx, rowNum, ctx.st.nestedNumberCol, trimmed, ctx.styles.listStyle, indent);
+            appendToExistingCellWithBr(ctx, rowNum, ctx.st.nestedNumberCol, trimmed, ctx.styles.listStyle(), indent);
             return true;
         }
 
@@ -668,7 +902,7 @@ public final class MarkdownRenderer {
         if (isSameIndentConcat) {
             int rowNum = ctx.st.lastNormalRowIndex;
             int colNum = ctx.st.lastContentCol;
-            appendToExistingCellWithBr(ctx, rowNum, colNum, trimmed, ctx.styles.normalStyle, indent);
+            appendToExistingCellWithBr(ctx, rowNum, colNum, trimmed, ctx.styles.normalStyle(), indent);
             return true;
         }
 
@@ -678,7 +912,7 @@ public final class MarkdownRenderer {
     private static void appendToExistingCellWithBr(RenderContext ctx, int targetRow, int targetCol, String markdown,
             CellStyle style, int indent) {
 
-        MarkdownInline.BrSplitResult sp = MarkdownInline.splitByBrPreserveFormatting(markdown);
+        MarkdownInline.BrSplitResult sp = MarkdownInline.splitByBrPreserveFormatting(markdown, ctx);
 
         appendBrSplitLineWithSpace(ctx, targetRow, targetCol, sp, 0, style);
         if (!sp.lines.isEmpty()) {
@@ -686,8 +920,8 @@ public final class MarkdownRenderer {
         }
 
         for (int i = 1; i < sp.lines.size(); i++) {
-            Row r2 = RowUtil.createRow(ctx.sheet, ctx.st, ctx.styles.normalStyle);
-            Cell c2 = r2.createCell(targetCol);
+            Row r2 = RowUtil.createRow(ctx.sheet, ctx.st, ctx.styles.normalStyle());
+            Cell c2 = RowUtil.createCell(r2, targetCol, ctx.st);
             setBrSplitLineCell(ctx, c2, sp, i, style);
             ctx.st.afterWriteNormalText(r2.getRowNum(), targetCol, indent, false);
         }
@@ -759,9 +993,9 @@ public final class MarkdownRenderer {
         return col;
     }
 
-    private static String applyHardLineBreak(String text, LineInfo li) {
-        boolean byBackslash = MdTextUtil.hasHardLineBreakByBackslash(li.raw);
-        boolean bySpaces = MdTextUtil.hasHardLineBreakBySpaces(li.raw);
+    static String applyHardLineBreak(String text, LineInfo li) {
+        boolean byBackslash = MdTextUtil.hasHardLineBreakByBackslash(li.line);
+        boolean bySpaces = MdTextUtil.hasHardLineBreakBySpaces(li.line);
         if (!byBackslash && !bySpaces) {
             return text;
         }
@@ -797,7 +1031,10 @@ public final class MarkdownRenderer {
                 ? Collections.<MarkdownInline.MdSegment>emptyList()
                 : sp.lines.get(lineIndex);
 
-        MarkdownInline.setResolvedSegmentsCell(ctx.wb, cell, line, style);
+        MarkdownInline.setResolvedSegmentsCell(ctx.fonts, cell, line, style);
+        if (ctx.st.paragraphWrap != null && !line.isEmpty()) {
+            ctx.st.paragraphWrap.add(cell.getRowIndex(), cell.getColumnIndex());
+        }
     }
 
     private static void appendBrSplitLineWithSpace(RenderContext ctx, int rowNum, int colNum,
@@ -1,9 +1,13 @@
 package md2excel.render;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
 import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.usermodel.Workbook;
 
 import md2excel.excel.MdStyle;
@@ -14,82 +18,132 @@ public final class MarkdownTable {
     private MarkdownTable() {
     }
 
-    public static boolean isTableLine(String line) {
-        String trimmed = line.trim();
-        return countPipesOutsideInlineCode(trimmed) >= 1;
+    public static boolean isTableLine(CharSequence line) {
+        int from = MdTextUtil.trimStart(line);
+        return isTableLine(line, from, MdTextUtil.trimEnd(line, from));
+    }
+
+    // s の [from, to)（trim 済みの範囲）に、インラインコード外のエスケープされていない '|' があるか
+    public static boolean isTableLine(CharSequence s, int from, int to) {
+        boolean inCode = false;
+        for (int i = from; i < to; i++) {
+            char ch = s.charAt(i);
+            if (ch == '`') {
+                inCode = !inCode;
+                continue;
+            }
+            if (ch == '|' && !inCode && !isEscapedPipe(s, i)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     public static boolean isTableSeparatorLine(String trimmed) {
-        if (!trimmed.contains("|"))
-            return false;
-        for (int i = 0; i < trimmed.length(); i++) {
-            char c = trimmed.charAt(i);
-            if (c != '|' && c != '-' && c != ':' && !Character.isWhitespace(c)) {
+        return isTableSeparatorLine(trimmed, 0, trimmed.length());
+    }
+
+    // s の [from, to)（trim 済みの範囲）で判定する
+    public static boolean isTableSeparatorLine(CharSequence s, int from, int to) {
+        boolean hasPipe = false;
+        for (int i = from; i < to; i++) {
+            char c = s.charAt(i);
+            if (c == '|') {
+                hasPipe = true;
+            } else if (c != '-' && c != ':' && !Character.isWhitespace(c)) {
                 return false;
             }
         }
-        return true;
+        return hasPipe;
     }
 
     public static int createTableRow(Workbook wb, String line, Row row, MdStyle styles, boolean isHeaderRow,
             int startCol) {
+        int from = MdTextUtil.trimStart(line);
+        return createTableRow(new MarkdownInline.FontRegistry(wb), line, from, MdTextUtil.trimEnd(line, from), null,
+                RenderContext.DEFAULT_INLINE_LIMIT, row, styles, isHeaderRow, startCol, null);
+    }
 
-        String trimmed = line.trim();
-        String inner = trimmed;
-        if (inner.startsWith("|")) {
-            inner = inner.substring(1);
-        }
-        if (inner.endsWith("|")) {
-            inner = inner.substring(0, inner.length() - 1);
-        }
+    /**
+     * line の [from, to)（trim 済みの範囲）を 1 行分のセルにする。文字列はセルごとに作る（cache は null 可）。
+     * inlineLimit はセルごとの記号の run の数の上限（MarkdownInline.tokenizeInline）。
+     * widths が非 null なら、セルの文字列の幅を列ごとに足し込む（列幅の自動調整用）。
+     */
+    static int createTableRow(MarkdownInline.FontRegistry fonts, CharSequence line, int from, int to,
+            InlineSegmentCache cache, int inlineLimit, Row row, MdStyle styles, boolean isHeaderRow, int startCol,
+            ColumnWidths widths) {
+
+        List<String> colTexts = new ArrayList<String>();
+        splitCellTexts(line, from, to, colTexts);
 
         int colIndex = startCol;
+        for (String colText : colTexts) {
+            Cell cell = row.createCell(colIndex++);
+
+            MarkdownInline.BrSplitResult sp = MarkdownInline.splitByBrPreserveFormatting(colText, cache, inlineLimit);
+            List<MarkdownInline.MdSegment> joined = MarkdownInline.joinLinesWithSingleSpace(sp);
+
+            if (widths != null) {
+                widths.add(colIndex - 1 - startCol, joined,
+                        isHeaderRow ? styles.tableHeaderStyle() : styles.tableBodyStyle());
+            }
+
+            if (isHeaderRow) {
+                if (!joined.isEmpty()) {
+                    MarkdownInline.setResolvedSegmentsCell(fonts, cell, joined, styles.tableHeaderStyle());
+                } else {
+                    cell.setCellStyle(styles.tableHeaderStyle());
+                }
+            } else {
+                if (!joined.isEmpty()) {
+                    MarkdownInline.setResolvedSegmentsCell(fonts, cell, joined, styles.tableBodyStyle());
+                } else {
+                    cell.setCellStyle(styles.tableBodyStyle());
+                }
+            }
+        }
+
+        return colIndex - 1;
+    }
 
-        int segStart = 0;
-        int n = inner.length();
+    /**
+     * line の [from, to) をセルに分け、インライン解析に渡す文字列（"\|" を戻し、&lt;br&gt; を空白に、連続空白を 1 つに）を
+     * out に足す。 createTableRow と二段階変換の先読み（InlineResolver）で同じ文字列になるよう、ここだけで作る。
+     */
+    static void splitCellTexts(CharSequence line, int from, int to, List<String> out) {
+        int innerStart = from;
+        int n = to;
+        if (innerStart < n && line.charAt(innerStart) == '|') {
+            innerStart++;
+        }
+        if (innerStart < n && line.charAt(n - 1) == '|') {
+            n--;
+        }
+
+        int segStart = innerStart;
         boolean inCode = false;
-        for (int i = 0; i <= n; i++) {
-            if (i < n && inner.charAt(i) == '`') {
+        for (int i = innerStart; i <= n; i++) {
+            if (i < n && line.charAt(i) == '`') {
                 inCode = !inCode;
                 continue;
             }
-            if (i == n || (inner.charAt(i) == '|' && !inCode && !isEscapedPipe(inner, i))) {
-                String colText = inner.substring(segStart, i).trim();
+            if (i == n || (line.charAt(i) == '|' && !inCode && !isEscapedPipe(line, i))) {
+                String colText = line.subSequence(segStart, i).toString().trim();
 
                 colText = unescapePipeOutsideInlineCode(colText);
                 colText = MdTextUtil.replaceBrOutsideInlineCode(colText, " ");
                 colText = MdTextUtil.collapseSpaces(colText);
-
-                Cell cell = row.createCell(colIndex++);
-
-                MarkdownInline.BrSplitResult sp = MarkdownInline.splitByBrPreserveFormatting(colText);
-                List<MarkdownInline.MdSegment> joined = MarkdownInline.joinLinesWithSingleSpace(sp);
-
-                if (isHeaderRow) {
-                    if (!joined.isEmpty()) {
-                        MarkdownInline.setResolvedSegmentsCell(wb, cell, joined, styles.tableHeaderStyle);
-                    } else {
-                        cell.setCellStyle(styles.tableHeaderStyle);
-                    }
-                } else {
-                    if (!joined.isEmpty()) {
-                        MarkdownInline.setResolvedSegmentsCell(wb, cell, joined, styles.tableBodyStyle);
-                    } else {
-                        cell.setCellStyle(styles.tableBodyStyle);
-                    }
-                }
+                out.add(colText);
 
                 segStart = i + 1;
             }
         }
-
-        return colIndex - 1;
     }
 
     /**
      * pos の '|' が "\|" のようにエスケープされているか判定する。 直前に連続する '\' の個数が奇数ならエスケープ扱い。
      */
-    private static boolean isEscapedPipe(String s, int pos) {
+    private static boolean isEscapedPipe(CharSequence s, int pos) {
         if (pos <= 0 || pos >= s.length() || s.charAt(pos) != '|')
             return false;
         int bs = 0;
@@ -99,24 +153,7 @@ public final class MarkdownTable {
         return (bs % 2) == 1;
     }
 
-    private static int countPipesOutsideInlineCode(String s) {
-        if (s == null || s.isEmpty())
-            return 0;
-        int count = 0;
-        boolean inCode = false;
-        for (int i = 0; i < s.length(); i++) {
-            char ch = s.charAt(i);
-            if (ch == '`') {
-                inCode = !inCode;
-                continue;
-            }
-            if (ch == '|' && !inCode && !isEscapedPipe(s, i)) {
-                count++;
-            }
-        }
-        return count;
-    }
-
+    // [from, to) の前後は空白なので、isEscapedPipe が範囲外の '\' を数えることはない
     /**
      * テーブルセル内の "\|" を "|" に戻す。
      */
@@ -136,12 +173,23 @@ public final class MarkdownTable {
         return out.toString();
     }
 
-    public static void closeTableIfOpen(org.apache.poi.ss.usermodel.Sheet sheet, MdStyle styles, RenderState st) {
+    // 最終行の罫線は DecorationLog に記録し、後でまとめて当てる。 列幅の自動調整はここで列幅を広げる
+    public static void closeTableIfOpen(RenderContext ctx) {
+        RenderState st = ctx.st;
         if (!st.lastLineWasTable)
             return;
 
-        finalizeTableBorders(sheet, styles, st.currentTableHeaderRow, st.currentTableBodyStartRow,
-                st.currentTableLastBodyRow, st.currentTableStartCol, st.currentTableEndCol);
+        if (st.currentTableLastBodyRow >= 0 && st.currentTableBodyStartRow >= 0 && st.currentTableStartCol >= 0) {
+            st.decorations.tableLastRow(st.currentTableLastBodyRow, st.currentTableStartCol, st.currentTableEndCol);
+        }
+
+        if (st.tableWidths != null) {
+            st.tableWidths.applyTo(ctx.sheet, st.currentTableStartCol);
+            st.tableWidths.clear();
+            if (st.paragraphWrap != null) {
+                st.paragraphWrap.columnsChanged();
+            }
+        }
 
         st.lastLineWasTable = false;
         st.currentTableHeaderRow = -1;
@@ -151,24 +199,78 @@ public final class MarkdownTable {
         st.currentTableEndCol = -1;
     }
 
-    private static void finalizeTableBorders(org.apache.poi.ss.usermodel.Sheet sheet, MdStyle styles, int headerRow,
-            int bodyStartRow, int lastBodyRow, int startCol, int endCol) {
-
-        if (lastBodyRow < 0 || bodyStartRow < 0)
-            return;
-        if (startCol < 0 || endCol < startCol)
-            return;
-
-        Row row = sheet.getRow(lastBodyRow);
-        if (row == null)
-            return;
+    /**
+     * 新しいシートで、前のシートで閉じた表の本文を続ける（SheetRollover が表の途中で切り替えたとき）。 次の行は
+     * ヘッダではなく本文として書く。
+     */
+    static void continueTable(RenderState st, int startCol, int endCol) {
+        st.lastLineWasTable = true;
+        st.currentTableStartCol = startCol;
+        st.currentTableEndCol = endCol;
+        // ヘッダは前のシートに書いた（行番号は使わず、ヘッダが済んだ印にだけ使う）
+        st.currentTableHeaderRow = 0;
+    }
 
+    // 表の最終行（rowObj）の [startCol, endCol]。 @return 新しく作ったセル数
+    static int applyLastRowBorders(Row rowObj, MdStyle styles, int startCol, int endCol) {
+        int created = 0;
         for (int c = startCol; c <= endCol; c++) {
-            Cell cell = row.getCell(c);
-            if (cell == null)
-                cell = row.createCell(c);
-            cell.setCellStyle(styles.tableBodyLastRowStyle);
+            Cell cell = rowObj.getCell(c);
+            if (cell == null) {
+                cell = rowObj.createCell(c);
+                created++;
+            }
+            cell.setCellStyle(styles.tableBodyLastRowStyle());
         }
+        return created;
     }
 
-}
\ No newline at end of file
+    /**
+     * 開いている表の列ごとの最大幅（GlyphWidthTable の単位）。 セルを書くたびに足し込み、表を閉じるときに列幅にする
+     * （セルを読み直したり、フォントで測り直したりしない）。
+     */
+    static final class ColumnWidths {
+        // 文字の前後の余白（数字 1 文字分）
+        private static final float PADDING = 1.0f;
+        // 広げる上限（長い説明文の列が画面を超えないように）
+        static final int MAX_CHARS = 60;
+
+        private final GlyphWidthTable glyphs;
+        private float[] max = new float[8];
+        private int count;
+
+        ColumnWidths(GlyphWidthTable glyphs) {
+            this.glyphs = glyphs;
+        }
+
+        void add(int col, List<MarkdownInline.MdSegment> segments, CellStyle style) {
+            if (col >= max.length) {
+                max = Arrays.copyOf(max, Math.max(col + 1, max.length * 2));
+            }
+            float w = glyphs.width(segments, style);
+            if (w > max[col]) {
+                max[col] = w;
+            }
+            if (col >= count) {
+                count = col + 1;
+            }
+        }
+
+        // startCol からの列を、今の幅より広いときだけ広げる（他の表や本文の列は狭めない）
+        void applyTo(Sheet sheet, int startCol) {
+            for (int i = 0; i < count; i++) {
+                float chars = Math.min(MAX_CHARS, max[i] + PADDING);
+                int width = (int) Math.ceil(chars * 256);
+                int col = startCol + i;
+                if (width > sheet.getColumnWidth(col)) {
+                    sheet.setColumnWidth(col, width);
+                }
+            }
+        }
+
+        void clear() {
+            Arrays.fill(max, 0, count, 0f);
+            count = 0;
+        }
+    }
+}
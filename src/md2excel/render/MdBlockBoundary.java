@@ -54,15 +54,15 @@ public final class MdBlockBoundary {
 
             switch (act) {
             case CLOSE_TABLE:
-                MarkdownTable.closeTableIfOpen(ctx.sheet, ctx.styles, ctx.st);
+                MarkdownTable.closeTableIfOpen(ctx);
                 break;
 
             case CLOSE_BLOCK_QUOTE:
-                BlockQuoteUtil.closeBlockQuoteIfOpen(ctx.sheet, ctx.styles, ctx.st);
+                BlockQuoteUtil.closeBlockQuoteIfOpen(ctx.st);
                 break;
 
             case INSERT_AUTO_BLANK_IF_PREV_HEADING:
-                ctx.st.ensureAutoBlankIfPrevHeading(ctx.sheet, ctx.styles.normalStyle);
+                ctx.st.ensureAutoBlankIfPrevHeading(ctx.sheet, ctx.styles.normalStyle());
                 break;
 
             case RESET_PARAGRAPH:
@@ -78,7 +78,7 @@ public final class MdBlockBoundary {
 
     public static void closeTableIfLeaving(boolean tableLine, RenderContext ctx) {
         if (ctx.st.lastLineWasTable && !tableLine) {
-            MarkdownTable.closeTableIfOpen(ctx.sheet, ctx.styles, ctx.st);
+            MarkdownTable.closeTableIfOpen(ctx);
         }
     }
 }
@@ -0,0 +1,114 @@
+package md2excel.render;
+
+import java.util.Arrays;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.util.CellRangeAddress;
+
+import md2excel.excel.MdStyle;
+
+/**
+ * 長い本文（段落・箇条書き）の折り返し。
+ *
+ * 本文のセルの位置だけを記録しておき、装飾と同じ時機（XSSF では render の最後、SXSSF では行を書き出す直前）に、
+ * 文字列が右端（mergeCols 列）を超えるセルだけを、セルの列から右端まで結合して折り返し表示にし、行の高さを折り返した
+ * 行数分にする。 幅と行数は GlyphWidthTable から見積もる（セル内の太字・コードは考慮しない）。
+ *
+ * 装飾を当てた後に見るので、引用・表などのスタイルに変わったセルは対象にならない。
+ */
+final class ParagraphWrap {
+
+    // 1 行の高さ（フォントのポイント数に対する比。游ゴシック 11pt の既定の行の高さ 18.75pt に合わせる）
+    private static final float LINE_SPACING = 1.7f;
+
+    private final GlyphWidthTable glyphs;
+    private final int lastCol;
+
+    // 記録した本文のセル（行・列）
+    private int[] rows = new int[64];
+    private int[] cols = new int[64];
+    private int count;
+
+    // 列ごとの「その列から右端まで」の幅（文字数）。 列幅が変わったら（表の列幅の自動調整）null に戻す
+    private float[] avail;
+
+    ParagraphWrap(GlyphWidthTable glyphs, int mergeCols) {
+        this.glyphs = glyphs;
+        this.lastCol = mergeCols - 1;
+    }
+
+    void add(int row, int col) {
+        if (count == rows.length) {
+            rows = Arrays.copyOf(rows, count * 2);
+            cols = Arrays.copyOf(cols, count * 2);
+        }
+        rows[count] = row;
+        cols[count] = col;
+        count++;
+    }
+
+    // 列幅を変えたときに呼ぶ
+    void columnsChanged() {
+        avail = null;
+    }
+
+    /** limitRow 未満の行の記録を折り返す（limitRow 以降の分は残す）。 シートに無い行（書き出し済み）は飛ばす。 */
+    void apply(Sheet sheet, MdStyle styles, int limitRow) {
+        if (count == 0) {
+            return;
+        }
+
+        if (avail == null) {
+            avail = new float[lastCol + 2];
+            for (int c = lastCol; c >= 0; c--) {
+                avail[c] = avail[c + 1] + sheet.getColumnWidth(c) / 256f;
+            }
+        }
+
+        CellStyle plain = styles.normalStyle();
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            if (rows[i] >= limitRow) {
+                rows[kept] = rows[i];
+                cols[kept] = cols[i];
+                kept++;
+                continue;
+            }
+            Row row = sheet.getRow(rows[i]);
+            if (row != null) {
+                wrap(sheet, row, cols[i], avail[Math.min(cols[i], lastCol)], plain, styles);
+            }
+        }
+        count = kept;
+    }
+
+    private void wrap(Sheet sheet, Row row, int col, float width, CellStyle plain, MdStyle styles) {
+        Cell cell = row.getCell(col);
+        // 本文のスタイルのまま（引用などに変わっていない）で、右に別のセルが無いものだけ
+        if (cell == null || cell.getCellType() != CellType.STRING
+                || cell.getCellStyle().getIndex() != plain.getIndex() || row.getLastCellNum() > col + 1) {
+            return;
+        }
+
+        String text = cell.getStringCellValue();
+        int lines = glyphs.lineCount(text, plain, width);
+        if (lines <= 1) {
+            return;
+        }
+
+        if (col < lastCol) {
+            // 重なりの検査（結合済み領域の数に比例する）を省く。 同じセルは 2 回結合しない（スタイルが変わる）
+            sheet.addMergedRegionUnsafe(new CellRangeAddress(row.getRowNum(), row.getRowNum(), col, lastCol));
+        }
+        cell.setCellStyle(styles.wrappedNormalStyle());
+
+        float height = lines * glyphs.fontPoints(plain) * LINE_SPACING;
+        if (height > row.getHeightInPoints()) {
+            row.setHeightInPoints(height);
+        }
+    }
+}
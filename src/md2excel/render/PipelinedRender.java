@@ -0,0 +1,250 @@
+package md2excel.render;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import md2excel.render.MarkdownRenderer.LineInfo;
+import md2excel.render.MarkdownRenderer.LineKind;
+
+/**
+ * 3 段のパイプライン変換。 読み込み（入力の Iterator から String にする）→ 分類・インライン解析 → セルの書き込み を
+ * 別々のスレッドで重ねて動かす。 段の間は容量の決まったキュー（行のまとまり単位）でつなぐので、メモリは文書の大きさに
+ * よらない。
+ *
+ * POI を触るのは書き込み段（呼び出したスレッド）だけで、処理は render そのもの。 分類段は BlockModel と同じ規則で
+ * 行をつなぎ、render が解析する文字列を先に解析してまとまりごとの結果表を付ける（当たらなければ render 中に解析する
+ * だけなので、出力は render と同じ）。
+ */
+final class PipelinedRender {
+
+    private PipelinedRender() {
+    }
+
+    // 1 回に受け渡す行数
+    static final int BATCH_LINES = 256;
+    // 段の間に置けるまとまりの数
+    static final int QUEUE_BATCHES = 4;
+
+    // 入力の終わり
+    private static final Batch END = new Batch(Collections.<String>emptyList());
+
+    /** 段の間で受け渡す行のまとまり。 error が非 null なら前の段が失敗した。 */
+    private static final class Batch {
+        final List<String> lines;
+        Map<String, MarkdownInline.BrSplitResult> resolved;
+        Throwable error;
+
+        Batch(List<String> lines) {
+            this.lines = lines;
+        }
+
+        static Batch failed(Throwable error) {
+            Batch b = new Batch(Collections.<String>emptyList());
+            b.error = error;
+            return b;
+        }
+    }
+
+    static void render(Iterator<? extends CharSequence> it, RenderContext ctx) {
+        BlockingQueue<Batch> read = new ArrayBlockingQueue<Batch>(QUEUE_BATCHES);
+        BlockingQueue<Batch> classified = new ArrayBlockingQueue<Batch>(QUEUE_BATCHES);
+
+        Thread reader = new Thread(new Reader(it, read), "md2excel-reader");
+        Thread classifier = new Thread(new Classifier(read, classified, ctx.inlineCache != null, ctx.inlineLimit),
+                "md2excel-classifier");
+        reader.setDaemon(true);
+        classifier.setDaemon(true);
+        reader.start();
+        classifier.start();
+
+        try {
+            MarkdownRenderer.render(new BatchIterator(classified, ctx.inlineCache), ctx);
+        } finally {
+            // 途中で失敗しても、入力（呼び出し側が閉じる）を読むスレッドを止めてから戻る
+            reader.interrupt();
+            classifier.interrupt();
+            joinQuietly(reader);
+            joinQuietly(classifier);
+        }
+    }
+
+    private static void joinQuietly(Thread t) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                t.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** 1 段目。 入力を String にしてまとめる。 */
+    private static final class Reader implements Runnable {
+        private final Iterator<? extends CharSequence> it;
+        private final BlockingQueue<Batch> out;
+
+        Reader(Iterator<? extends CharSequence> it, BlockingQueue<Batch> out) {
+            this.it = it;
+            this.out = out;
+        }
+
+        @Override
+        public void run() {
+            try {
+                List<String> lines = new ArrayList<String>(BATCH_LINES);
+                while (it.hasNext()) {
+                    lines.add(it.next().toString());
+                    if (lines.size() == BATCH_LINES) {
+                        out.put(new Batch(lines));
+                        lines = new ArrayList<String>(BATCH_LINES);
+                    }
+                }
+                if (!lines.isEmpty()) {
+                    out.put(new Batch(lines));
+                }
+                out.put(END);
+            } catch (InterruptedException e) {
+                // 書き込み段が終わった
+            } catch (Throwable t) {
+                offerQuietly(out, Batch.failed(t));
+            }
+        }
+    }
+
+    /** 2 段目。 行を分類し、render が解析する文字列を先に解析する（状態はまとまりをまたいで持ち越す）。 */
+    private static final class Classifier implements Runnable {
+        private final BlockingQueue<Batch> in;
+        private final BlockingQueue<Batch> out;
+        private final boolean resolve;
+        private final int inlineLimit;
+
+        private final LineInfo li = new LineInfo();
+        private final List<String> cells = new ArrayList<String>();
+        private boolean inCodeBlock;
+        private boolean continuable; // 前の行がブロックを続けられる行か
+        private MarkdownInline.BrSplitResult prev;
+
+        Classifier(BlockingQueue<Batch> in, BlockingQueue<Batch> out, boolean resolve, int inlineLimit) {
+            this.in = in;
+            this.out = out;
+            this.resolve = resolve;
+            this.inlineLimit = inlineLimit;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    Batch b = in.take();
+                    if (b != END && b.error == null && resolve) {
+                        b.resolved = classify(b.lines);
+                    }
+                    out.put(b);
+                    if (b == END || b.error != null) {
+                        return;
+                    }
+                }
+            } catch (InterruptedException e) {
+                // 書き込み段が終わった
+            } catch (Throwable t) {
+                offerQuietly(out, Batch.failed(t));
+            }
+        }
+
+        private Map<String, MarkdownInline.BrSplitResult> classify(List<String> lines) {
+            Map<String, MarkdownInline.BrSplitResult> resolved = new HashMap<String, MarkdownInline.BrSplitResult>(
+                    lines.size() * 2);
+            for (String line : lines) {
+                li.parse(line, inCodeBlock);
+                LineKind kind = li.kind;
+                if (kind == LineKind.CODE_FENCE) {
+                    inCodeBlock = !inCodeBlock;
+                }
+                if (BlockModel.hasInline(kind)) {
+                    boolean sameBlock = continuable && BlockModel.continues(kind);
+                    prev = InlineResolver.resolveLine(li, sameBlock ? prev : null, cells, resolved, inlineLimit);
+                } else {
+                    prev = null;
+                }
+                continuable = BlockModel.canBeContinued(kind);
+            }
+            return resolved;
+        }
+    }
+
+    // 失敗を次の段に伝える（書き込み段が先に終わっていれば、割り込まれてあきらめる）
+    private static void offerQuietly(BlockingQueue<Batch> out, Batch failed) {
+        try {
+            out.put(failed);
+        } catch (InterruptedException e) {
+            // 書き込み段が終わった
+        }
+    }
+
+    /** 3 段目（書き込み）の入力。 まとまりが変わるたびに解析結果の表を差し替える。 */
+    private static final class BatchIterator implements Iterator<String> {
+        private final BlockingQueue<Batch> in;
+        private final InlineSegmentCache cache;
+
+        private Batch batch;
+        private int pos;
+
+        BatchIterator(BlockingQueue<Batch> in, InlineSegmentCache cache) {
+            this.in = in;
+            this.cache = cache;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (batch == null || (batch != END && pos == batch.lines.size())) {
+                Batch b;
+                try {
+                    b = in.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("書き込み待ちの間に中断されました", e);
+                }
+                if (b.error != null) {
+                    throw rethrow(b.error);
+                }
+                batch = b;
+                pos = 0;
+                if (cache != null) {
+                    cache.setResolved(b.resolved);
+                }
+            }
+            return batch != END;
+        }
+
+        @Override
+        public String next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return batch.lines.get(pos++);
+        }
+    }
+
+    // 前の段の例外をそのまま投げる（UncheckedIOException などを呼び出し側が見分けられるように）
+    private static RuntimeException rethrow(Throwable t) {
+        if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        }
+        if (t instanceof Error) {
+            throw (Error) t;
+        }
+        throw new IllegalStateException(t);
+    }
+}
@@ -0,0 +1,16 @@
+package md2excel.render;
+
+/**
+ * render の途中経過を受け取る。 render を呼んだスレッドから、一定間隔（PROGRESS_INTERVAL_MILLIS 以上あけて）と
+ * 最後に 1 回（isDone() が true）呼ばれる。
+ *
+ * 呼ばれている間は変換が止まるので、重い処理（画面の更新など）は別スレッドへ渡す。
+ */
+@FunctionalInterface
+public interface ProgressListener {
+
+    // 通知の最小間隔
+    long PROGRESS_INTERVAL_MILLIS = 200;
+
+    void onProgress(RenderProgress progress);
+}
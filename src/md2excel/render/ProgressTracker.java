@@ -0,0 +1,86 @@
+package md2excel.render;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * render 1 回分の途中経過の集計と中止の確認（ProgressListener / CancellationToken のどちらかを渡したときだけ作る）。
+ *
+ * 行ごとには数を足すだけで、中止の確認と時刻を見るのは CHECK_LINES 行ごと（期限の確認と通知の間隔の判定）。
+ */
+final class ProgressTracker {
+
+    // 中止の確認と時刻を見る間隔（行数）
+    private static final int CHECK_LINES = 64;
+
+    private static final long INTERVAL_NANOS = TimeUnit.MILLISECONDS
+            .toNanos(ProgressListener.PROGRESS_INTERVAL_MILLIS);
+
+    private final ProgressListener listener;
+    private final CancellationToken cancel;
+
+    private final long startNanos = System.nanoTime();
+    private long lines;
+    private long bytes;
+    private long rows;
+    private int lastRowIndex;
+
+    // 前回の通知
+    private long reportedNanos = startNanos;
+    private long reportedLines;
+
+    ProgressTracker(ProgressListener listener, CancellationToken cancel) {
+        this.listener = listener;
+        this.cancel = cancel;
+    }
+
+    /** 次の行を処理する前に呼ぶ。 中止されていれば CancellationException。 */
+    void beforeLine() {
+        if (cancel != null && lines % CHECK_LINES == 0) {
+            cancel.throwIfCancelled();
+        }
+    }
+
+    /** 1 行処理した後に呼ぶ。 rowIndex は今のシートの次の行番号。 */
+    void afterLine(CharSequence line, int rowIndex) {
+        lines++;
+        bytes += utf8Length(line) + 1;
+        // シートを切り替えると行番号は 0 に戻る
+        rows += (rowIndex >= lastRowIndex) ? rowIndex - lastRowIndex : rowIndex;
+        lastRowIndex = rowIndex;
+
+        if (listener != null && lines % CHECK_LINES == 0) {
+            long now = System.nanoTime();
+            if (now - reportedNanos >= INTERVAL_NANOS) {
+                report(now, false);
+            }
+        }
+    }
+
+    /** render の最後（後処理の後）に 1 回呼ぶ。 */
+    void finish() {
+        if (listener != null) {
+            report(System.nanoTime(), true);
+        }
+    }
+
+    private void report(long now, boolean done) {
+        double sec = Math.max(1e-9, (now - reportedNanos) / 1e9);
+        double rate = (lines - reportedLines) / sec;
+        reportedNanos = now;
+        reportedLines = lines;
+        listener.onProgress(new RenderProgress(lines, bytes, rows, now - startNanos, rate, done));
+    }
+
+    private static int utf8Length(CharSequence s) {
+        int n = s.length();
+        int len = n;
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x80) {
+                // サロゲートは 2 つで 4 バイト
+                len += (c < 0x800 || Character.isSurrogate(c)) ? 1 : 2;
+            }
+        }
+        return len;
+    }
+}
@@ -1,20 +1,181 @@
 package md2excel.render;
 
+import org.apache.poi.ss.usermodel.CellStyle;
 import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.streaming.SXSSFSheet;
 
 import md2excel.excel.MdStyle;
 
 public final class RenderContext {
+    // ストリーミング時に「開いたブロック」のために保持する行数の既定値
+    public static final int DEFAULT_BACK_PATCH_WINDOW = 1000;
+    // インライン解析結果のキャッシュの既定エントリ数（0 で使わない）
+    public static final int DEFAULT_INLINE_CACHE_SIZE = 1024;
+    // 1 シートの行数の既定の上限（Excel の上限 1,048,576 行までに切れ目を待つ余裕を残す）
+    public static final int DEFAULT_SHEET_ROWS = 1000000;
+    // 1 行（表はセル）の記号の run の数の既定の上限（超えたら装飾せず文字のまま出す。0 で上限なし）
+    public static final int DEFAULT_INLINE_LIMIT = 10000;
+
     final Workbook wb;
-    final Sheet sheet;
     final MdStyle styles;
     final RenderState st;
 
+    // 書き込み中のシート（行数の上限で SheetRollover が差し替える）
+    Sheet sheet;
+    // SXSSF のときだけ非 null（行のフラッシュ先）
+    SXSSFSheet streamingSheet;
+    final int backPatchWindow;
+
+    // 1 シートの行数の上限と、切り替えたシートの名前（baseSheetName_2, _3, ...）
+    final int sheetRows;
+    final String baseSheetName;
+    int sheetNumber = 1;
+
+    // 途中経過の通知・中止の確認（どちらも渡さなければ null）
+    final ProgressTracker progress;
+
+    // 計測（null なら計測しない）
+    final RenderListener listener;
+
+    // インライン解析結果のキャッシュ（null なら使わない）
+    final InlineSegmentCache inlineCache;
+
+    // 1 行（表はセル）の記号の run の数の上限（0 なら上限なし。MarkdownInline.tokenizeInline）
+    final int inlineLimit;
+
+    // 太字・斜体・コード用のフォント（この Workbook 専用）
+    final MarkdownInline.FontRegistry fonts;
+
+    // 文字列の表示幅の見積もり（この Workbook 専用）
+    final GlyphWidthTable glyphs;
+
+    // 差分変換のブロックの索引（記録しないときは null。MarkdownRenderer.render / resume で渡す）
+    BlockIndex blocks;
+
+    /** render の設定。 mergeCols のほかは既定値から変えるものだけ設定する。 */
+    public static final class Settings {
+        final int mergeCols;
+        int backPatchWindow = DEFAULT_BACK_PATCH_WINDOW;
+        RenderListener listener;
+        int inlineCacheSize = DEFAULT_INLINE_CACHE_SIZE;
+        boolean sparseDecoration;
+        boolean tableAutoWidth;
+        boolean wrapText;
+        int sheetRows = DEFAULT_SHEET_ROWS;
+        ProgressListener progress;
+        CancellationToken cancel;
+        int inlineLimit = DEFAULT_INLINE_LIMIT;
+
+        /** mergeCols: 1 行分として扱う列数（右端）。 */
+        public Settings(int mergeCols) {
+            this.mergeCols = mergeCols;
+        }
+
+        /** ストリーミング時に開いたブロックのために保持する行数（最低 2 行）。 */
+        public Settings backPatchWindow(int backPatchWindow) {
+            this.backPatchWindow = backPatchWindow;
+            return this;
+        }
+
+        /** 計測（行種別ごとの時間・行/セル数）の通知先。 null 可。 */
+        public Settings listener(RenderListener listener) {
+            this.listener = listener;
+            return this;
+        }
+
+        /** インライン解析結果のキャッシュのエントリ数。 0 で使わない。 */
+        public Settings inlineCacheSize(int inlineCacheSize) {
+            this.inlineCacheSize = inlineCacheSize;
+            return this;
+        }
+
+        /** コード・引用の背景と水平線をセルではなく条件付き書式で付ける（枠線のあるセルだけ作る）。 */
+        public Settings sparseDecoration(boolean sparseDecoration) {
+            this.sparseDecoration = sparseDecoration;
+            return this;
+        }
+
+        /** 表を閉じるときに、セルの文字列の幅（GlyphWidthTable の見積もり）に合わせて表の列を広げる。 */
+        public Settings tableAutoWidth(boolean tableAutoWidth) {
+            this.tableAutoWidth = tableAutoWidth;
+            return this;
+        }
+
+        /** 右端（mergeCols 列）を超える本文を、右端まで結合して折り返し、行の高さを折り返した行数分にする。 */
+        public Settings wrapText(boolean wrapText) {
+            this.wrapText = wrapText;
+            return this;
+        }
+
+        /**
+         * 1 シートの行数の上限。 達したら次の安全な切れ目（見出し・リストの項目・リストの外の空行）で新しいシートに
+         * 移る。 0 以下は既定値。
+         */
+        public Settings sheetRows(int sheetRows) {
+            this.sheetRows = sheetRows;
+            return this;
+        }
+
+        /**
+         * progress: 途中経過（読んだ行・バイト・作った行・処理速度）の通知先。 cancel: 行と行の間で確認する中止の指示
+         * （中止されたら render が CancellationException を投げる）。 どちらも null 可。
+         */
+        public Settings progress(ProgressListener progress, CancellationToken cancel) {
+            this.progress = progress;
+            this.cancel = cancel;
+            return this;
+        }
+
+        /**
+         * 1 行（表はセル）の記号の run（バッククォートの run と、強調記号として扱う * / _ の run）の数の上限。 超えた行
+         * は装飾せず文字のまま出す（機械的に作られた記号だらけの行で解析・セルの書式が重くならないように）。 0 で上限
+         * なし。
+         */
+        public Settings inlineLimit(int inlineLimit) {
+            this.inlineLimit = inlineLimit;
+            return this;
+        }
+    }
+
+    /** mergeCols のほかはすべて既定値。 */
     public RenderContext(Workbook wb, Sheet sheet, MdStyle styles, int mergeCols) {
+        this(wb, sheet, styles, new Settings(mergeCols));
+    }
+
+    public RenderContext(Workbook wb, Sheet sheet, MdStyle styles, Settings settings) {
         this.wb = wb;
         this.sheet = sheet;
         this.styles = styles;
-        this.st = new RenderState(mergeCols);
+        this.st = new RenderState(settings.mergeCols, settings.sparseDecoration);
+        this.streamingSheet = (sheet instanceof SXSSFSheet) ? (SXSSFSheet) sheet : null;
+        // 直前行の再利用/追記があるので最低 2 行は残す
+        this.backPatchWindow = Math.max(2, settings.backPatchWindow);
+        this.sheetRows = (settings.sheetRows > 0) ? settings.sheetRows : DEFAULT_SHEET_ROWS;
+        this.baseSheetName = sheet.getSheetName();
+        this.progress = (settings.progress != null || settings.cancel != null)
+                ? new ProgressTracker(settings.progress, settings.cancel) : null;
+        this.listener = settings.listener;
+        this.inlineCache = (settings.inlineCacheSize > 0) ? new InlineSegmentCache(settings.inlineCacheSize) : null;
+        this.inlineLimit = Math.max(0, settings.inlineLimit);
+        this.fonts = new MarkdownInline.FontRegistry(wb);
+        this.glyphs = new GlyphWidthTable(wb);
+        if (settings.tableAutoWidth) {
+            this.st.tableWidths = new MarkdownTable.ColumnWidths(glyphs);
+        }
+        if (settings.wrapText) {
+            this.st.paragraphWrap = new ParagraphWrap(glyphs, st.mergeLastCol);
+        }
+    }
+
+    /**
+     * すべてのスタイル（MdStyle.createAll）と、その太字・斜体・インラインコード・コードブロック用のフォントを決まった
+     * 順に作る。 フォントの index も文書の中身によらず同じになる（差分変換）。
+     */
+    public void createAllStyles() {
+        for (CellStyle s : styles.createAll()) {
+            fonts.markdownFonts(s);
+        }
+        fonts.codeBlockFonts(styles.codeBlockStyle());
     }
 }
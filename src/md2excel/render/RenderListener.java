@@ -0,0 +1,30 @@
+package md2excel.render;
+
+import java.io.PrintStream;
+
+/**
+ * render の計測結果を受け取る。 RenderContext に渡したときだけ計測する（渡さなければ計測コードは通らない）。
+ *
+ * 同じ render からは 1 スレッドで順に呼ばれる。
+ */
+public interface RenderListener {
+
+    /**
+     * 1 行処理するごとに呼ばれる。
+     *
+     * @param kind 行種別（LineKind の名前）
+     * @param nanos 境界処理・&lt;br&gt; 継続・本処理を合わせた時間
+     * @param rows 新しく作った行数
+     * @param cells 新しく作ったセル数（後からの装飾で作ったセルを含む）
+     */
+    default void onLine(String kind, long nanos, int rows, int cells) {
+    }
+
+    /** render の最後に 1 回呼ばれる。 */
+    void onFinish(RenderStats stats);
+
+    /** 終了時に集計表を out に出すだけのリスナー。 */
+    static RenderListener printingTo(PrintStream out) {
+        return stats -> stats.printSummary(out);
+    }
+}
@@ -0,0 +1,62 @@
+package md2excel.render;
+
+import java.util.Locale;
+
+/**
+ * render の途中経過（ProgressListener に渡す。 不変なので別スレッドへ渡してよい）。
+ *
+ * bytes は読んだ行を UTF-8（改行 1 バイト）にしたときのバイト数。 入力が UTF-8・LF ならファイル内の位置と同じ。
+ */
+public final class RenderProgress {
+
+    private final long lines;
+    private final long bytes;
+    private final long rows;
+    private final long elapsedNanos;
+    private final double linesPerSecond;
+    private final boolean done;
+
+    RenderProgress(long lines, long bytes, long rows, long elapsedNanos, double linesPerSecond, boolean done) {
+        this.lines = lines;
+        this.bytes = bytes;
+        this.rows = rows;
+        this.elapsedNanos = elapsedNanos;
+        this.linesPerSecond = linesPerSecond;
+        this.done = done;
+    }
+
+    /** 読んだ行数。 */
+    public long lines() {
+        return lines;
+    }
+
+    /** 読んだバイト数（UTF-8 換算）。 */
+    public long bytes() {
+        return bytes;
+    }
+
+    /** 作った行数（シートを切り替えたときは全シートの合計）。 */
+    public long rows() {
+        return rows;
+    }
+
+    public long elapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /** 前回の通知からの処理速度（行/秒）。 */
+    public double linesPerSecond() {
+        return linesPerSecond;
+    }
+
+    /** render の最後の通知なら true。 */
+    public boolean isDone() {
+        return done;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "%d lines, %.1f MB, %d rows, %.0f lines/s, %.1f s", lines,
+                bytes / 1048576.0, rows, linesPerSecond, elapsedNanos / 1e9);
+    }
+}
@@ -34,6 +34,18 @@ final class RenderState {
 
     int rowIndex = 0;
 
+    // ストリーミング出力で書き出し済みの行数（この行番号未満はもう触れない）
+    int flushedRowCount = 0;
+
+    // 作成したセル数（計測用。RowUtil.createCell と後処理の装飾で数える）
+    int cellsCreated = 0;
+
+    // 追記中のセル（次の行でも追記が続く間だけ開いておく）
+    final MarkdownInline.OpenCell openCell = new MarkdownInline.OpenCell();
+
+    // 閉じたブロックの装飾（まとめて当てるまで記録しておく）
+    final DecorationLog decorations;
+
     // リスト
     final List<ListStackUtil.ListLevel> listStack = new ArrayList<>();
 
@@ -71,6 +83,12 @@ final class RenderState {
     int currentTableLastBodyRow = -1;
     int currentTableEndCol = -1;
 
+    // 開いている表の列幅（列幅の自動調整をしないときは null）
+    MarkdownTable.ColumnWidths tableWidths;
+
+    // 本文の折り返し（折り返さないときは null）
+    ParagraphWrap paragraphWrap;
+
     // 見出し本文
     boolean inHeadingParagraphBlock = false;
 
@@ -141,9 +159,10 @@ final class RenderState {
         WRITE_NORMAL_TEXT
     }
 
-    RenderState(int mergeCols) {
+    RenderState(int mergeCols, boolean sparseDecoration) {
         this.mergeLastCol = mergeCols;
         this.lastColIndex = mergeCols - 1;
+        this.decorations = new DecorationLog(sparseDecoration);
     }
 
     // 共通（「何かを書いた後」）の固定化。※ lastWasBlockQuote は呼び出し側（Tx）で決める
@@ -494,6 +513,120 @@ final class RenderState {
         apply(Tx.SKIP_TABLE_SEPARATOR, -1, -1, 0, false);
     }
 
+    /**
+     * 新しいシートに移ったとき（SheetRollover）。 行番号を 0 に戻し、前のシートの行を指す状態を捨てる。 リストの深さ・
+     * 直前のコンテンツの種類と列・<br> 継続（列と書式だけを持つ）はそのまま引き継ぐ。 直前を空行扱いにして、新しい
+     * シートの先頭に空行を作らない。
+     */
+    void startNewSheet() {
+        rowIndex = 0;
+        flushedRowCount = 0;
+
+        lastRowType = RowType.BLANK;
+        lastLineWasTable = false;
+        lastBlankFromMarkdown = false;
+        lastBlankRowIndex = -1;
+        lastBlankAfterTable = false;
+        lastWasBlockQuote = false;
+
+        // 前のシートのセルへの追記（段落・説明行の連結）は切る
+        bulletDetailActive = false;
+        lastNormalRowIndex = -1;
+        lastNormalIndent = -1;
+        pendingListBrRow = -1;
+        pendingListBrHasCell = false;
+
+        codeBlockFirstRow = -1;
+        codeBlockLastRow = -1;
+
+        currentTableHeaderRow = -1;
+        currentTableBodyStartRow = -1;
+        currentTableLastBodyRow = -1;
+        currentTableEndCol = -1;
+
+        blockQuoteFirstRow = -1;
+        blockQuoteLastRow = -1;
+        blockQuoteCellRow = -1;
+        blockQuoteCellCol = -1;
+
+        bulletDetailRow = -1;
+        bulletDetailCol = -1;
+    }
+
+    /**
+     * チェックポイント（BlockIndex）の保存・復元。 保存と復元で同じ順序を通るように 1 つのメソッドにまとめる。
+     * 境界処理で空になっているもの（<br> 継続の文字列・スタイル）と、差分変換で使わない列幅・折り返しは持たない。
+     */
+    void transfer(BlockIndex.Codec c) {
+        rowIndex = c.i(rowIndex);
+        lastRowType = c.e(lastRowType, RowType.values());
+        inCodeBlock = c.b(inCodeBlock);
+        lastLineWasTable = c.b(lastLineWasTable);
+
+        lastBlankFromMarkdown = c.b(lastBlankFromMarkdown);
+        lastBlankRowIndex = c.i(lastBlankRowIndex);
+        lastBlankAfterTable = c.b(lastBlankAfterTable);
+
+        inNestedNumberBlock = c.b(inNestedNumberBlock);
+        nestedNumberCol = c.i(nestedNumberCol);
+        nestedNumberIndent = c.i(nestedNumberIndent);
+
+        lastContentType = c.e(lastContentType, ContentType.values());
+        lastContentCol = c.i(lastContentCol);
+        lastContentWasTable = c.b(lastContentWasTable);
+
+        codeBlockBaseIndent = c.i(codeBlockBaseIndent);
+        codeBlockFirstRow = c.i(codeBlockFirstRow);
+        codeBlockLastRow = c.i(codeBlockLastRow);
+        codeBlockCol = c.i(codeBlockCol);
+        currentCodeBlockIndent = c.i(currentCodeBlockIndent);
+
+        currentTableStartCol = c.i(currentTableStartCol);
+        currentTableHeaderRow = c.i(currentTableHeaderRow);
+        currentTableBodyStartRow = c.i(currentTableBodyStartRow);
+        currentTableLastBodyRow = c.i(currentTableLastBodyRow);
+        currentTableEndCol = c.i(currentTableEndCol);
+
+        inHeadingParagraphBlock = c.b(inHeadingParagraphBlock);
+        inListBlock = c.b(inListBlock);
+        lastNormalRowIndex = c.i(lastNormalRowIndex);
+        lastNormalIndent = c.i(lastNormalIndent);
+
+        inBlockQuote = c.b(inBlockQuote);
+        blockQuoteFirstRow = c.i(blockQuoteFirstRow);
+        blockQuoteLastRow = c.i(blockQuoteLastRow);
+        blockQuoteCol = c.i(blockQuoteCol);
+        lastWasBlockQuote = c.b(lastWasBlockQuote);
+        blockQuoteCellRow = c.i(blockQuoteCellRow);
+        blockQuoteCellCol = c.i(blockQuoteCellCol);
+
+        bulletDetailActive = c.b(bulletDetailActive);
+        bulletDetailRow = c.i(bulletDetailRow);
+        bulletDetailCol = c.i(bulletDetailCol);
+
+        pendingHeadingBr = c.b(pendingHeadingBr);
+        pendingHeadingLevel = c.i(pendingHeadingLevel);
+        pendingListBr = c.b(pendingListBr);
+        pendingListBrCol = c.i(pendingListBrCol);
+        pendingListBrRow = c.i(pendingListBrRow);
+        pendingListBrHasCell = c.b(pendingListBrHasCell);
+        pendingQuoteBr = c.b(pendingQuoteBr);
+        pendingQuoteBrCol = c.i(pendingQuoteBrCol);
+        pendingSameColBr = c.b(pendingSameColBr);
+        pendingSameColBrCol = c.i(pendingSameColBrCol);
+
+        int levels = c.i(listStack.size());
+        for (int i = 0; i < levels; i++) {
+            ListStackUtil.ListLevel level = (i < listStack.size()) ? listStack.get(i)
+                    : new ListStackUtil.ListLevel(0, false);
+            level.indent = c.i(level.indent);
+            level.ordered = c.b(level.ordered);
+            if (i == listStack.size()) {
+                listStack.add(level);
+            }
+        }
+    }
+
     /** Markdown空行（入力の空行）を処理する：必要なら行を作り、必要なら作らない。 */
     void onMarkdownBlankLine(Sheet sheet, CellStyle normalRowStyle) {
         // 連続空行 or 直前が水平線なら「行は増やさない」(従来仕様)
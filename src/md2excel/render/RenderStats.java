@@ -0,0 +1,181 @@
+package md2excel.render;
+
+import java.io.PrintStream;
+import java.util.Locale;
+
+/**
+ * 1 回の render の計測結果（行種別ごとの件数・時間・作成した行/セル数）。
+ *
+ * 行種別ごとの時間は「境界処理 + &lt;br&gt; 継続 + 本処理」の合計。 境界処理（MdBlockBoundary）と &lt;br&gt; 継続
+ * （tryConsume*Br）の時間は別にも集計する。
+ */
+public final class RenderStats {
+
+    private final String[] kindNames;
+    private final long[] count;
+    private final long[] totalNanos;
+    private final long[] maxNanos;
+    private final long[] rows;
+    private final long[] cells;
+
+    private long lines;
+    private long parseNanos;
+    private long boundaryNanos;
+    private long brNanos;
+    private long brConsumed; // 前の行の <br> 継続として処理した行数
+    private long flushNanos;
+    private long finishNanos; // 終了時の後処理（開いたブロックを閉じる）
+    private long wallNanos;
+
+    // インライン解析結果のキャッシュ（使っていなければすべて 0）
+    private long inlineCacheHits;
+    private long inlineCacheMisses;
+    private long inlineCacheEvictions;
+
+    RenderStats(String[] kindNames) {
+        this.kindNames = kindNames.clone();
+        int n = kindNames.length;
+        this.count = new long[n];
+        this.totalNanos = new long[n];
+        this.maxNanos = new long[n];
+        this.rows = new long[n];
+        this.cells = new long[n];
+    }
+
+    void recordLine(int kind, long parse, long boundary, long br, boolean consumedByBr, long handler, int rowsDelta,
+            int cellsDelta) {
+        long nanos = boundary + br + handler;
+        lines++;
+        count[kind]++;
+        totalNanos[kind] += nanos;
+        if (nanos > maxNanos[kind]) {
+            maxNanos[kind] = nanos;
+        }
+        rows[kind] += rowsDelta;
+        cells[kind] += cellsDelta;
+
+        parseNanos += parse;
+        boundaryNanos += boundary;
+        brNanos += br;
+        if (consumedByBr) {
+            brConsumed++;
+        }
+    }
+
+    void addFlushNanos(long nanos) {
+        flushNanos += nanos;
+    }
+
+    void finish(long finish, long wall, InlineSegmentCache cache) {
+        finishNanos = finish;
+        wallNanos = wall;
+        if (cache != null) {
+            inlineCacheHits = cache.hits();
+            inlineCacheMisses = cache.misses();
+            inlineCacheEvictions = cache.evictions();
+        }
+    }
+
+    public int kindCount() {
+        return kindNames.length;
+    }
+
+    public String kindName(int kind) {
+        return kindNames[kind];
+    }
+
+    public long count(int kind) {
+        return count[kind];
+    }
+
+    public long totalNanos(int kind) {
+        return totalNanos[kind];
+    }
+
+    public long maxNanos(int kind) {
+        return maxNanos[kind];
+    }
+
+    public long rows(int kind) {
+        return rows[kind];
+    }
+
+    public long cells(int kind) {
+        return cells[kind];
+    }
+
+    public long lines() {
+        return lines;
+    }
+
+    public long parseNanos() {
+        return parseNanos;
+    }
+
+    public long boundaryNanos() {
+        return boundaryNanos;
+    }
+
+    public long brNanos() {
+        return brNanos;
+    }
+
+    public long brConsumedLines() {
+        return brConsumed;
+    }
+
+    public long flushNanos() {
+        return flushNanos;
+    }
+
+    public long finishNanos() {
+        return finishNanos;
+    }
+
+    /** render 全体の経過時間（行の読み込みを含む）。 */
+    public long wallNanos() {
+        return wallNanos;
+    }
+
+    public long inlineCacheHits() {
+        return inlineCacheHits;
+    }
+
+    public long inlineCacheMisses() {
+        return inlineCacheMisses;
+    }
+
+    /** 上限を超えて追い出したエントリ数。 */
+    public long inlineCacheEvictions() {
+        return inlineCacheEvictions;
+    }
+
+    /** 集計表（行種別ごと + 内訳）。 */
+    public String summary() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.ROOT, "%-16s %9s %11s %9s %9s %9s %9s%n", "kind", "count", "total ms", "avg us",
+                "max us", "rows", "cells"));
+        for (int k = 0; k < kindNames.length; k++) {
+            if (count[k] == 0) {
+                continue;
+            }
+            sb.append(String.format(Locale.ROOT, "%-16s %9d %11.2f %9.2f %9.1f %9d %9d%n", kindNames[k], count[k],
+                    totalNanos[k] / 1e6, totalNanos[k] / 1e3 / count[k], maxNanos[k] / 1e3, rows[k], cells[k]));
+        }
+        sb.append(String.format(Locale.ROOT, "lines=%d, parse=%.2f ms, boundary=%.2f ms, br=%.2f ms (%d lines),"
+                + " flush=%.2f ms, finish=%.2f ms, wall=%.2f ms%n", lines, parseNanos / 1e6, boundaryNanos / 1e6,
+                brNanos / 1e6, brConsumed, flushNanos / 1e6, finishNanos / 1e6, wallNanos / 1e6));
+        long lookups = inlineCacheHits + inlineCacheMisses;
+        if (lookups > 0) {
+            sb.append(String.format(Locale.ROOT, "inline cache: hits=%d, misses=%d (%.1f%% hit), evictions=%d%n",
+                    inlineCacheHits, inlineCacheMisses, 100.0 * inlineCacheHits / lookups, inlineCacheEvictions));
+        }
+        return sb.toString();
+    }
+
+    /** summary() を 1 回の書き込みで出す（並行変換でも行が混ざらない）。 */
+    public void printSummary(PrintStream out) {
+        out.print(summary());
+        out.flush();
+    }
+}
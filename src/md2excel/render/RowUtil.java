@@ -1,5 +1,6 @@
 package md2excel.render;
 
+import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.CellStyle;
 import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Sheet;
@@ -17,6 +18,12 @@ public final class RowUtil {
         NUMBER_ITEM
     }
 
+    // render 中のセル作成はここを通す（計測用にセル数を数える）
+    public static Cell createCell(Row row, int col, RenderState st) {
+        st.cellsCreated++;
+        return row.createCell(col);
+    }
+
     public static Row createRow(Sheet sheet, RenderState st, CellStyle defaultRowStyle) {
         Row row = sheet.createRow(st.rowIndex++);
         ensureRowStyle(row, defaultRowStyle);
@@ -0,0 +1,136 @@
+package md2excel.render;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.streaming.SXSSFSheet;
+
+import md2excel.render.MarkdownRenderer.LineInfo;
+import md2excel.render.MarkdownRenderer.LineKind;
+
+/**
+ * 行数の上限でのシートの切り替え（spec → spec_2 → spec_3 ...）。
+ *
+ * 今のシートの行数が sheetRows に達したら、次の切れ目で新しいシートに移る。 切れ目は、境界処理の後で
+ * コードブロック・表・引用・<br> 継続がどれも開いていない見出し行・リストの項目の行か、リストの外の空行だけ（空行は
+ * 切り替えで置き換わり、新しいシートの先頭に空行を作らない）。 リストの深さ・列の配置（列幅・既定の列スタイル）は
+ * そのまま引き継ぐ。
+ *
+ * 切れ目を待つと Excel の行数の上限（1,048,576 行）を超えるときは、切れ目でなくても切り替える。 開いているコード
+ * ブロック・引用は前のシートで枠・背景を閉じて次のシートで開き直し、表は前のシートで最終行の罫線を付けて次のシートで
+ * 本文の続きにする。 <br> 継続はそのまま続ける。
+ */
+final class SheetRollover {
+    private SheetRollover() {
+    }
+
+    // Excel の 1 シートの行数の上限
+    static final int EXCEL_MAX_ROWS = 1048576;
+
+    // 1 行が <br> の分のほかに作る行の数の上限（自動の空行・本文の行と、次の行の境界処理での自動の空行）
+    private static final int LINE_EXTRA_ROWS = 4;
+
+    /** 境界処理（applyBlockBoundary）の後に呼ぶ。 切り替えたら true。 */
+    static boolean rollOverIfNeeded(LineInfo li, RenderContext ctx) {
+        RenderState st = ctx.st;
+        if (st.rowIndex >= ctx.sheetRows && (isSafeBoundary(li, st) || isListItemBoundary(li, st))) {
+            rollOver(ctx, false);
+            return true;
+        }
+        if (st.rowIndex > 0 && exceedsExcelRows(li, st)) {
+            rollOver(ctx, true);
+            return true;
+        }
+        return false;
+    }
+
+    /** 見出し行かリストの外の空行で、何も開いていない（差分変換の切れ目にも使う）。 */
+    static boolean isSafeBoundary(LineInfo li, RenderState st) {
+        if (li.kind != LineKind.HEADING && !(li.kind == LineKind.BLANK && !st.inListBlock)) {
+            return false;
+        }
+        return nothingOpen(st);
+    }
+
+    // リストの項目の行で、何も開いていない（リストの深さは startNewSheet で引き継ぐ）
+    private static boolean isListItemBoundary(LineInfo li, RenderState st) {
+        return (li.kind == LineKind.BULLET_ITEM || li.kind == LineKind.NUMBER_ITEM) && nothingOpen(st);
+    }
+
+    private static boolean nothingOpen(RenderState st) {
+        return !st.inCodeBlock && !st.inBlockQuote && !st.lastLineWasTable && !st.openCell.isOpen()
+                && !st.pendingHeadingBr && !st.pendingListBr && !st.pendingQuoteBr && !st.pendingSameColBr;
+    }
+
+    // この行を今のシートに書くと Excel の上限を超えるかもしれない（1 行が作る行は、<br> の '<' の数 + 数行まで）
+    private static boolean exceedsExcelRows(LineInfo li, RenderState st) {
+        int room = EXCEL_MAX_ROWS - st.rowIndex;
+        CharSequence line = li.line;
+        int n = line.length();
+        if (room > n + LINE_EXTRA_ROWS) {
+            return false;
+        }
+        int rows = LINE_EXTRA_ROWS;
+        for (int i = 0; i < n; i++) {
+            if (line.charAt(i) == '<') {
+                rows++;
+            }
+        }
+        return rows > room;
+    }
+
+    // forced: 切れ目ではない（開いているブロックを閉じて、次のシートで続ける）
+    private static void rollOver(RenderContext ctx, boolean forced) {
+        RenderState st = ctx.st;
+        Sheet prev = ctx.sheet;
+
+        boolean tableOpen = st.lastLineWasTable;
+        int tableStartCol = st.currentTableStartCol;
+        int tableEndCol = st.currentTableEndCol;
+        if (forced) {
+            st.openCell.close();
+            CodeBlockUtil.closeCodeBlockFrameIfOpen(st);
+            BlockQuoteUtil.closeBlockQuoteIfOpen(st);
+            MarkdownTable.closeTableIfOpen(ctx);
+        }
+
+        // 今のシートの装飾・折り返しを済ませる（閉じていないブロックは無いので、記録はすべてこのシートの分）
+        st.cellsCreated += st.decorations.apply(prev, ctx.styles, Integer.MAX_VALUE);
+        st.decorations.finish(prev, ctx.styles);
+        if (st.paragraphWrap != null) {
+            st.paragraphWrap.apply(prev, ctx.styles, Integer.MAX_VALUE);
+        }
+
+        Sheet next = ctx.wb.createSheet(ctx.baseSheetName + "_" + (++ctx.sheetNumber));
+        next.setDisplayGridlines(prev.isDisplayGridlines());
+        next.setPrintGridlines(prev.isPrintGridlines());
+        for (int c = 0; c < st.mergeLastCol; c++) {
+            next.setColumnWidth(c, prev.getColumnWidth(c));
+            CellStyle colStyle = prev.getColumnStyle(c);
+            if (colStyle != null) {
+                next.setDefaultColumnStyle(c, colStyle);
+            }
+        }
+
+        if (ctx.streamingSheet != null) {
+            // 残っている行は以降触らないので書き出してしまう
+            try {
+                ctx.streamingSheet.flushRows();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        ctx.sheet = next;
+        ctx.streamingSheet = (next instanceof SXSSFSheet) ? (SXSSFSheet) next : null;
+        st.startNewSheet();
+        if (forced && tableOpen) {
+            MarkdownTable.continueTable(st, tableStartCol, tableEndCol);
+        }
+        if (st.paragraphWrap != null) {
+            st.paragraphWrap.columnsChanged();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package md2excel.render;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * SXSSF 出力時の行フラッシュ。
+ *
+ * 後から書き換える可能性のある行（直前行、開いているコードブロック/引用/テーブル最終行）はメモリに残し、
+ * それより前の行だけを書き出す。開いたブロックが backPatchWindow を超えた場合は、 位置が確定している装飾
+ * （コード枠の上/左/右、引用の背景）を DecorationLog に記録し、閉じたブロックの装飾と合わせて書き出す行の分だけ
+ * 当ててから書き出すので、ヒープは文書サイズに依存しない。
+ */
+final class StreamingFlushUtil {
+    private StreamingFlushUtil() {
+    }
+
+    static void flushIfNeeded(RenderContext ctx) {
+        if (ctx.streamingSheet == null)
+            return;
+
+        RenderState st = ctx.st;
+        int lastRow = st.rowIndex - 1;
+        if (lastRow <= st.flushedRowCount)
+            return;
+
+        int keepFrom = Math.max(oldestBackPatchRow(st), st.rowIndex - ctx.backPatchWindow);
+        if (keepFrom > lastRow)
+            keepFrom = lastRow;
+        if (keepFrom <= st.flushedRowCount)
+            return;
+
+        // 追記中のセルを装飾・書き出しする前に確定させる
+        if (st.openCell.isOpen() && st.openCell.rowNum() < keepFrom) {
+            st.openCell.close();
+        }
+
+        decorateOpenBlocks(ctx, st.flushedRowCount, keepFrom - 1);
+        st.cellsCreated += st.decorations.apply(ctx.sheet, ctx.styles, keepFrom);
+        if (st.paragraphWrap != null) {
+            st.paragraphWrap.apply(ctx.sheet, ctx.styles, keepFrom);
+        }
+
+        try {
+            ctx.streamingSheet.flushRows(st.rowIndex - keepFrom);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        // 窓を超えて書き出した引用セルには追記できない（続きは MarkdownRenderer が新しい引用の行に書く）
+        st.flushedRowCount = keepFrom;
+    }
+
+    // 後から getRow される可能性のある最も古い行
+    private static int oldestBackPatchRow(RenderState st) {
+        int row = st.rowIndex - 1;
+        if (st.inCodeBlock && st.codeBlockFirstRow >= 0)
+            row = Math.min(row, st.codeBlockFirstRow);
+        if (st.inBlockQuote && st.blockQuoteFirstRow >= 0)
+            row = Math.min(row, st.blockQuoteFirstRow);
+        if (st.inBlockQuote && st.blockQuoteCellRow >= 0)
+            row = Math.min(row, st.blockQuoteCellRow);
+        if (st.lastLineWasTable && st.currentTableLastBodyRow >= 0)
+            row = Math.min(row, st.currentTableLastBodyRow);
+        return row;
+    }
+
+    // [fromRow, toRow] を書き出す前に、開いているブロックの確定済み装飾を記録する
+    private static void decorateOpenBlocks(RenderContext ctx, int fromRow, int toRow) {
+        RenderState st = ctx.st;
+
+        if (st.inCodeBlock && st.codeBlockFirstRow >= 0) {
+            // 最終行（下枠線の候補）は flushIfNeeded が必ず残す
+            int to = Math.min(toRow, st.codeBlockLastRow - 1);
+            int from = Math.max(fromRow, st.codeBlockFirstRow);
+            st.decorations.codeFrame(st.codeBlockFirstRow, -1, from, to, st.codeBlockCol,
+                    Math.max(st.codeBlockCol, st.lastColIndex));
+        }
+
+        if (st.inBlockQuote && st.blockQuoteFirstRow >= 0) {
+            int to = Math.min(toRow, st.blockQuoteLastRow);
+            int from = Math.max(fromRow, st.blockQuoteFirstRow);
+            st.decorations.blockQuote(from, to, st.blockQuoteCol, Math.max(st.blockQuoteCol, st.lastColIndex));
+        }
+    }
+}